@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventObserver;
+
+/**
+ * An event observer that can handle multiple events at once. If such an
+ * observer is registered at a scoped event manager, events published in a
+ * batch (see {@link ScopedEventPublisher}) are passed with a single call to
+ * {@link #onEvents(List)}. Single events are passed to
+ * {@link IEventObserver#onEvent(IEvent, com.phloc.commons.callback.INonThrowingRunnableWithParameter)}
+ * without a result callback, so batch observers cannot veto against an
+ * event.<br>
+ * The event filter of the observer is evaluated per event, just like for
+ * regular observers: a batch only contains the matching events, and batches
+ * without any matching event are not passed at all.
+ * 
+ * @author Boris Gregorcic
+ */
+public interface IBatchEventObserver extends IEventObserver
+{
+  /**
+   * Handle a batch of events.
+   * 
+   * @param aEvents
+   *        The events in the order they were published. Never
+   *        <code>null</code> nor empty.
+   */
+  void onEvents (@Nonnull @Nonempty List <IEvent> aEvents);
+}
@@ -17,29 +17,249 @@
  */
 package com.phloc.event.scopes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.state.EChange;
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventFilter;
+import com.phloc.event.IEventObserver;
 import com.phloc.event.impl.helper.AbstractEventHelper;
 import com.phloc.event.impl.helper.SynchronousEventHelper;
 import com.phloc.event.resultaggregator.impl.DispatchResultAggregatorBooleanAnd;
 import com.phloc.event.sync.mgr.impl.BidirectionalSynchronousMulticastEventManager;
 import com.phloc.scopes.IScopeDestructionAware;
+import com.phloc.scopes.mgr.EScope;
 
 /**
- * Wraps the main event manager so that it becomes scope destruction aware
+ * Wraps the main event manager so that it becomes scope destruction aware.
+ * Additionally the registered observers and their event filters are reported
+ * to a {@link ScopedObserverCounter}, and removed from it again when the scope
+ * is destroyed. Events can also be delivered asynchronously, in which case the
+ * events of this manager are delivered in the order they were triggered.
+ * {@link IBatchEventObserver} instances are managed separately, so that they
+ * can receive batches of events with a single call.
  * 
  * @author philip
  */
 final class MainEventManager extends BidirectionalSynchronousMulticastEventManager implements IScopeDestructionAware
 {
-  public MainEventManager ()
+  private final ScopedObserverCounter m_aCounter;
+  private final EScope m_eLevel;
+  /** The event filters of all counted observers */
+  private final Map <IEventObserver, IEventFilter> m_aCountedFilters = new ConcurrentHashMap <IEventObserver, IEventFilter> ();
+  private final ScopedEventExecutor.SerialQueue m_aAsyncQueue = new ScopedEventExecutor.SerialQueue ();
+  private final ScopedEventObservingExceptionHandler m_aExceptionHandler = new ScopedEventObservingExceptionHandler ();
+  private final CopyOnWriteArrayList <IBatchEventObserver> m_aBatchObservers = new CopyOnWriteArrayList <IBatchEventObserver> ();
+
+  public MainEventManager (@Nonnull final ScopedObserverCounter aCounter, @Nullable final EScope eLevel)
   {
     super (AbstractEventHelper.getObserverQueueFactory (),
            SynchronousEventHelper.createSynchronousEventDispatcherFactory (DispatchResultAggregatorBooleanAnd.class,
                                                                            new ScopedEventObservingExceptionHandler ()));
+    m_aCounter = ValueEnforcer.notNull (aCounter, "Counter");
+    m_eLevel = eLevel;
+  }
+
+  /**
+   * Register an observer and count it.
+   * 
+   * @param aObserver
+   *        The observer to register. May not be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  EChange registerCountedObserver (@Nonnull final IEventObserver aObserver)
+  {
+    final IEventFilter aFilter = ValueEnforcer.notNull (aObserver.getEventFilter (), "EventFilter");
+    final EChange eChange;
+    if (aObserver instanceof IBatchEventObserver)
+      eChange = EChange.valueOf (m_aBatchObservers.addIfAbsent ((IBatchEventObserver) aObserver));
+    else
+      eChange = registerObserver (aObserver);
+    if (eChange.isChanged ())
+    {
+      m_aCountedFilters.put (aObserver, aFilter);
+      m_aCounter.add (m_eLevel, aFilter, 1);
+    }
+    return eChange;
+  }
+
+  /**
+   * Unregister a previously registered observer.
+   * 
+   * @param aObserver
+   *        The observer to unregister. May not be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  EChange unregisterCountedObserver (@Nonnull final IEventObserver aObserver)
+  {
+    final EChange eChange;
+    if (aObserver instanceof IBatchEventObserver)
+      eChange = EChange.valueOf (m_aBatchObservers.remove (aObserver));
+    else
+      eChange = unregisterObserver (aObserver);
+    if (eChange.isChanged ())
+    {
+      // Use the filter the observer was counted with
+      final IEventFilter aFilter = m_aCountedFilters.remove (aObserver);
+      if (aFilter != null)
+        m_aCounter.add (m_eLevel, aFilter, -1);
+    }
+    return eChange;
+  }
+
+  /**
+   * Trigger a single event on all regular and all batch observers.
+   * 
+   * @param aEvent
+   *        The event to trigger. May not be <code>null</code>.
+   * @return The aggregated result of the regular observers.
+   */
+  @Nullable
+  Object triggerEvent (@Nonnull final IEvent aEvent)
+  {
+    final Object aReturn = trigger (aEvent);
+    for (final IBatchEventObserver aObserver : m_aBatchObservers)
+      try
+      {
+        if (aObserver.getEventFilter ().matchesFilter (aEvent))
+          aObserver.onEvent (aEvent, null);
+      }
+      catch (final Throwable t)
+      {
+        m_aExceptionHandler.handleObservingException (t);
+      }
+    return aReturn;
+  }
+
+  /**
+   * Trigger multiple events. The regular observers are notified per event,
+   * each batch observer is notified once with all events matching its event
+   * filter.
+   * 
+   * @param aEvents
+   *        The events to trigger. May neither be <code>null</code> nor empty.
+   * @return <code>false</code> if a regular observer vetoed against any of the
+   *         events.
+   */
+  boolean triggerEvents (@Nonnull @Nonempty final List <IEvent> aEvents)
+  {
+    if (aEvents.size () == 1)
+    {
+      final Object aReturn = triggerEvent (aEvents.get (0));
+      return !(aReturn instanceof Boolean) || ((Boolean) aReturn).booleanValue ();
+    }
+
+    boolean bReturn = true;
+    for (final IEvent aEvent : aEvents)
+    {
+      final Object aReturn = trigger (aEvent);
+      if (aReturn instanceof Boolean && !((Boolean) aReturn).booleanValue ())
+        bReturn = false;
+    }
+    for (final IBatchEventObserver aObserver : m_aBatchObservers)
+      try
+      {
+        final List <IEvent> aMatchingEvents = _getMatchingEvents (aObserver, aEvents);
+        if (!aMatchingEvents.isEmpty ())
+          aObserver.onEvents (aMatchingEvents);
+      }
+      catch (final Throwable t)
+      {
+        m_aExceptionHandler.handleObservingException (t);
+      }
+    return bReturn;
+  }
+
+  /**
+   * Get all events the passed observer is interested in, the same way the
+   * regular observers are filtered.
+   * 
+   * @param aObserver
+   *        The batch observer. May not be <code>null</code>.
+   * @param aEvents
+   *        All events. May not be <code>null</code>.
+   * @return The passed list if all events match, a new list otherwise. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  private static List <IEvent> _getMatchingEvents (@Nonnull final IBatchEventObserver aObserver,
+                                                   @Nonnull final List <IEvent> aEvents)
+  {
+    final IEventFilter aFilter = aObserver.getEventFilter ();
+    List <IEvent> ret = null;
+    for (int i = 0; i < aEvents.size (); ++i)
+    {
+      final IEvent aEvent = aEvents.get (i);
+      if (aFilter.matchesFilter (aEvent))
+      {
+        if (ret != null)
+          ret.add (aEvent);
+      }
+      else
+        if (ret == null)
+        {
+          // First non-matching event - copy all previous events
+          ret = new ArrayList <IEvent> (aEvents.subList (0, i));
+        }
+    }
+    return ret == null ? aEvents : ret;
+  }
+
+  /**
+   * Trigger the passed events asynchronously.
+   * 
+   * @param aEvents
+   *        The events to trigger. May neither be <code>null</code> nor empty.
+   *        The list may not be modified afterwards.
+   * @return A future that is completed with <code>false</code> if an observer
+   *         vetoed against an event, and with <code>true</code> otherwise.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  CompletableFuture <Boolean> triggerEventsAsync (@Nonnull @Nonempty final List <IEvent> aEvents)
+  {
+    final CompletableFuture <Boolean> aResult = new CompletableFuture <Boolean> ();
+    m_aAsyncQueue.execute (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          aResult.complete (Boolean.valueOf (triggerEvents (aEvents)));
+        }
+        catch (final Throwable t)
+        {
+          aResult.completeExceptionally (t);
+        }
+      }
+    });
+    return aResult;
   }
 
   public void onScopeDestruction () throws Exception
   {
     // Stop the event manager
     stop ();
+
+    // The observers of this scope are gone
+    m_aBatchObservers.clear ();
+    for (final IEventObserver aObserver : m_aCountedFilters.keySet ())
+    {
+      final IEventFilter aFilter = m_aCountedFilters.remove (aObserver);
+      if (aFilter != null)
+        m_aCounter.add (m_eLevel, aFilter, -1);
+    }
   }
 }
@@ -0,0 +1,440 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.commons.state.EChange;
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventObserver;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.mgr.EScope;
+
+/**
+ * The scoped event engine behind {@link ScopedEventManager} and
+ * {@link WebScopedEventManager}, which only delegate to it - the behaviour of
+ * their methods is documented here. It is parameterized over the scope
+ * enumeration used for registration. Each value of the enumeration is mapped
+ * to the {@link EScope} level with the same name, as every web scope is also
+ * the non-web scope of its level.<br>
+ * All state is shared by all engines: each scope instance has only one
+ * {@link MainEventManager}, no matter whether observers were registered via
+ * web or non-web scopes, and notifying observers walks each scope exactly
+ * once.
+ * 
+ * @author Boris Gregorcic
+ * @param <ESCOPE>
+ *        The scope enumeration type
+ * @param <SCOPETYPE>
+ *        The scope type resolved from the enumeration values
+ */
+@ThreadSafe
+abstract class ScopedEventEngine <ESCOPE extends Enum <ESCOPE>, SCOPETYPE extends IScope>
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopedEventEngine.class);
+  private static final String ATTR_EVENT_MANAGER = ScopedEventEngine.class.getName ();
+  private static final ScopedObserverCounter s_aCounter = new ScopedObserverCounter ();
+  // Bit mask of the ordinals of all scope levels with asynchronous delivery
+  private static final AtomicInteger s_aAsyncScopes = new AtomicInteger (0);
+
+  private final Class <SCOPETYPE> m_aScopeClass;
+  // The non-web scope level matching each enumeration value
+  private final EScope [] m_aLevels;
+
+  ScopedEventEngine (@Nonnull final Class <ESCOPE> aScopeEnumClass, @Nonnull final Class <SCOPETYPE> aScopeClass)
+  {
+    ValueEnforcer.notNull (aScopeEnumClass, "ScopeEnumClass");
+    m_aScopeClass = ValueEnforcer.notNull (aScopeClass, "ScopeClass");
+
+    final ESCOPE [] aValues = aScopeEnumClass.getEnumConstants ();
+    m_aLevels = new EScope [aValues.length];
+    for (final ESCOPE eValue : aValues)
+    {
+      for (final EScope eLevel : EScope.values ())
+        if (eLevel.name ().equals (eValue.name ()))
+          m_aLevels[eValue.ordinal ()] = eLevel;
+      if (m_aLevels[eValue.ordinal ()] == null)
+        throw new IllegalArgumentException ("No scope level matches " + eValue);
+    }
+  }
+
+  /**
+   * Get or create the scope of the passed enumeration value.
+   * 
+   * @param eScope
+   *        The scope to resolve. Never <code>null</code>.
+   * @return The scope. May not be <code>null</code>.
+   */
+  @Nonnull
+  protected abstract SCOPETYPE getOrCreateScope (@Nonnull ESCOPE eScope);
+
+  @Nonnull
+  private EScope _getLevel (@Nonnull final ESCOPE eScope)
+  {
+    return m_aLevels[eScope.ordinal ()];
+  }
+
+  /**
+   * Resolve the current scope of the passed enumeration value without
+   * throwing an exception if it is not available (e.g. no request scope in a
+   * background thread). Web scopes are resolved via the non-web
+   * {@link EScope} level as well, as they are managed by the same scope
+   * manager - this requires a phloc-webscopes version of the same series as
+   * phloc-scopes.
+   * 
+   * @param eScope
+   *        The scope to resolve. May not be <code>null</code>.
+   * @return <code>null</code> if the scope is not present.
+   */
+  @Nullable
+  private SCOPETYPE _getScopeOrNull (@Nonnull final ESCOPE eScope)
+  {
+    final IScope aScope = _getLevel (eScope).getScopeOrNull ();
+    return m_aScopeClass.isInstance (aScope) ? m_aScopeClass.cast (aScope) : null;
+  }
+
+  @Nullable
+  private static MainEventManager _getEventMgr (@Nonnull final IScope aScope)
+  {
+    ValueEnforcer.notNull (aScope, "Scope");
+
+    return aScope.getCastedAttribute (ATTR_EVENT_MANAGER);
+  }
+
+  @Nonnull
+  private static MainEventManager _getOrCreateEventMgr (@Nonnull final IScope aScope)
+  {
+    ValueEnforcer.notNull (aScope, "Scope");
+
+    // Does the scope already contain an event manager?
+    final MainEventManager aEventMgr = _getEventMgr (aScope);
+    if (aEventMgr != null)
+      return aEventMgr;
+
+    // Check again and create atomically, so that concurrent registrations
+    // don't create multiple event managers for the same scope
+    return aScope.runAtomic (new INonThrowingCallableWithParameter <MainEventManager, IScope> ()
+    {
+      public MainEventManager call (@Nonnull final IScope aCurrentScope)
+      {
+        MainEventManager aAtomicEventMgr = _getEventMgr (aCurrentScope);
+        if (aAtomicEventMgr == null)
+        {
+          // Build the event manager
+          aAtomicEventMgr = new MainEventManager (s_aCounter, ScopedObserverCounter.getScopeLevel (aCurrentScope));
+
+          // put it in scope and register the cleanup handler
+          aCurrentScope.setAttribute (ATTR_EVENT_MANAGER, aAtomicEventMgr);
+        }
+        return aAtomicEventMgr;
+      }
+    });
+  }
+
+  /**
+   * Register an observer in the current scope of the passed level. If the
+   * scope is not present, it is created.
+   * 
+   * @param eScope
+   *        The scope level to register the observer at. May not be
+   *        <code>null</code>.
+   * @param aObserver
+   *        The observer to register.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  final EChange registerObserver (@Nonnull final ESCOPE eScope, final IEventObserver aObserver)
+  {
+    IScope aScope = _getScopeOrNull (eScope);
+    if (aScope == null)
+    {
+      s_aLogger.warn ("Creating scope of type " + eScope + " because of event observer registration");
+      aScope = getOrCreateScope (eScope);
+    }
+    return registerObserver (aScope, aObserver);
+  }
+
+  /**
+   * Register an observer in the passed scope.
+   * 
+   * @param aScope
+   *        The scope to register the observer at. May not be <code>null</code>.
+   * @param aObserver
+   *        The observer to register. May not be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  static EChange registerObserver (@Nonnull final IScope aScope, @Nonnull final IEventObserver aObserver)
+  {
+    return _getOrCreateEventMgr (aScope).registerCountedObserver (aObserver);
+  }
+
+  /**
+   * Unregister an observer from the current scope of the passed level. The
+   * scope is not created if it is not present.
+   * 
+   * @param eScope
+   *        The scope level to unregister the observer from. May not be
+   *        <code>null</code>.
+   * @param aObserver
+   *        The observer to unregister. May not be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  final EChange unregisterObserver (@Nonnull final ESCOPE eScope, @Nonnull final IEventObserver aObserver)
+  {
+    final IScope aScope = _getScopeOrNull (eScope);
+    if (aScope != null)
+    {
+      final MainEventManager aEventMgr = _getEventMgr (aScope);
+      if (aEventMgr != null)
+        return aEventMgr.unregisterCountedObserver (aObserver);
+    }
+    return EChange.UNCHANGED;
+  }
+
+  private static int _getAsyncBit (@Nonnull final EScope eLevel)
+  {
+    return 1 << eLevel.ordinal ();
+  }
+
+  private static boolean _isAsynchronous (@Nonnull final EScope eLevel)
+  {
+    return (s_aAsyncScopes.get () & _getAsyncBit (eLevel)) != 0;
+  }
+
+  /**
+   * Check if the events of the passed scope level are delivered
+   * asynchronously.
+   * 
+   * @param eScope
+   *        The scope level to check. May not be <code>null</code>.
+   * @return <code>true</code> if the events are delivered asynchronously.
+   */
+  final boolean isAsynchronous (@Nonnull final ESCOPE eScope)
+  {
+    return _isAsynchronous (_getLevel (eScope));
+  }
+
+  /**
+   * Enable or disable the asynchronous event delivery for a scope level. By
+   * default all events are delivered synchronously. Asynchronous events are
+   * delivered by a bounded pool of background threads. The events of each
+   * scope are delivered in the order they were triggered. As the triggering
+   * thread doesn't wait for the delivery, observers of asynchronous levels
+   * cannot veto against an event when using {@link #notifyObservers(IEvent)}.
+   * Use {@link #notifyObserversAsync(IEvent)} to get the result of all levels.
+   * 
+   * @param eScope
+   *        The scope level to modify. May not be <code>null</code>.
+   * @param bAsynchronous
+   *        <code>true</code> to deliver the events asynchronously,
+   *        <code>false</code> to deliver them synchronously.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  final EChange setAsynchronous (@Nonnull final ESCOPE eScope, final boolean bAsynchronous)
+  {
+    ValueEnforcer.notNull (eScope, "Scope");
+
+    final int nBit = _getAsyncBit (_getLevel (eScope));
+    while (true)
+    {
+      final int nOld = s_aAsyncScopes.get ();
+      final int nNew = bAsynchronous ? nOld | nBit : nOld & ~nBit;
+      if (nNew == nOld)
+        return EChange.UNCHANGED;
+      if (s_aAsyncScopes.compareAndSet (nOld, nNew))
+        return EChange.CHANGED;
+    }
+  }
+
+  /**
+   * Trigger the event on all scopes with observers.
+   * 
+   * @param aEvent
+   *        The event to trigger.
+   * @param aAsyncResults
+   *        The list where the results of asynchronous levels are added to. May
+   *        be <code>null</code> if the caller is not interested in them.
+   * @return The result of the synchronous levels.
+   */
+  private static boolean _notifyObservers (@Nonnull final IEvent aEvent,
+                                           @Nullable final List <CompletableFuture <Boolean>> aAsyncResults)
+  {
+    // Quick check if any observer is registered
+    if (!s_aCounter.isAnyObserved ())
+      return true;
+
+    boolean bReturn = true;
+
+    // for all scopes
+    for (final EScope eCurrentScope : EScope.values ())
+    {
+      // Don't resolve scopes without observers interested in the event
+      if (!s_aCounter.isObserved (eCurrentScope, aEvent))
+        continue;
+
+      // get current instance of scope
+      final IScope aScope = eCurrentScope.getScopeOrNull ();
+      if (aScope != null)
+      {
+        // get event manager (may be null)
+        final MainEventManager aEventMgr = _getEventMgr (aScope);
+        if (aEventMgr != null)
+        {
+          if (_isAsynchronous (eCurrentScope))
+          {
+            // main event trigger in the background
+            final CompletableFuture <Boolean> aResult = aEventMgr.triggerEventsAsync (Collections.singletonList (aEvent));
+            if (aAsyncResults != null)
+              aAsyncResults.add (aResult);
+          }
+          else
+          {
+            // main event trigger
+            final Object aReturn = aEventMgr.triggerEvent (aEvent);
+            if (aReturn instanceof Boolean)
+              bReturn = ((Boolean) aReturn).booleanValue ();
+          }
+        }
+      }
+    }
+    return bReturn;
+  }
+
+  /**
+   * Notify observers without sender and without parameter. Only the scopes of
+   * levels with at least one registered observer are resolved. Events of
+   * asynchronous scope levels are only triggered but not awaited.
+   * 
+   * @param aEvent
+   *        The event on which observers should be notified.
+   * @return <code>true</code> if no synchronous observer vetoed against the
+   *         event
+   * @see #setAsynchronous(Enum, boolean)
+   */
+  static boolean notifyObservers (@Nonnull final IEvent aEvent)
+  {
+    return _notifyObservers (aEvent, null);
+  }
+
+  /**
+   * Notify observers without sender and without parameter, and get the result
+   * of all scope levels including the asynchronous ones. Synchronous scope
+   * levels are notified before this method returns.
+   * 
+   * @param aEvent
+   *        The event on which observers should be notified.
+   * @return A future that is completed with <code>true</code> if no observer
+   *         vetoed against the event, once all asynchronous observers were
+   *         notified. Never <code>null</code>.
+   * @see #setAsynchronous(Enum, boolean)
+   */
+  @Nonnull
+  static CompletableFuture <Boolean> notifyObserversAsync (@Nonnull final IEvent aEvent)
+  {
+    final List <CompletableFuture <Boolean>> aAsyncResults = new ArrayList <CompletableFuture <Boolean>> ();
+    final boolean bSyncReturn = _notifyObservers (aEvent, aAsyncResults);
+    if (aAsyncResults.isEmpty ())
+      return CompletableFuture.completedFuture (Boolean.valueOf (bSyncReturn));
+
+    return CompletableFuture.allOf (aAsyncResults.toArray (new CompletableFuture <?> [aAsyncResults.size ()]))
+                            .thenApply (new Function <Void, Boolean> ()
+                            {
+                              public Boolean apply (final Void aIgnored)
+                              {
+                                boolean bReturn = bSyncReturn;
+                                for (final CompletableFuture <Boolean> aResult : aAsyncResults)
+                                  if (!aResult.join ().booleanValue ())
+                                    bReturn = false;
+                                return Boolean.valueOf (bReturn);
+                              }
+                            });
+  }
+
+  /**
+   * Create a publisher for many events. The current scopes and their event
+   * managers are resolved only once.
+   * 
+   * @param nBatchSize
+   *        The number of events to dispatch at once. Must be &gt; 0. Use
+   *        {@link ScopedEventPublisher#DEFAULT_BATCH_SIZE} if unsure.
+   * @return A new publisher. Never <code>null</code>. Should be closed after
+   *         the last event was published.
+   */
+  @Nonnull
+  static ScopedEventPublisher createPublisher (@Nonnegative final int nBatchSize)
+  {
+    final List <MainEventManager> aSyncEventMgrs = new ArrayList <MainEventManager> ();
+    final List <MainEventManager> aAsyncEventMgrs = new ArrayList <MainEventManager> ();
+    if (s_aCounter.isAnyObserved ())
+    {
+      for (final EScope eCurrentScope : EScope.values ())
+        if (s_aCounter.isObserved (eCurrentScope))
+        {
+          final IScope aScope = eCurrentScope.getScopeOrNull ();
+          if (aScope != null)
+          {
+            final MainEventManager aEventMgr = _getEventMgr (aScope);
+            if (aEventMgr != null)
+              (_isAsynchronous (eCurrentScope) ? aAsyncEventMgrs : aSyncEventMgrs).add (aEventMgr);
+          }
+        }
+    }
+    return new ScopedEventPublisher (aSyncEventMgrs, aAsyncEventMgrs, nBatchSize);
+  }
+
+  /**
+   * Notify observers about multiple events at once. The scopes are resolved
+   * only once for all events, and {@link IBatchEventObserver} instances
+   * receive all events with a single call.
+   * 
+   * @param aEvents
+   *        The events on which observers should be notified. May not be
+   *        <code>null</code>.
+   * @return <code>true</code> if no synchronous observer vetoed against any of
+   *         the events
+   */
+  static boolean notifyObservers (@Nonnull final Collection <? extends IEvent> aEvents)
+  {
+    ValueEnforcer.notNull (aEvents, "Events");
+    if (aEvents.isEmpty ())
+      return true;
+
+    final ScopedEventPublisher aPublisher = createPublisher (aEvents.size ());
+    aPublisher.publishAll (aEvents);
+    return aPublisher.flush ();
+  }
+}
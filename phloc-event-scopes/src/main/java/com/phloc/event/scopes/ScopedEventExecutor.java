@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+
+/**
+ * The executor used for asynchronous event delivery. All asynchronous events
+ * are delivered by a small pool of daemon threads. Each scope has its own
+ * {@link SerialQueue}, so that the events of a scope are delivered in the
+ * order they were triggered, while different scopes are processed in
+ * parallel.<br>
+ * The number of pending events is bounded by {@link #MAX_PENDING_EVENTS}. If
+ * the limit is reached, the triggering thread waits until the delivery caught
+ * up (backpressure), but at most {@link #MAX_BACKPRESSURE_WAIT_MILLIS}
+ * milliseconds. The triggering thread may hold a scope lock (e.g. while a
+ * scope is destroyed), so waiting without a limit could dead lock with a
+ * delivery thread needing the same lock. If the wait times out or is
+ * interrupted, the event is queued nonetheless, exceeding the limit, so that
+ * neither the event nor the delivery order is lost. Events triggered from
+ * within an asynchronous observer never wait, as this could dead lock the
+ * delivery threads.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+final class ScopedEventExecutor
+{
+  /** The number of threads delivering asynchronous events */
+  public static final int THREAD_COUNT = 2;
+
+  /** The maximum number of pending asynchronous events */
+  public static final int MAX_PENDING_EVENTS = 1024;
+
+  /**
+   * The maximum time in milliseconds a triggering thread waits for the
+   * delivery to catch up, if {@link #MAX_PENDING_EVENTS} is reached
+   */
+  public static final long MAX_BACKPRESSURE_WAIT_MILLIS = 1000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopedEventExecutor.class);
+  private static final Semaphore s_aPendingEvents = new Semaphore (MAX_PENDING_EVENTS);
+  private static final ExecutorService s_aExecutor;
+
+  static
+  {
+    final AtomicInteger aThreadIndex = new AtomicInteger ();
+    final ThreadPoolExecutor aExecutor = new ThreadPoolExecutor (THREAD_COUNT,
+                                                                 THREAD_COUNT,
+                                                                 60,
+                                                                 TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue <Runnable> (),
+                                                                 new ThreadFactory ()
+                                                                 {
+                                                                   public Thread newThread (@Nonnull final Runnable aRunnable)
+                                                                   {
+                                                                     return new DeliveryThread (aRunnable,
+                                                                                                "phloc-scoped-event-" +
+                                                                                                    aThreadIndex.incrementAndGet ());
+                                                                   }
+                                                                 });
+    // Don't keep idle threads
+    aExecutor.allowCoreThreadTimeOut (true);
+    s_aExecutor = aExecutor;
+  }
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final ScopedEventExecutor s_aInstance = new ScopedEventExecutor ();
+
+  private ScopedEventExecutor ()
+  {}
+
+  /**
+   * Marker class for the delivery threads.
+   */
+  private static final class DeliveryThread extends Thread
+  {
+    DeliveryThread (@Nonnull final Runnable aRunnable, @Nonnull final String sName)
+    {
+      super (aRunnable, sName);
+      setDaemon (true);
+    }
+  }
+
+  /**
+   * A queue of tasks, that are executed one after another in the order they
+   * were added, by the shared delivery threads.
+   * 
+   * @author Boris Gregorcic
+   */
+  @ThreadSafe
+  static final class SerialQueue
+  {
+    private final Lock m_aLock = new ReentrantLock ();
+    @GuardedBy ("m_aLock")
+    private final Queue <Task> m_aTasks = new ArrayDeque <Task> ();
+    @GuardedBy ("m_aLock")
+    private boolean m_bScheduled = false;
+
+    private final Runnable m_aDrainer = new Runnable ()
+    {
+      public void run ()
+      {
+        _drain ();
+      }
+    };
+
+    /**
+     * Add a task to the queue.
+     * 
+     * @param aRunnable
+     *        The task to be executed. May not be <code>null</code>.
+     */
+    void execute (@Nonnull final Runnable aRunnable)
+    {
+      ValueEnforcer.notNull (aRunnable, "Runnable");
+
+      // Backpressure - but never block a delivery thread
+      final boolean bCounted = !(Thread.currentThread () instanceof DeliveryThread) && _acquirePendingEvent ();
+
+      boolean bSchedule;
+      m_aLock.lock ();
+      try
+      {
+        m_aTasks.add (new Task (aRunnable, bCounted));
+        bSchedule = !m_bScheduled;
+        m_bScheduled = true;
+      }
+      finally
+      {
+        m_aLock.unlock ();
+      }
+
+      if (bSchedule)
+        s_aExecutor.execute (m_aDrainer);
+    }
+
+    /**
+     * Wait for a free slot of the pending events, but at most
+     * {@link #MAX_BACKPRESSURE_WAIT_MILLIS} milliseconds.
+     * 
+     * @return <code>true</code> if a slot was acquired and must be released
+     *         after delivery, <code>false</code> if the event is queued
+     *         exceeding the limit.
+     */
+    private static boolean _acquirePendingEvent ()
+    {
+      try
+      {
+        if (s_aPendingEvents.tryAcquire (MAX_BACKPRESSURE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+          return true;
+        s_aLogger.warn ("Asynchronous event delivery did not catch up within " +
+                        MAX_BACKPRESSURE_WAIT_MILLIS +
+                        " milliseconds - queuing event exceeding the limit of " +
+                        MAX_PENDING_EVENTS +
+                        " pending events");
+      }
+      catch (final InterruptedException ex)
+      {
+        s_aLogger.warn ("Interrupted while waiting for asynchronous event delivery - queuing event exceeding the limit");
+        Thread.currentThread ().interrupt ();
+      }
+      return false;
+    }
+
+    private void _drain ()
+    {
+      while (true)
+      {
+        Task aTask;
+        m_aLock.lock ();
+        try
+        {
+          aTask = m_aTasks.poll ();
+          if (aTask == null)
+          {
+            m_bScheduled = false;
+            return;
+          }
+        }
+        finally
+        {
+          m_aLock.unlock ();
+        }
+
+        try
+        {
+          aTask.m_aRunnable.run ();
+        }
+        catch (final Throwable t)
+        {
+          s_aLogger.error ("Failed to deliver asynchronous event", t);
+        }
+        finally
+        {
+          if (aTask.m_bCounted)
+            s_aPendingEvents.release ();
+        }
+      }
+    }
+  }
+
+  private static final class Task
+  {
+    private final Runnable m_aRunnable;
+    private final boolean m_bCounted;
+
+    Task (@Nonnull final Runnable aRunnable, final boolean bCounted)
+    {
+      m_aRunnable = aRunnable;
+      m_bCounted = bCounted;
+    }
+  }
+}
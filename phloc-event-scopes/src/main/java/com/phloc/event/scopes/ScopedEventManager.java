@@ -17,13 +17,13 @@
  */
 package com.phloc.event.scopes;
 
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
 
-import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.state.EChange;
 import com.phloc.event.IEvent;
 import com.phloc.event.IEventObserver;
@@ -33,134 +33,101 @@ import com.phloc.scopes.IScope;
 import com.phloc.scopes.mgr.EScope;
 
 /**
- * Scope aware event manager for non-web scopes.
+ * Scope aware event manager for non-web scopes. Non-web scopes share their
+ * event managers and their asynchronous settings with the web scopes of the
+ * same level, so observers registered via {@link WebScopedEventManager} are
+ * notified as well.<br>
+ * All methods delegate to the {@link ScopedEventEngine}, which documents them.
  * 
  * @author philip
  */
+@ThreadSafe
 public final class ScopedEventManager
 {
-  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopedEventManager.class);
-  private static final String ATTR_EVENT_MANAGER = ScopedEventManager.class.getName ();
+  private static final ScopedEventEngine <EScope, IScope> s_aEngine = new ScopedEventEngine <EScope, IScope> (EScope.class,
+                                                                                                              IScope.class)
+  {
+    @Override
+    @Nonnull
+    protected IScope getOrCreateScope (@Nonnull final EScope eScope)
+    {
+      return eScope.getScope (true);
+    }
+  };
 
   private ScopedEventManager ()
   {}
 
-  @Nullable
-  private static IScope _getScope (@Nonnull final EScope eScope, final boolean bCreateIfNotExisting)
+  /** @see ScopedEventEngine#registerObserver(Enum, IEventObserver) */
+  @Nonnull
+  public static EChange registerObserver (@Nonnull final EScope eScope, final IEventObserver aObserver)
   {
-    try
-    {
-      return eScope.getScope (bCreateIfNotExisting);
-    }
-    catch (final RuntimeException ex)
-    {
-      if (bCreateIfNotExisting)
-      {
-        // Scope was required - rethrow
-        throw ex;
-      }
-      return null;
-    }
+    return s_aEngine.registerObserver (eScope, aObserver);
   }
 
-  @Nullable
-  private static MainEventManager _getEventMgr (@Nonnull final IScope aScope)
+  /** @see ScopedEventEngine#registerObserver(com.phloc.scopes.IScope, IEventObserver) */
+  @Nonnull
+  public static EChange registerObserver (@Nonnull final IScope aScope, @Nonnull final IEventObserver aObserver)
   {
-    ValueEnforcer.notNull (aScope, "Scope");
-
-    return aScope.getCastedAttribute (ATTR_EVENT_MANAGER);
+    return ScopedEventEngine.registerObserver (aScope, aObserver);
   }
 
+  /** @see ScopedEventEngine#unregisterObserver(Enum, IEventObserver) */
   @Nonnull
-  private static MainEventManager _getOrCreateEventMgr (@Nonnull final IScope aScope)
+  public static EChange unregisterObserver (@Nonnull final EScope eScope, @Nonnull final IEventObserver aObserver)
   {
-    ValueEnforcer.notNull (aScope, "Scope");
+    return s_aEngine.unregisterObserver (eScope, aObserver);
+  }
 
-    // Does the scope already contain an event manager?
-    MainEventManager aEventMgr = _getEventMgr (aScope);
-    if (aEventMgr == null)
-    {
-      // Build the event manager
-      aEventMgr = new MainEventManager ();
+  /** @see ScopedEventEngine#notifyObservers(IEvent) */
+  public static boolean notifyObservers (@Nonnull final IEventType aEventType)
+  {
+    return ScopedEventEngine.notifyObservers (new BaseEvent (aEventType));
+  }
 
-      // put it in scope and register the cleanup handler
-      aScope.setAttribute (ATTR_EVENT_MANAGER, aEventMgr);
-    }
-    return aEventMgr;
+  /** @see ScopedEventEngine#notifyObservers(IEvent) */
+  public static boolean notifyObservers (@Nonnull final IEvent aEvent)
+  {
+    return ScopedEventEngine.notifyObservers (aEvent);
   }
 
-  @Nonnull
-  public static EChange registerObserver (@Nonnull final EScope eScope, final IEventObserver aObserver)
+  /** @see ScopedEventEngine#notifyObservers(Collection) */
+  public static boolean notifyObservers (@Nonnull final Collection <? extends IEvent> aEvents)
   {
-    IScope aScope = _getScope (eScope, false);
-    if (aScope == null)
-    {
-      s_aLogger.warn ("Creating scope of type " + eScope + " because of event observer registration");
-      aScope = _getScope (eScope, true);
-    }
-    return registerObserver (aScope, aObserver);
+    return ScopedEventEngine.notifyObservers (aEvents);
   }
 
+  /** @see ScopedEventEngine#notifyObserversAsync(IEvent) */
   @Nonnull
-  public static EChange registerObserver (@Nonnull final IScope aScope, @Nonnull final IEventObserver aObserver)
+  public static CompletableFuture <Boolean> notifyObserversAsync (@Nonnull final IEvent aEvent)
   {
-    return _getOrCreateEventMgr (aScope).registerObserver (aObserver);
+    return ScopedEventEngine.notifyObserversAsync (aEvent);
   }
 
-  @Nonnull
-  public static EChange unregisterObserver (@Nonnull final EScope eScope, @Nonnull final IEventObserver aObserver)
+  /** @see ScopedEventEngine#isAsynchronous(Enum) */
+  public static boolean isAsynchronous (@Nonnull final EScope eScope)
   {
-    final IScope aScope = _getScope (eScope, false);
-    if (aScope != null)
-    {
-      final MainEventManager aEventMgr = _getEventMgr (aScope);
-      if (aEventMgr != null)
-        return aEventMgr.unregisterObserver (aObserver);
-    }
-    return EChange.UNCHANGED;
+    return s_aEngine.isAsynchronous (eScope);
   }
 
-  /**
-   * Notify observers without sender and without parameter.
-   * 
-   * @param aEventType
-   *        The event type for which an event should be triggered
-   * @return <code>true</code> if no observer vetoed against the event
-   */
-  public static boolean notifyObservers (final @Nonnull IEventType aEventType)
+  /** @see ScopedEventEngine#setAsynchronous(Enum, boolean) */
+  @Nonnull
+  public static EChange setAsynchronous (@Nonnull final EScope eScope, final boolean bAsynchronous)
   {
-    return notifyObservers (new BaseEvent (aEventType));
+    return s_aEngine.setAsynchronous (eScope, bAsynchronous);
   }
 
-  /**
-   * Notify observers without sender and without parameter.
-   * 
-   * @param aEvent
-   *        The event on which observers should be notified.
-   * @return <code>true</code> if no observer vetoed against the event
-   */
-  public static boolean notifyObservers (@Nonnull final IEvent aEvent)
+  /** @see ScopedEventEngine#createPublisher(int) */
+  @Nonnull
+  public static ScopedEventPublisher createPublisher ()
   {
-    boolean bReturn = true;
+    return ScopedEventEngine.createPublisher (ScopedEventPublisher.DEFAULT_BATCH_SIZE);
+  }
 
-    // for all scopes
-    for (final EScope eCurrentScope : EScope.values ())
-    {
-      // get current instance of scope
-      final IScope aScope = _getScope (eCurrentScope, false);
-      if (aScope != null)
-      {
-        // get event manager (may be null)
-        final MainEventManager aEventMgr = _getEventMgr (aScope);
-        if (aEventMgr != null)
-        {
-          // main event trigger
-          final Object aReturn = aEventMgr.trigger (aEvent);
-          if (aReturn instanceof Boolean)
-            bReturn = ((Boolean) aReturn).booleanValue ();
-        }
-      }
-    }
-    return bReturn;
+  /** @see ScopedEventEngine#createPublisher(int) */
+  @Nonnull
+  public static ScopedEventPublisher createPublisher (@Nonnegative final int nBatchSize)
+  {
+    return ScopedEventEngine.createPublisher (nBatchSize);
   }
 }
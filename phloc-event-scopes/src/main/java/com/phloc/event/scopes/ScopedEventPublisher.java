@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.event.IEvent;
+
+/**
+ * Publishes many events to the scoped event managers with little overhead.
+ * The scopes and their event managers are resolved only once, when the
+ * publisher is created. Published events are collected and dispatched in
+ * batches of {@link #getBatchSize()} events, or when {@link #flush()} or
+ * {@link #close()} is called. {@link IBatchEventObserver} instances receive
+ * each batch with a single call.<br>
+ * Note: as the scopes are resolved upon creation, observers registered in
+ * scopes without an event manager at that time are not notified. A publisher
+ * should therefore only be used for a limited period of time, e.g. for an
+ * import job.
+ * 
+ * @author Boris Gregorcic
+ */
+@NotThreadSafe
+public final class ScopedEventPublisher implements AutoCloseable
+{
+  /** The default number of events dispatched at once */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private final List <MainEventManager> m_aSyncEventMgrs;
+  private final List <MainEventManager> m_aAsyncEventMgrs;
+  private final int m_nBatchSize;
+  private List <IEvent> m_aPendingEvents;
+  private boolean m_bResult = true;
+
+  ScopedEventPublisher (@Nonnull final List <MainEventManager> aSyncEventMgrs,
+                        @Nonnull final List <MainEventManager> aAsyncEventMgrs,
+                        @Nonnegative final int nBatchSize)
+  {
+    m_aSyncEventMgrs = ValueEnforcer.notNull (aSyncEventMgrs, "SyncEventMgrs");
+    m_aAsyncEventMgrs = ValueEnforcer.notNull (aAsyncEventMgrs, "AsyncEventMgrs");
+    m_nBatchSize = ValueEnforcer.isGT0 (nBatchSize, "BatchSize");
+    m_aPendingEvents = new ArrayList <IEvent> ();
+  }
+
+  /**
+   * @return The number of events dispatched at once. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getBatchSize ()
+  {
+    return m_nBatchSize;
+  }
+
+  /**
+   * @return <code>true</code> if any event manager with observers was resolved
+   *         upon creation. If <code>false</code> all published events are
+   *         discarded.
+   */
+  public boolean hasObservers ()
+  {
+    return !m_aSyncEventMgrs.isEmpty () || !m_aAsyncEventMgrs.isEmpty ();
+  }
+
+  private void _dispatch ()
+  {
+    if (m_aPendingEvents.isEmpty ())
+      return;
+
+    // Use a new list, as asynchronous event managers keep the batch
+    final List <IEvent> aBatch = m_aPendingEvents;
+    m_aPendingEvents = new ArrayList <IEvent> ();
+
+    for (final MainEventManager aEventMgr : m_aSyncEventMgrs)
+      if (!aEventMgr.triggerEvents (aBatch))
+        m_bResult = false;
+    for (final MainEventManager aEventMgr : m_aAsyncEventMgrs)
+      aEventMgr.triggerEventsAsync (aBatch);
+  }
+
+  /**
+   * Publish a single event. The event is dispatched once the batch is full.
+   * 
+   * @param aEvent
+   *        The event to publish. May not be <code>null</code>.
+   */
+  public void publish (@Nonnull final IEvent aEvent)
+  {
+    ValueEnforcer.notNull (aEvent, "Event");
+
+    if (hasObservers ())
+    {
+      m_aPendingEvents.add (aEvent);
+      if (m_aPendingEvents.size () >= m_nBatchSize)
+        _dispatch ();
+    }
+  }
+
+  /**
+   * Publish multiple events.
+   * 
+   * @param aEvents
+   *        The events to publish. May not be <code>null</code>.
+   */
+  public void publishAll (@Nonnull final Collection <? extends IEvent> aEvents)
+  {
+    ValueEnforcer.notNull (aEvents, "Events");
+
+    for (final IEvent aEvent : aEvents)
+      publish (aEvent);
+  }
+
+  /**
+   * Dispatch all pending events.
+   * 
+   * @return <code>true</code> if no synchronous observer vetoed against any
+   *         event dispatched since the last flush. Observers of asynchronous
+   *         scope levels cannot veto.
+   */
+  public boolean flush ()
+  {
+    _dispatch ();
+    final boolean bResult = m_bResult;
+    m_bResult = true;
+    return bResult;
+  }
+
+  /**
+   * Dispatch all pending events. Same as {@link #flush()} but without a
+   * result.
+   */
+  public void close ()
+  {
+    flush ();
+  }
+}
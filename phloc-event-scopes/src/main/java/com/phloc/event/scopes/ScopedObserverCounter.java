@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventFilter;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.mgr.EScope;
+
+/**
+ * Counts the registered event observers per scope level and provides a bit
+ * mask of all scope levels that have at least one observer. Additionally the
+ * event filters of the observers are indexed per scope level, so that a level
+ * whose observers are not interested in an event (e.g. because they observe
+ * another event type) is skipped as well. This allows the event managers to
+ * skip the resolution of scopes without matching observers, so that an event
+ * nobody listens to is nearly free.<br>
+ * Web scopes are counted at the matching non-web level, as every web scope is
+ * also a non-web scope. Scopes that don't match any level are counted in an
+ * additional level, that marks all levels as observed.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+final class ScopedObserverCounter
+{
+  private static final int UNKNOWN_LEVEL = EScope.values ().length;
+  private static final int UNKNOWN_LEVEL_BIT = 1 << UNKNOWN_LEVEL;
+  private static final IEventFilter [] NO_FILTERS = new IEventFilter [0];
+
+  private final Lock m_aLock = new ReentrantLock ();
+  /** The number of observers per level and event filter */
+  @GuardedBy ("m_aLock")
+  private final List <Map <IEventFilter, Integer>> m_aCounts = new ArrayList <Map <IEventFilter, Integer>> ();
+  /** Copy of the distinct filters per level, read without locking */
+  private volatile IEventFilter [][] m_aFilters = new IEventFilter [UNKNOWN_LEVEL + 1] [];
+  private volatile int m_nObservedMask = 0;
+
+  ScopedObserverCounter ()
+  {
+    for (int i = 0; i <= UNKNOWN_LEVEL; ++i)
+    {
+      m_aCounts.add (new HashMap <IEventFilter, Integer> ());
+      m_aFilters[i] = NO_FILTERS;
+    }
+  }
+
+  /**
+   * Determine the scope level of the passed scope.
+   * 
+   * @param aScope
+   *        The scope to check. May not be <code>null</code>.
+   * @return <code>null</code> if the scope doesn't implement any of the known
+   *         scope interfaces.
+   */
+  @Nullable
+  static EScope getScopeLevel (@Nonnull final IScope aScope)
+  {
+    if (aScope instanceof IRequestScope)
+      return EScope.REQUEST;
+    if (aScope instanceof ISessionApplicationScope)
+      return EScope.SESSION_APPLICATION;
+    if (aScope instanceof ISessionScope)
+      return EScope.SESSION;
+    if (aScope instanceof IApplicationScope)
+      return EScope.APPLICATION;
+    if (aScope instanceof IGlobalScope)
+      return EScope.GLOBAL;
+    return null;
+  }
+
+  private static int _getIndex (@Nullable final EScope eLevel)
+  {
+    return eLevel == null ? UNKNOWN_LEVEL : eLevel.ordinal ();
+  }
+
+  /**
+   * Change the number of observers of a scope level with the passed event
+   * filter.
+   * 
+   * @param eLevel
+   *        The scope level. May be <code>null</code> for unknown scopes.
+   * @param aFilter
+   *        The event filter of the observers. May not be <code>null</code>.
+   * @param nDelta
+   *        The number of added (positive) or removed (negative) observers.
+   */
+  void add (@Nullable final EScope eLevel, @Nonnull final IEventFilter aFilter, final int nDelta)
+  {
+    if (nDelta == 0)
+      return;
+
+    final int nIndex = _getIndex (eLevel);
+    m_aLock.lock ();
+    try
+    {
+      final Map <IEventFilter, Integer> aCounts = m_aCounts.get (nIndex);
+      final Integer aOld = aCounts.get (aFilter);
+      final int nCount = Math.max (0, (aOld == null ? 0 : aOld.intValue ()) + nDelta);
+      if (nCount > 0)
+        aCounts.put (aFilter, Integer.valueOf (nCount));
+      else
+        aCounts.remove (aFilter);
+
+      // Publish the distinct filters if they changed
+      if (aOld == null || nCount == 0)
+      {
+        final IEventFilter [][] aFilters = m_aFilters.clone ();
+        aFilters[nIndex] = aCounts.keySet ().toArray (new IEventFilter [aCounts.size ()]);
+        m_aFilters = aFilters;
+      }
+
+      if (!aCounts.isEmpty ())
+        m_nObservedMask |= 1 << nIndex;
+      else
+        m_nObservedMask &= ~(1 << nIndex);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if at least one observer is registered at any
+   *         level.
+   */
+  boolean isAnyObserved ()
+  {
+    return m_nObservedMask != 0;
+  }
+
+  /**
+   * Check if the passed scope level may have observers.
+   * 
+   * @param eLevel
+   *        The scope level. May be <code>null</code> for unknown scopes.
+   * @return <code>true</code> if observers are registered at the passed level
+   *         or at an unknown level. For an unknown level <code>true</code> is
+   *         returned if any observer is registered.
+   */
+  boolean isObserved (@Nullable final EScope eLevel)
+  {
+    if (eLevel == null)
+      return isAnyObserved ();
+    return (m_nObservedMask & ((1 << _getIndex (eLevel)) | UNKNOWN_LEVEL_BIT)) != 0;
+  }
+
+  private static boolean _matchesAny (@Nonnull final IEventFilter [] aFilters, @Nonnull final IEvent aEvent)
+  {
+    for (final IEventFilter aFilter : aFilters)
+      if (aFilter.matchesFilter (aEvent))
+        return true;
+    return false;
+  }
+
+  /**
+   * Check if the passed scope level may have observers interested in the
+   * passed event.
+   * 
+   * @param eLevel
+   *        The scope level. May not be <code>null</code>.
+   * @param aEvent
+   *        The event to check. May not be <code>null</code>.
+   * @return <code>true</code> if an observer registered at the passed level
+   *         or at an unknown level has an event filter matching the event.
+   */
+  boolean isObserved (@Nonnull final EScope eLevel, @Nonnull final IEvent aEvent)
+  {
+    if (!isObserved (eLevel))
+      return false;
+    final IEventFilter [][] aFilters = m_aFilters;
+    return _matchesAny (aFilters[_getIndex (eLevel)], aEvent) || _matchesAny (aFilters[UNKNOWN_LEVEL], aEvent);
+  }
+}
@@ -17,13 +17,13 @@
  */
 package com.phloc.event.scopes;
 
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
 
-import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.state.EChange;
 import com.phloc.event.IEvent;
 import com.phloc.event.IEventObserver;
@@ -33,134 +33,101 @@ import com.phloc.webscopes.IWebScope;
 import com.phloc.webscopes.mgr.EWebScope;
 
 /**
- * Scope aware event manager for web scopes.
+ * Scope aware event manager for web scopes. Web scopes share their event
+ * managers and their asynchronous settings with the non-web scopes of the
+ * same level, so observers registered via {@link ScopedEventManager} are
+ * notified as well.<br>
+ * All methods delegate to the {@link ScopedEventEngine}, which documents them.
  * 
  * @author philip
  */
+@ThreadSafe
 public final class WebScopedEventManager
 {
-  private static final Logger s_aLogger = LoggerFactory.getLogger (WebScopedEventManager.class);
-  private static final String ATTR_EVENT_MANAGER = WebScopedEventManager.class.getName ();
+  private static final ScopedEventEngine <EWebScope, IWebScope> s_aEngine = new ScopedEventEngine <EWebScope, IWebScope> (EWebScope.class,
+                                                                                                                          IWebScope.class)
+  {
+    @Override
+    @Nonnull
+    protected IWebScope getOrCreateScope (@Nonnull final EWebScope eScope)
+    {
+      return eScope.getScope (true);
+    }
+  };
 
   private WebScopedEventManager ()
   {}
 
-  @Nullable
-  private static IWebScope _getScope (@Nonnull final EWebScope eScope, final boolean bCreateIfNotExisting)
+  /** @see ScopedEventEngine#registerObserver(Enum, IEventObserver) */
+  @Nonnull
+  public static EChange registerObserver (@Nonnull final EWebScope eScope, final IEventObserver aObserver)
   {
-    try
-    {
-      return eScope.getScope (bCreateIfNotExisting);
-    }
-    catch (final RuntimeException ex)
-    {
-      if (bCreateIfNotExisting)
-      {
-        // Scope was required - rethrow
-        throw ex;
-      }
-      return null;
-    }
+    return s_aEngine.registerObserver (eScope, aObserver);
   }
 
-  @Nullable
-  private static MainEventManager _getEventMgr (@Nonnull final IWebScope aScope)
+  /** @see ScopedEventEngine#registerObserver(com.phloc.scopes.IScope, IEventObserver) */
+  @Nonnull
+  public static EChange registerObserver (@Nonnull final IWebScope aScope, @Nonnull final IEventObserver aObserver)
   {
-    ValueEnforcer.notNull (aScope, "Scope");
-
-    return aScope.getCastedAttribute (ATTR_EVENT_MANAGER);
+    return ScopedEventEngine.registerObserver (aScope, aObserver);
   }
 
+  /** @see ScopedEventEngine#unregisterObserver(Enum, IEventObserver) */
   @Nonnull
-  private static MainEventManager _getOrCreateEventMgr (@Nonnull final IWebScope aScope)
+  public static EChange unregisterObserver (@Nonnull final EWebScope eScope, @Nonnull final IEventObserver aObserver)
   {
-    ValueEnforcer.notNull (aScope, "Scope");
+    return s_aEngine.unregisterObserver (eScope, aObserver);
+  }
 
-    // Does the scope already contain an event manager?
-    MainEventManager aEventMgr = _getEventMgr (aScope);
-    if (aEventMgr == null)
-    {
-      // Build the event manager
-      aEventMgr = new MainEventManager ();
+  /** @see ScopedEventEngine#notifyObservers(IEvent) */
+  public static boolean notifyObservers (@Nonnull final IEventType aEventType)
+  {
+    return ScopedEventEngine.notifyObservers (new BaseEvent (aEventType));
+  }
 
-      // put it in scope and register the cleanup handler
-      aScope.setAttribute (ATTR_EVENT_MANAGER, aEventMgr);
-    }
-    return aEventMgr;
+  /** @see ScopedEventEngine#notifyObservers(IEvent) */
+  public static boolean notifyObservers (@Nonnull final IEvent aEvent)
+  {
+    return ScopedEventEngine.notifyObservers (aEvent);
   }
 
-  @Nonnull
-  public static EChange registerObserver (@Nonnull final EWebScope eScope, final IEventObserver aObserver)
+  /** @see ScopedEventEngine#notifyObservers(Collection) */
+  public static boolean notifyObservers (@Nonnull final Collection <? extends IEvent> aEvents)
   {
-    IWebScope aScope = _getScope (eScope, false);
-    if (aScope == null)
-    {
-      s_aLogger.warn ("Creating scope of type " + eScope + " because of event observer registration");
-      aScope = _getScope (eScope, true);
-    }
-    return registerObserver (aScope, aObserver);
+    return ScopedEventEngine.notifyObservers (aEvents);
   }
 
+  /** @see ScopedEventEngine#notifyObserversAsync(IEvent) */
   @Nonnull
-  public static EChange registerObserver (@Nonnull final IWebScope aScope, @Nonnull final IEventObserver aObserver)
+  public static CompletableFuture <Boolean> notifyObserversAsync (@Nonnull final IEvent aEvent)
   {
-    return _getOrCreateEventMgr (aScope).registerObserver (aObserver);
+    return ScopedEventEngine.notifyObserversAsync (aEvent);
   }
 
-  @Nonnull
-  public static EChange unregisterObserver (@Nonnull final EWebScope eScope, @Nonnull final IEventObserver aObserver)
+  /** @see ScopedEventEngine#isAsynchronous(Enum) */
+  public static boolean isAsynchronous (@Nonnull final EWebScope eScope)
   {
-    final IWebScope aScope = _getScope (eScope, false);
-    if (aScope != null)
-    {
-      final MainEventManager aEventMgr = _getEventMgr (aScope);
-      if (aEventMgr != null)
-        return aEventMgr.unregisterObserver (aObserver);
-    }
-    return EChange.UNCHANGED;
+    return s_aEngine.isAsynchronous (eScope);
   }
 
-  /**
-   * Notify observers without sender and without parameter.
-   * 
-   * @param aEventType
-   *        The event type for which an event should be triggered
-   * @return <code>true</code> if no observer vetoed against the event
-   */
-  public static boolean notifyObservers (final @Nonnull IEventType aEventType)
+  /** @see ScopedEventEngine#setAsynchronous(Enum, boolean) */
+  @Nonnull
+  public static EChange setAsynchronous (@Nonnull final EWebScope eScope, final boolean bAsynchronous)
   {
-    return notifyObservers (new BaseEvent (aEventType));
+    return s_aEngine.setAsynchronous (eScope, bAsynchronous);
   }
 
-  /**
-   * Notify observers without sender and without parameter.
-   * 
-   * @param aEvent
-   *        The event on which observers should be notified.
-   * @return <code>true</code> if no observer vetoed against the event
-   */
-  public static boolean notifyObservers (@Nonnull final IEvent aEvent)
+  /** @see ScopedEventEngine#createPublisher(int) */
+  @Nonnull
+  public static ScopedEventPublisher createPublisher ()
   {
-    boolean bReturn = true;
+    return ScopedEventEngine.createPublisher (ScopedEventPublisher.DEFAULT_BATCH_SIZE);
+  }
 
-    // for all scopes
-    for (final EWebScope eCurrentScope : EWebScope.values ())
-    {
-      // get current instance of scope
-      final IWebScope aScope = _getScope (eCurrentScope, false);
-      if (aScope != null)
-      {
-        // get event manager (may be null)
-        final MainEventManager aEventMgr = _getEventMgr (aScope);
-        if (aEventMgr != null)
-        {
-          // main event trigger
-          final Object aReturn = aEventMgr.trigger (aEvent);
-          if (aReturn instanceof Boolean)
-            bReturn = ((Boolean) aReturn).booleanValue ();
-        }
-      }
-    }
-    return bReturn;
+  /** @see ScopedEventEngine#createPublisher(int) */
+  @Nonnull
+  public static ScopedEventPublisher createPublisher (@Nonnegative final int nBatchSize)
+  {
+    return ScopedEventEngine.createPublisher (nBatchSize);
   }
 }
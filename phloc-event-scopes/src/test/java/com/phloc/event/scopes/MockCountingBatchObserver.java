@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventType;
+import com.phloc.event.impl.AbstractEventObserver;
+
+/**
+ * Dummy batch observer.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class MockCountingBatchObserver extends AbstractEventObserver implements IBatchEventObserver
+{
+  private int m_nEventCount = 0;
+  private int m_nInvokeCount = 0;
+
+  public MockCountingBatchObserver ()
+  {
+    this (MockCountingObserver.TOPIC);
+  }
+
+  public MockCountingBatchObserver (@Nonnull final IEventType aEventType)
+  {
+    super (false, aEventType);
+  }
+
+  public void onEvent (final IEvent aEvent, @Nullable final INonThrowingRunnableWithParameter <Object> aResultCallback)
+  {
+    ++m_nEventCount;
+    ++m_nInvokeCount;
+  }
+
+  public void onEvents (final List <IEvent> aEvents)
+  {
+    m_nEventCount += aEvents.size ();
+    ++m_nInvokeCount;
+  }
+
+  public int getEventCount ()
+  {
+    return m_nEventCount;
+  }
+
+  public int getInvocationCount ()
+  {
+    return m_nInvokeCount;
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.mgr.EScope;
+import com.phloc.scopes.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link ScopedEventEngine}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopedEventEngineTest
+{
+  private static enum EMockScope
+  {
+    SESSION,
+    REQUEST;
+  }
+
+  private static enum EMockInvalidScope
+  {
+    REQUEST,
+    PAGE;
+  }
+
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testSharedEventManagers ()
+  {
+    final ScopedEventEngine <EMockScope, IScope> aEngine = new ScopedEventEngine <EMockScope, IScope> (EMockScope.class,
+                                                                                                       IScope.class)
+    {
+      @Override
+      @Nonnull
+      protected IScope getOrCreateScope (@Nonnull final EMockScope eScope)
+      {
+        return EScope.valueOf (eScope.name ()).getScope (true);
+      }
+    };
+
+    final MockCountingObserver aRequest = new MockCountingObserver ();
+    assertTrue (aEngine.registerObserver (EMockScope.REQUEST, aRequest).isChanged ());
+    try
+    {
+      // Same scope, same event manager
+      assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aRequest).isUnchanged ());
+
+      // Notified once via the other manager
+      assertTrue (ScopedEventManager.notifyObservers (MockCountingObserver.TOPIC));
+      assertEquals (1, aRequest.getInvocationCount ());
+
+      // The asynchronous setting is shared as well
+      assertTrue (aEngine.setAsynchronous (EMockScope.SESSION, true).isChanged ());
+      assertTrue (ScopedEventManager.isAsynchronous (EScope.SESSION));
+      assertTrue (ScopedEventManager.setAsynchronous (EScope.SESSION, false).isChanged ());
+      assertFalse (aEngine.isAsynchronous (EMockScope.SESSION));
+    }
+    finally
+    {
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aRequest).isChanged ());
+      assertTrue (aEngine.unregisterObserver (EMockScope.REQUEST, aRequest).isUnchanged ());
+    }
+  }
+
+  @Test
+  public void testConcurrentRegistration () throws Exception
+  {
+    final int nThreads = 8;
+    final MockCountingObserver [] aObservers = new MockCountingObserver [nThreads];
+    final IScope aAppScope = EScope.APPLICATION.getScope (true);
+    final CountDownLatch aStart = new CountDownLatch (1);
+    final Thread [] aThreads = new Thread [nThreads];
+    for (int i = 0; i < nThreads; ++i)
+    {
+      final MockCountingObserver aObserver = new MockCountingObserver ();
+      aObservers[i] = aObserver;
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+          {
+            aStart.await ();
+            ScopedEventEngine.registerObserver (aAppScope, aObserver);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+        }
+      });
+      aThreads[i].start ();
+    }
+    aStart.countDown ();
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+
+    try
+    {
+      // All observers ended up in the same event manager
+      assertTrue (ScopedEventManager.notifyObservers (MockCountingObserver.TOPIC));
+      for (final MockCountingObserver aObserver : aObservers)
+        assertEquals (1, aObserver.getInvocationCount ());
+    }
+    finally
+    {
+      for (final MockCountingObserver aObserver : aObservers)
+        assertTrue (ScopedEventManager.unregisterObserver (EScope.APPLICATION, aObserver).isChanged ());
+    }
+  }
+
+  @Test
+  public void testUnmatchedScope ()
+  {
+    try
+    {
+      new ScopedEventEngine <EMockInvalidScope, IScope> (EMockInvalidScope.class, IScope.class)
+      {
+        @Override
+        @Nonnull
+        protected IScope getOrCreateScope (@Nonnull final EMockInvalidScope eScope)
+        {
+          throw new UnsupportedOperationException ();
+        }
+      };
+      fail ();
+    }
+    catch (final IllegalArgumentException ex)
+    {}
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.phloc.commons.collections.ContainerHelper;
+
+/**
+ * Test class for class {@link ScopedEventExecutor}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopedEventExecutorTest
+{
+  @Test
+  public void testOrderPerQueue () throws InterruptedException
+  {
+    final int nQueues = 4;
+    final int nTasks = 2 * ScopedEventExecutor.MAX_PENDING_EVENTS;
+    final CountDownLatch aDone = new CountDownLatch (nQueues * nTasks);
+    final List <List <Integer>> aResults = ContainerHelper.newList ();
+    for (int nQueue = 0; nQueue < nQueues; ++nQueue)
+    {
+      final ScopedEventExecutor.SerialQueue aQueue = new ScopedEventExecutor.SerialQueue ();
+      // Only accessed by one thread at a time
+      final List <Integer> aResult = ContainerHelper.newList ();
+      aResults.add (aResult);
+      for (int i = 0; i < nTasks; ++i)
+      {
+        final Integer aValue = Integer.valueOf (i);
+        // Blocks if too many tasks are pending
+        aQueue.execute (new Runnable ()
+        {
+          public void run ()
+          {
+            aResult.add (aValue);
+            aDone.countDown ();
+          }
+        });
+      }
+    }
+    assertTrue (aDone.await (30, TimeUnit.SECONDS));
+
+    for (final List <Integer> aResult : aResults)
+    {
+      assertEquals (nTasks, aResult.size ());
+      for (int i = 0; i < nTasks; ++i)
+        assertEquals (i, aResult.get (i).intValue ());
+    }
+  }
+
+  @Test
+  public void testBackpressureIsBounded () throws InterruptedException
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ScopedEventExecutor.SerialQueue aQueue = new ScopedEventExecutor.SerialQueue ();
+    // Stall the delivery, so that all further tasks stay pending
+    aQueue.execute (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          aRelease.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      }
+    });
+
+    // Exceed the limit - the producer must not block forever
+    final int nTasks = ScopedEventExecutor.MAX_PENDING_EVENTS + 1;
+    final CountDownLatch aDone = new CountDownLatch (nTasks);
+    final List <Integer> aResult = ContainerHelper.newList ();
+    for (int i = 0; i < nTasks; ++i)
+    {
+      final Integer aValue = Integer.valueOf (i);
+      aQueue.execute (new Runnable ()
+      {
+        public void run ()
+        {
+          aResult.add (aValue);
+          aDone.countDown ();
+        }
+      });
+    }
+
+    // Nothing was lost and the order is retained
+    aRelease.countDown ();
+    assertTrue (aDone.await (30, TimeUnit.SECONDS));
+    assertEquals (nTasks, aResult.size ());
+    for (int i = 0; i < nTasks; ++i)
+      assertEquals (i, aResult.get (i).intValue ());
+  }
+}
@@ -20,11 +20,17 @@ package com.phloc.event.scopes;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventType;
 import com.phloc.event.impl.BaseEvent;
+import com.phloc.event.impl.EventTypeRegistry;
 import com.phloc.scopes.mgr.EScope;
 import com.phloc.scopes.mock.ScopeTestRule;
 
@@ -82,4 +88,96 @@ public final class ScopedEventManagerTest
     // unregister again should fail :)
     assertTrue (ScopedEventManager.unregisterObserver (EScope.GLOBAL, aGlobal).isUnchanged ());
   }
+
+  @Test
+  public void testBatch ()
+  {
+    final MockCountingObserver aRequest = new MockCountingObserver ();
+    final MockCountingBatchObserver aBatch = new MockCountingBatchObserver ();
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aRequest).isChanged ());
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aBatch).isChanged ());
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aBatch).isUnchanged ());
+    try
+    {
+      // Single event
+      assertTrue (ScopedEventManager.notifyObservers (MockCountingObserver.TOPIC));
+      assertEquals (1, aRequest.getInvocationCount ());
+      assertEquals (1, aBatch.getEventCount ());
+      assertEquals (1, aBatch.getInvocationCount ());
+
+      // Multiple events
+      final List <IEvent> aEvents = ContainerHelper.newList ();
+      for (int i = 0; i < 10; ++i)
+        aEvents.add (new BaseEvent (MockCountingObserver.TOPIC));
+      assertTrue (ScopedEventManager.notifyObservers (aEvents));
+      assertEquals (11, aRequest.getInvocationCount ());
+      assertEquals (11, aBatch.getEventCount ());
+      assertEquals (2, aBatch.getInvocationCount ());
+
+      // Publisher with smaller batches
+      final ScopedEventPublisher aPublisher = ScopedEventManager.createPublisher (4);
+      aPublisher.publishAll (aEvents);
+      assertTrue (aPublisher.flush ());
+      assertEquals (21, aRequest.getInvocationCount ());
+      assertEquals (21, aBatch.getEventCount ());
+      assertEquals (5, aBatch.getInvocationCount ());
+    }
+    finally
+    {
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aRequest).isChanged ());
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aBatch).isChanged ());
+    }
+  }
+
+  @Test
+  public void testBatchFilter ()
+  {
+    final IEventType aOtherTopic = EventTypeRegistry.createEventType ("othertopic");
+    final MockCountingBatchObserver aBatch = new MockCountingBatchObserver (aOtherTopic);
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aBatch).isChanged ());
+    try
+    {
+      // Not subscribed to these events
+      assertTrue (ScopedEventManager.notifyObservers (MockCountingObserver.TOPIC));
+      final List <IEvent> aEvents = ContainerHelper.newList ();
+      for (int i = 0; i < 5; ++i)
+        aEvents.add (new BaseEvent (MockCountingObserver.TOPIC));
+      assertTrue (ScopedEventManager.notifyObservers (aEvents));
+      assertEquals (0, aBatch.getEventCount ());
+      assertEquals (0, aBatch.getInvocationCount ());
+
+      // Mixed batch - only the matching events are passed
+      aEvents.add (new BaseEvent (aOtherTopic));
+      aEvents.add (new BaseEvent (MockCountingObserver.TOPIC));
+      aEvents.add (new BaseEvent (aOtherTopic));
+      assertTrue (ScopedEventManager.notifyObservers (aEvents));
+      assertEquals (2, aBatch.getEventCount ());
+      assertEquals (1, aBatch.getInvocationCount ());
+    }
+    finally
+    {
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aBatch).isChanged ());
+    }
+  }
+
+  @Test
+  public void testAsynchronous () throws Exception
+  {
+    final MockCountingObserver aApp = new MockCountingObserver ();
+    assertTrue (ScopedEventManager.registerObserver (EScope.APPLICATION, aApp).isChanged ());
+    assertTrue (ScopedEventManager.setAsynchronous (EScope.APPLICATION, true).isChanged ());
+    try
+    {
+      assertTrue (ScopedEventManager.isAsynchronous (EScope.APPLICATION));
+      assertTrue (ScopedEventManager.notifyObserversAsync (new BaseEvent (MockCountingObserver.TOPIC))
+                                    .get ()
+                                    .booleanValue ());
+      assertEquals (1, aApp.getInvocationCount ());
+    }
+    finally
+    {
+      ScopedEventManager.setAsynchronous (EScope.APPLICATION, false);
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.APPLICATION, aApp).isChanged ());
+    }
+  }
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.phloc.event.IEvent;
+import com.phloc.event.IEventFilter;
+import com.phloc.event.impl.BaseEvent;
+import com.phloc.event.impl.EventTypeRegistry;
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.impl.GlobalScope;
+import com.phloc.scopes.mgr.EScope;
+
+/**
+ * Test class for class {@link ScopedObserverCounter}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopedObserverCounterTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final IEventFilter aFilter = new MockCountingObserver ().getEventFilter ();
+    final ScopedObserverCounter aCounter = new ScopedObserverCounter ();
+    assertFalse (aCounter.isAnyObserved ());
+    for (final EScope eScope : EScope.values ())
+      assertFalse (aCounter.isObserved (eScope));
+
+    aCounter.add (EScope.REQUEST, aFilter, 2);
+    assertTrue (aCounter.isAnyObserved ());
+    assertTrue (aCounter.isObserved (EScope.REQUEST));
+    assertFalse (aCounter.isObserved (EScope.GLOBAL));
+
+    aCounter.add (EScope.REQUEST, aFilter, -1);
+    assertTrue (aCounter.isObserved (EScope.REQUEST));
+    aCounter.add (EScope.REQUEST, aFilter, -1);
+    assertFalse (aCounter.isObserved (EScope.REQUEST));
+    assertFalse (aCounter.isAnyObserved ());
+
+    // Unknown levels mark all levels as observed
+    aCounter.add (null, aFilter, 1);
+    for (final EScope eScope : EScope.values ())
+      assertTrue (aCounter.isObserved (eScope));
+    aCounter.add (null, aFilter, -1);
+    assertFalse (aCounter.isAnyObserved ());
+  }
+
+  @Test
+  public void testEventFilter ()
+  {
+    final IEvent aEvent = new BaseEvent (MockCountingObserver.TOPIC);
+    final IEvent aOtherEvent = new BaseEvent (EventTypeRegistry.createEventType ("countertopic"));
+    final IEventFilter aFilter = new MockCountingObserver ().getEventFilter ();
+    final ScopedObserverCounter aCounter = new ScopedObserverCounter ();
+    assertFalse (aCounter.isObserved (EScope.REQUEST, aEvent));
+
+    aCounter.add (EScope.REQUEST, aFilter, 1);
+    assertTrue (aCounter.isObserved (EScope.REQUEST, aEvent));
+    // An observer of another event type doesn't make the level observed
+    assertFalse (aCounter.isObserved (EScope.REQUEST, aOtherEvent));
+    assertFalse (aCounter.isObserved (EScope.GLOBAL, aEvent));
+
+    // Unknown levels are checked for all levels
+    aCounter.add (null, aFilter, 1);
+    assertTrue (aCounter.isObserved (EScope.GLOBAL, aEvent));
+    assertFalse (aCounter.isObserved (EScope.GLOBAL, aOtherEvent));
+    aCounter.add (null, aFilter, -1);
+
+    aCounter.add (EScope.REQUEST, aFilter, -1);
+    assertFalse (aCounter.isObserved (EScope.REQUEST, aEvent));
+    assertFalse (aCounter.isAnyObserved ());
+  }
+
+  @Test
+  public void testGetScopeLevel ()
+  {
+    final IGlobalScope aGlobalScope = new GlobalScope ("global"); //$NON-NLS-1$
+    assertEquals (EScope.GLOBAL, ScopedObserverCounter.getScopeLevel (aGlobalScope));
+    assertEquals (EScope.APPLICATION,
+                  ScopedObserverCounter.getScopeLevel (aGlobalScope.getApplicationScope ("app", true))); //$NON-NLS-1$
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.event.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.event.impl.BaseEvent;
+import com.phloc.scopes.mgr.EScope;
+import com.phloc.webscopes.mgr.EWebScope;
+import com.phloc.webscopes.mgr.WebScopeManager;
+import com.phloc.webscopes.mock.WebScopeTestRule;
+
+/**
+ * JUnit test for class {@link WebScopedEventManager}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class WebScopedEventManagerTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new WebScopeTestRule ();
+
+  @Test
+  public void testWebRequestScope ()
+  {
+    final MockCountingObserver aWebRequest = new MockCountingObserver ();
+    final MockCountingObserver aRequest = new MockCountingObserver ();
+    final MockCountingObserver aDirect = new MockCountingObserver ();
+    assertTrue (WebScopedEventManager.registerObserver (EWebScope.REQUEST, aWebRequest).isChanged ());
+    assertTrue (ScopedEventManager.registerObserver (EScope.REQUEST, aRequest).isChanged ());
+    assertTrue (WebScopedEventManager.registerObserver (WebScopeManager.getRequestScope (), aDirect).isChanged ());
+    try
+    {
+      // The web request scope is resolved via EScope and shared by both
+      // managers
+      assertTrue (WebScopedEventManager.notifyObservers (new BaseEvent (MockCountingObserver.TOPIC)));
+      assertEquals (1, aWebRequest.getInvocationCount ());
+      assertEquals (1, aRequest.getInvocationCount ());
+      assertEquals (1, aDirect.getInvocationCount ());
+
+      assertTrue (ScopedEventManager.notifyObservers (new BaseEvent (MockCountingObserver.TOPIC)));
+      assertEquals (2, aWebRequest.getInvocationCount ());
+      assertEquals (2, aRequest.getInvocationCount ());
+      assertEquals (2, aDirect.getInvocationCount ());
+    }
+    finally
+    {
+      // All observers are in the same event manager
+      assertTrue (ScopedEventManager.unregisterObserver (EScope.REQUEST, aWebRequest).isChanged ());
+      assertTrue (WebScopedEventManager.unregisterObserver (EWebScope.REQUEST, aRequest).isChanged ());
+      assertTrue (WebScopedEventManager.unregisterObserver (EWebScope.REQUEST, aDirect).isChanged ());
+    }
+
+    assertTrue (WebScopedEventManager.notifyObservers (new BaseEvent (MockCountingObserver.TOPIC)));
+    assertEquals (2, aWebRequest.getInvocationCount ());
+  }
+}
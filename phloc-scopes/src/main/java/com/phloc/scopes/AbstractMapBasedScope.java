@@ -19,7 +19,12 @@ package com.phloc.scopes;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -35,7 +40,9 @@ import com.phloc.commons.callback.AdapterRunnableToCallableWithParameter;
 import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
 import com.phloc.commons.collections.attrs.MapBasedAttributeContainerThreadSafe;
+import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
 
 /**
@@ -48,15 +55,85 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractMapBasedScope.class);
 
-  /** ID of the scope */
-  private final String m_sScopeID;
+  /**
+   * ID of the scope. Only changed by {@link #recycleScope(String)} while the
+   * scope is destroyed.
+   */
+  private volatile String m_sScopeID;
 
-  private boolean m_bInDestruction = false;
-  private boolean m_bDestroyed = false;
+  /** The same map as used by the super class */
+  private final Map <String, Object> m_aAttrMap;
+  private final boolean m_bLockFreeRead;
+  private final boolean m_bUnsynchronized;
+
+  /**
+   * The life cycle states of a scope. The only valid transitions are ACTIVE
+   * &rarr; IN_DESTRUCTION &rarr; DESTROYED and, for recycled scopes, DESTROYED
+   * &rarr; ACTIVE. All transitions are performed via compare-and-set.
+   */
+  private static enum EState
+  {
+    ACTIVE,
+    IN_DESTRUCTION,
+    DESTROYED;
+  }
+
+  /** Current life cycle state - read without locking */
+  private final AtomicReference <EState> m_aState = new AtomicReference <EState> (EState.ACTIVE);
+
+  @SuppressWarnings ("rawtypes")
+  private static final AtomicReferenceFieldUpdater <AbstractMapBasedScope, ConcurrentHashMap> s_aSingletonsUpdater = AtomicReferenceFieldUpdater.newUpdater (AbstractMapBasedScope.class,
+                                                                                                                                                          ConcurrentHashMap.class,
+                                                                                                                                                          "m_aSingletons");
+  @SuppressWarnings ("rawtypes")
+  private static final AtomicReferenceFieldUpdater <AbstractMapBasedScope, ConcurrentHashMap> s_aSingletonsInInstantiationUpdater = AtomicReferenceFieldUpdater.newUpdater (AbstractMapBasedScope.class,
+                                                                                                                                                                         ConcurrentHashMap.class,
+                                                                                                                                                                         "m_aSingletonsInInstantiation");
+
+  /**
+   * Index of the singletons contained in the attributes, keyed by their
+   * attribute name (see {@link AbstractSingleton#getSingletonScopeKey(Class)}
+   * ), so that an attribute change can invalidate its entry directly. The
+   * attributes stay the main storage - this map is created and filled lazily
+   * upon the first singleton lookup, so scopes without singletons (e.g. most
+   * request scopes) don't allocate it.
+   */
+  private volatile ConcurrentHashMap <String, Object> m_aSingletons;
+
+  /**
+   * The singletons currently in instantiation, keyed by their class. Created
+   * upon the first singleton instantiation.
+   */
+  private volatile ConcurrentHashMap <Class <? extends AbstractSingleton>, AbstractSingleton.SingletonInstantiation> m_aSingletonsInInstantiation;
 
   public AbstractMapBasedScope (@Nonnull @Nonempty final String sScopeID)
   {
+    this (sScopeID, EScopeAttributeStorage.DEFAULT);
+  }
+
+  /**
+   * Constructor with a custom attribute storage.
+   * 
+   * @param sScopeID
+   *        The scope ID. May neither be <code>null</code> nor empty.
+   * @param aStorage
+   *        The attribute storage backend to use. May not be <code>null</code>.
+   */
+  protected AbstractMapBasedScope (@Nonnull @Nonempty final String sScopeID,
+                                   @Nonnull final IScopeAttributeStorage aStorage)
+  {
+    this (sScopeID, aStorage, ValueEnforcer.notNull (aStorage, "Storage").createAttributeMap ());
+  }
+
+  private AbstractMapBasedScope (@Nonnull @Nonempty final String sScopeID,
+                                 @Nonnull final IScopeAttributeStorage aStorage,
+                                 @Nonnull final Map <String, Object> aAttrMap)
+  {
+    super (true, aAttrMap);
     m_sScopeID = ValueEnforcer.notEmpty (sScopeID, "ScopeID");
+    m_aAttrMap = aAttrMap;
+    m_bLockFreeRead = aStorage.isLockFreeRead ();
+    m_bUnsynchronized = aStorage.isUnsynchronized ();
   }
 
   @Nonnull
@@ -66,38 +143,226 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     return m_sScopeID;
   }
 
-  public final boolean isValid ()
+  /**
+   * @return <code>true</code> if single attributes of this scope are read
+   *         without taking the read lock.
+   */
+  public final boolean isLockFreeRead ()
   {
-    m_aRWLock.readLock ().lock ();
+    return m_bLockFreeRead;
+  }
+
+  /**
+   * @return <code>true</code> if this scope does not lock when reading or
+   *         writing single attributes, because it is confined to a single
+   *         thread.
+   */
+  public final boolean isUnsynchronized ()
+  {
+    return m_bUnsynchronized;
+  }
+
+  @Override
+  public boolean containsAttribute (@Nullable final String sName)
+  {
+    if (m_bLockFreeRead)
+      return sName != null && m_aAttrMap.containsKey (sName);
+    return super.containsAttribute (sName);
+  }
+
+  @Override
+  @Nullable
+  public Object getAttributeObject (@Nullable final String sName)
+  {
+    if (m_bLockFreeRead)
+      return sName == null ? null : m_aAttrMap.get (sName);
+    return super.getAttributeObject (sName);
+  }
+
+  @Override
+  @Nonnegative
+  public int getAttributeCount ()
+  {
+    if (m_bLockFreeRead)
+      return m_aAttrMap.size ();
+    return super.getAttributeCount ();
+  }
+
+  @Override
+  public boolean containsNoAttribute ()
+  {
+    if (m_bLockFreeRead)
+      return m_aAttrMap.isEmpty ();
+    return super.containsNoAttribute ();
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    if (m_bUnsynchronized)
+    {
+      // Don't call the super class, as it would lock again
+      ValueEnforcer.notNull (sName, "Name");
+      if (aValue == null)
+        return _removeAttributeUnsynchronized (sName);
+      _invalidateSingleton (sName);
+      final Object aOldValue = m_aAttrMap.put (sName, aValue);
+      return EChange.valueOf (!EqualsUtils.equals (aValue, aOldValue));
+    }
+
+    m_aRWLock.writeLock ().lock ();
     try
     {
-      return !m_bInDestruction && !m_bDestroyed;
+      _invalidateSingleton (sName);
+      return super.setAttribute (sName, aValue);
     }
     finally
     {
-      m_aRWLock.readLock ().unlock ();
+      m_aRWLock.writeLock ().unlock ();
     }
   }
 
-  public final boolean isInDestruction ()
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
   {
-    m_aRWLock.readLock ().lock ();
+    if (m_bUnsynchronized)
+      return _removeAttributeUnsynchronized (sName);
+
+    m_aRWLock.writeLock ().lock ();
     try
     {
-      return m_bInDestruction;
+      _invalidateSingleton (sName);
+      return super.removeAttribute (sName);
     }
     finally
     {
-      m_aRWLock.readLock ().unlock ();
+      m_aRWLock.writeLock ().unlock ();
     }
   }
 
-  public final boolean isDestroyed ()
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    if (m_bUnsynchronized)
+    {
+      _clearSingletons ();
+      if (m_aAttrMap.isEmpty ())
+        return EChange.UNCHANGED;
+      m_aAttrMap.clear ();
+      return EChange.CHANGED;
+    }
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _clearSingletons ();
+      return super.clear ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Remove an attribute of an unsynchronized scope without any locking.
+   * 
+   * @param sName
+   *        The attribute name to remove. May be <code>null</code>.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  private EChange _removeAttributeUnsynchronized (@Nullable final String sName)
+  {
+    if (sName == null)
+      return EChange.UNCHANGED;
+    _invalidateSingleton (sName);
+    return EChange.valueOf (m_aAttrMap.remove (sName) != null);
+  }
+
+  /**
+   * Remove the singleton index entry matching the passed attribute name. Must
+   * be called within the write lock.
+   * 
+   * @param sName
+   *        The attribute name that is modified. May be <code>null</code>.
+   */
+  private void _invalidateSingleton (@Nullable final String sName)
   {
+    final ConcurrentHashMap <String, Object> aSingletons = m_aSingletons;
+    if (aSingletons != null && sName != null)
+      aSingletons.remove (sName);
+  }
+
+  private void _clearSingletons ()
+  {
+    final ConcurrentHashMap <String, Object> aSingletons = m_aSingletons;
+    if (aSingletons != null)
+      aSingletons.clear ();
+  }
+
+  /**
+   * Remember a resolved singleton in the index, creating the index if
+   * necessary.
+   * 
+   * @param sKey
+   *        The singleton attribute name. May not be <code>null</code>.
+   * @param aValue
+   *        The singleton. May not be <code>null</code>.
+   */
+  @SuppressWarnings ("unchecked")
+  private void _indexSingleton (@Nonnull final String sKey, @Nonnull final Object aValue)
+  {
+    ConcurrentHashMap <String, Object> aSingletons = m_aSingletons;
+    if (aSingletons == null)
+    {
+      s_aSingletonsUpdater.compareAndSet (this, null, new ConcurrentHashMap <String, Object> ());
+      aSingletons = m_aSingletons;
+    }
+    aSingletons.put (sKey, aValue);
+  }
+
+  /**
+   * Get the singleton of the passed class contained in this scope. If the
+   * singleton was already resolved once, this method neither allocates nor
+   * locks.
+   * 
+   * @param aClass
+   *        The singleton class to resolve. May not be <code>null</code>.
+   * @return <code>null</code> if no such singleton is contained in this scope.
+   */
+  @Nullable
+  public Object getSingletonObject (@Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    final String sKey = AbstractSingleton.getSingletonScopeKey (aClass);
+    final ConcurrentHashMap <String, Object> aSingletons = m_aSingletons;
+    if (aSingletons != null)
+    {
+      final Object ret = aSingletons.get (sKey);
+      if (ret != null)
+        return ret;
+    }
+
+    if (m_bUnsynchronized)
+    {
+      final Object aValue = getAttributeObject (sKey);
+      if (aValue != null)
+        _indexSingleton (sKey, aValue);
+      return aValue;
+    }
+
+    // Resolve from the attributes. The read lock ensures that no invalidation
+    // can happen between the attribute read and the index update.
     m_aRWLock.readLock ().lock ();
     try
     {
-      return m_bDestroyed;
+      final Object aValue = getAttributeObject (sKey);
+      if (aValue != null)
+        _indexSingleton (sKey, aValue);
+      return aValue;
     }
     finally
     {
@@ -105,6 +370,72 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     }
   }
 
+  /**
+   * @return The map of all singletons currently in instantiation. Used by
+   *         {@link AbstractSingleton} to create singletons without locking the
+   *         whole scope.
+   */
+  @Nonnull
+  @SuppressWarnings ("unchecked")
+  final ConcurrentMap <Class <? extends AbstractSingleton>, AbstractSingleton.SingletonInstantiation> getSingletonsInInstantiation ()
+  {
+    ConcurrentHashMap <Class <? extends AbstractSingleton>, AbstractSingleton.SingletonInstantiation> ret = m_aSingletonsInInstantiation;
+    if (ret == null)
+    {
+      s_aSingletonsInInstantiationUpdater.compareAndSet (this,
+                                                        null,
+                                                        new ConcurrentHashMap <Class <? extends AbstractSingleton>, AbstractSingleton.SingletonInstantiation> ());
+      ret = m_aSingletonsInInstantiation;
+    }
+    return ret;
+  }
+
+  /**
+   * Perform a life cycle state transition that must succeed.
+   * 
+   * @param eExpected
+   *        The state this scope is expected to be in.
+   * @param eNew
+   *        The new state.
+   * @throws IllegalStateException
+   *         If this scope is not in the expected state
+   */
+  private void _transition (@Nonnull final EState eExpected, @Nonnull final EState eNew)
+  {
+    if (!m_aState.compareAndSet (eExpected, eNew))
+      throw new IllegalStateException ("Illegal scope state transition from " +
+                                       m_aState.get () +
+                                       " to " +
+                                       eNew +
+                                       " - expected " +
+                                       eExpected +
+                                       "!");
+  }
+
+  public final boolean isValid ()
+  {
+    return m_aState.get () == EState.ACTIVE;
+  }
+
+  public final boolean isInDestruction ()
+  {
+    return m_aState.get () == EState.IN_DESTRUCTION;
+  }
+
+  public final boolean isDestroyed ()
+  {
+    return m_aState.get () == EState.DESTROYED;
+  }
+
+  /**
+   * Called at the very beginning of {@link #destroyScope()}, before the state
+   * of this scope is changed. An exception thrown here aborts the destruction
+   * and leaves the scope active.
+   */
+  @OverrideOnDemand
+  protected void beforeDestroyScope ()
+  {}
+
   @OverrideOnDemand
   protected void destroyOwnedScopes ()
   {}
@@ -113,21 +444,48 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
   protected void postDestroy ()
   {}
 
-  public final void destroyScope ()
+  /**
+   * Reset this destroyed scope so that it can be used again with a new ID.
+   * This is only meant for scope pooling. As the ID changes, recycled scopes
+   * must not use the ID based {@link #equals(Object)} and {@link #hashCode()}
+   * of this class.
+   * 
+   * @param sNewScopeID
+   *        The ID of the scope for the new use. May neither be
+   *        <code>null</code> nor empty.
+   * @throws IllegalStateException
+   *         If this scope is not yet destroyed
+   */
+  protected final void recycleScope (@Nonnull @Nonempty final String sNewScopeID)
   {
+    ValueEnforcer.notEmpty (sNewScopeID, "NewScopeID");
+
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (m_bDestroyed)
-        throw new IllegalStateException ("Scope is already destroyed!");
-      if (m_bInDestruction)
-        throw new IllegalStateException ("Scope is already in destruction!");
-      m_bInDestruction = true;
+      if (m_aState.get () != EState.DESTROYED)
+        throw new IllegalStateException ("Only destroyed scopes can be recycled!");
+      _clearSingletons ();
+      m_sScopeID = sNewScopeID;
+      _transition (EState.DESTROYED, EState.ACTIVE);
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
+  }
+
+  public final void destroyScope ()
+  {
+    beforeDestroyScope ();
+
+    // Only one thread may start the destruction
+    if (!m_aState.compareAndSet (EState.ACTIVE, EState.IN_DESTRUCTION))
+    {
+      if (m_aState.get () == EState.DESTROYED)
+        throw new IllegalStateException ("Scope is already destroyed!");
+      throw new IllegalStateException ("Scope is already in destruction!");
+    }
 
     // destroy all owned scopes before destroying this scope!
     destroyOwnedScopes ();
@@ -151,8 +509,7 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
       // remove all attributes (double write lock is no problem)
       clear ();
 
-      m_bDestroyed = true;
-      m_bInDestruction = false;
+      _transition (EState.IN_DESTRUCTION, EState.DESTROYED);
     }
     finally
     {
@@ -168,10 +525,19 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     runAtomic (AdapterRunnableToCallableWithParameter.createAdapter (aRunnable));
   }
 
+  /**
+   * Called before the callable passed to one of the <code>runAtomic</code>
+   * methods is invoked, outside of the lock.
+   */
+  @OverrideOnDemand
+  protected void beforeRunAtomic ()
+  {}
+
   @Nullable
   public final <T> T runAtomic (@Nonnull final INonThrowingCallableWithParameter <T, IScope> aCallable)
   {
     ValueEnforcer.notNull (aCallable, "Callable");
+    beforeRunAtomic ();
 
     m_aRWLock.writeLock ().lock ();
     try
@@ -206,22 +572,23 @@ public abstract class AbstractMapBasedScope extends MapBasedAttributeContainerTh
     if (!super.equals (o))
       return false;
     final AbstractMapBasedScope rhs = (AbstractMapBasedScope) o;
-    return m_sScopeID.equals (rhs.m_sScopeID);
+    return getID ().equals (rhs.getID ());
   }
 
   @Override
   public int hashCode ()
   {
-    return HashCodeGenerator.getDerived (super.hashCode ()).append (m_sScopeID).getHashCode ();
+    return HashCodeGenerator.getDerived (super.hashCode ()).append (getID ()).getHashCode ();
   }
 
   @Override
   public String toString ()
   {
     return ToStringGenerator.getDerived (super.toString ())
-                            .append ("scopeID", m_sScopeID)
-                            .append ("inDestruction", m_bInDestruction)
-                            .append ("destroyed", m_bDestroyed)
+                            .append ("scopeID", getID ())
+                            .append ("lockFreeRead", m_bLockFreeRead)
+                            .append ("unsynchronized", m_bUnsynchronized)
+                            .append ("state", m_aState.get ())
                             .toString ();
   }
 }
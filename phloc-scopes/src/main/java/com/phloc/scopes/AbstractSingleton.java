@@ -20,9 +20,19 @@ package com.phloc.scopes;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,7 +47,6 @@ import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.annotations.UsedViaReflection;
 import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.exceptions.LoggedRuntimeException;
-import com.phloc.commons.lang.ClassHelper;
 import com.phloc.commons.mutable.MutableBoolean;
 import com.phloc.commons.stats.IStatisticsHandlerKeyedCounter;
 import com.phloc.commons.stats.StatisticsManager;
@@ -50,10 +59,51 @@ import com.phloc.commons.string.ToStringGenerator;
  */
 public abstract class AbstractSingleton implements IScopeDestructionAware
 {
-  private static final int DEFAULT_KEY_LENGTH = 255;
+  /** The prefix of all scope attribute names used for singletons */
+  public static final String SINGLETON_SCOPE_KEY_PREFIX = "singleton."; //$NON-NLS-1$
+
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractSingleton.class);
   static final IStatisticsHandlerKeyedCounter s_aStatsCounterInstantiate = StatisticsManager.getKeyedCounterHandler (AbstractSingleton.class);
 
+  /** Cache for the validated constructors of all singleton classes */
+  private static final ClassValue <SingletonFactory> s_aFactories = new ClassValue <SingletonFactory> ()
+  {
+    @Override
+    protected SingletonFactory computeValue (final Class <?> aClass)
+    {
+      return new SingletonFactory (aClass);
+    }
+  };
+
+  /**
+   * The singleton class currently instantiated via
+   * {@link #_instantiateSingleton(Class, IScope)} in the current thread. Only
+   * maintained in debug mode and used as a caller token by the constructor
+   * check.
+   */
+  private static final ThreadLocal <Class <?>> s_aInstantiatingClass = new ThreadLocal <Class <?>> ();
+
+  /**
+   * Cache for the singleton scope keys. Returning always the same String
+   * instance means that its hash code is computed only once and that attribute
+   * map lookups can match by identity.
+   */
+  private static final ClassValue <String> s_aScopeKeys = new ClassValue <String> ()
+  {
+    @Override
+    protected String computeValue (final Class <?> aClass)
+    {
+      return SINGLETON_SCOPE_KEY_PREFIX + aClass.getName ();
+    }
+  };
+
+  /**
+   * The singleton instantiations the threads are currently waiting for. Used
+   * to detect cyclic dependencies between singletons instantiated in different
+   * threads, which would otherwise block these threads forever.
+   */
+  private static final ConcurrentMap <Thread, SingletonInstantiation> s_aWaitingThreads = new ConcurrentHashMap <Thread, SingletonInstantiation> ();
+
   private boolean m_bInInstantiation = false;
   private boolean m_bInstantiated = false;
   private boolean m_bInDestruction = false;
@@ -112,38 +162,42 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
   {
     ValueEnforcer.notEmpty (sRequiredMethodName, "RequiredMethodName"); //$NON-NLS-1$
 
-    // Check the call stack to avoid manual instantiation
+    // Check that the singleton is not instantiated manually
     // Only required while developing
-    if (GlobalDebug.isDebugMode ())
-    {
-      boolean bFound = false;
-
-      // check if this method is called indirectly via the correct method
-      for (final StackTraceElement aStackTraceElement : Thread.currentThread ().getStackTrace ())
-      {
-        final String sMethodName = aStackTraceElement.getMethodName ();
-        if (sMethodName.equals (sRequiredMethodName))
-        {
-          bFound = true;
-          break;
-        }
-
-        // Special handling when deserializing from a stream
-        if (aStackTraceElement.getClassName ().equals (ObjectInputStream.class.getName ()) &&
-            sMethodName.equals ("readOrdinaryObject")) //$NON-NLS-1$
-        {
-          bFound = true;
-          break;
-        }
-      }
+    if (GlobalDebug.isDebugMode () &&
+        s_aInstantiatingClass.get () != getClass () &&
+        !_isCalledVia (sRequiredMethodName))
+      throw new IllegalStateException ("You cannot instantiate the class " + //$NON-NLS-1$
+                                       getClass ().getName () +
+                                       " manually! Use the method " + //$NON-NLS-1$
+                                       sRequiredMethodName +
+                                       " instead!"); //$NON-NLS-1$
+  }
 
-      if (!bFound)
-        throw new IllegalStateException ("You cannot instantiate the class " + //$NON-NLS-1$
-                                         getClass ().getName () +
-                                         " manually! Use the method " + //$NON-NLS-1$
-                                         sRequiredMethodName +
-                                         " instead!"); //$NON-NLS-1$
+  /**
+   * Check the call stack whether the constructor is called indirectly via the
+   * required method or while deserializing. This is expensive and only used,
+   * if the singleton is not created via
+   * {@link #_instantiateSingleton(Class, IScope)}.
+   * 
+   * @param sRequiredMethodName
+   *        The required method name. May not be <code>null</code>.
+   * @return <code>true</code> if the call stack is valid
+   */
+  private static boolean _isCalledVia (@Nonnull final String sRequiredMethodName)
+  {
+    for (final StackTraceElement aStackTraceElement : Thread.currentThread ().getStackTrace ())
+    {
+      final String sMethodName = aStackTraceElement.getMethodName ();
+      if (sMethodName.equals (sRequiredMethodName))
+        return true;
+
+      // Special handling when deserializing from a stream
+      if (aStackTraceElement.getClassName ().equals (ObjectInputStream.class.getName ()) &&
+          sMethodName.equals ("readOrdinaryObject")) //$NON-NLS-1$
+        return true;
     }
+    return false;
   }
 
   /**
@@ -270,7 +324,9 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
   }
 
   /**
-   * Create the key which is used to reference the object within the scope.
+   * Get the key which is used to reference the object within the scope. The
+   * key is created only once per class, and the same String instance is
+   * returned on all subsequent calls.
    * 
    * @param aClass
    *        The class for which the key is to be created. May not be
@@ -282,8 +338,27 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
   {
     ValueEnforcer.notNull (aClass, "Class"); //$NON-NLS-1$
 
-    // Preallocate some bytes
-    return new StringBuilder (DEFAULT_KEY_LENGTH).append ("singleton.").append (aClass.getName ()).toString (); //$NON-NLS-1$
+    return s_aScopeKeys.get (aClass);
+  }
+
+  /**
+   * Resolve the singleton object of the passed class in the passed scope. For
+   * {@link AbstractMapBasedScope} instances the class based singleton index is
+   * used, for all other scopes the attribute is read.
+   * 
+   * @param aScope
+   *        The scope to use. May not be <code>null</code>.
+   * @param aClass
+   *        The singleton class. May not be <code>null</code>.
+   * @return <code>null</code> if no such singleton is present in the scope.
+   */
+  @Nullable
+  private static Object _getSingletonObject (@Nonnull final IScope aScope,
+                                             @Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    if (aScope instanceof AbstractMapBasedScope)
+      return ((AbstractMapBasedScope) aScope).getSingletonObject (aClass);
+    return aScope.getAttributeObject (getSingletonScopeKey (aClass));
   }
 
   /**
@@ -308,8 +383,7 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
 
     if (aScope != null)
     {
-      final String sSingletonScopeKey = getSingletonScopeKey (aClass);
-      final Object aObject = aScope.getAttributeObject (sSingletonScopeKey);
+      final Object aObject = _getSingletonObject (aScope, aClass);
       if (aObject != null)
       {
         // Object is in the scope
@@ -351,16 +425,25 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
       if (s_aLogger.isDebugEnabled ())
         s_aLogger.debug ("Created singleton for '" + aClass + "' in scope " + aScope.toString ()); //$NON-NLS-1$ //$NON-NLS-2$
 
-      // Check if class is public, non-abstract etc.
-      if (!ClassHelper.isInstancableClass (aClass))
-        throw new IllegalStateException ("Class " + aClass + " is not instancable!"); //$NON-NLS-1$ //$NON-NLS-2$
+      final SingletonFactory aFactory = s_aFactories.get (aClass);
+      if (!GlobalDebug.isDebugMode ())
+        return aClass.cast (aFactory.newInstance ());
 
-      // Find the now-argument constructor
-      final Constructor <T> aCtor = aClass.getDeclaredConstructor ((Class <?> []) null);
-
-      // Invoke default ctor
-      final T ret = aCtor.newInstance ((Object []) null);
-      return ret;
+      // Pass the caller token to the constructor check. The previous value is
+      // restored, as singleton constructors may request other singletons.
+      final Class <?> aPrevClass = s_aInstantiatingClass.get ();
+      s_aInstantiatingClass.set (aClass);
+      try
+      {
+        return aClass.cast (aFactory.newInstance ());
+      }
+      finally
+      {
+        if (aPrevClass == null)
+          s_aInstantiatingClass.remove ();
+        else
+          s_aInstantiatingClass.set (aPrevClass);
+      }
     }
     catch (final Throwable t)
     {
@@ -368,6 +451,163 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
     }
   }
 
+  /**
+   * Create the singleton and register it in the scope, if it is not yet
+   * contained. Must be called while holding a lock that prevents concurrent
+   * instantiation of the same class in the same scope.
+   * 
+   * @param aScope
+   *        The scope to use. May not be <code>null</code>.
+   * @param aClass
+   *        The singleton class. May not be <code>null</code>.
+   * @param aWasInstantiated
+   *        Is set to <code>true</code> if a new instance was created.
+   * @return The singleton object and never <code>null</code>.
+   */
+  @Nonnull
+  private static <T extends AbstractSingleton> T _instantiateAndRegisterSingleton (@Nonnull final IScope aScope,
+                                                                                   @Nonnull final Class <T> aClass,
+                                                                                   @Nonnull final MutableBoolean aWasInstantiated)
+  {
+    // try to resolve again in case it was set in the meantime
+    T aInstance = aClass.cast (_getSingletonObject (aScope, aClass));
+    if (aInstance == null)
+    {
+      final String sSingletonScopeKey = getSingletonScopeKey (aClass);
+
+      // Main instantiation
+      aInstance = _instantiateSingleton (aClass, aScope);
+
+      // Set in scope
+      aScope.setAttribute (sSingletonScopeKey, aInstance);
+
+      // Remember that we instantiated the object
+      aWasInstantiated.set (true);
+
+      // And some statistics
+      s_aStatsCounterInstantiate.increment (sSingletonScopeKey);
+    }
+
+    // We have the instance - maybe from re-querying the scope, maybe from
+    // instantiation
+    return aInstance;
+  }
+
+  /**
+   * Instantiate the singleton so that only threads requesting the same
+   * singleton class in the same scope are blocked. The scope itself is not
+   * locked while the constructor runs. Singletons whose constructors depend on
+   * each other are rejected with an {@link IllegalStateException} instead of
+   * blocking forever, both within a single thread and across threads.
+   * 
+   * @param aScope
+   *        The scope to use. May not be <code>null</code>.
+   * @param aClass
+   *        The singleton class. May not be <code>null</code>.
+   * @param aWasInstantiated
+   *        Is set to <code>true</code> if this thread created a new instance.
+   * @return The singleton object and never <code>null</code>.
+   */
+  @Nonnull
+  private static <T extends AbstractSingleton> T _instantiateSingletonPerClass (@Nonnull final AbstractMapBasedScope aScope,
+                                                                                @Nonnull final Class <T> aClass,
+                                                                                @Nonnull final MutableBoolean aWasInstantiated)
+  {
+    final ConcurrentMap <Class <? extends AbstractSingleton>, SingletonInstantiation> aInInstantiation = aScope.getSingletonsInInstantiation ();
+    final SingletonInstantiation aNewTask = new SingletonInstantiation (new Callable <Object> ()
+    {
+      public Object call ()
+      {
+        return _instantiateAndRegisterSingleton (aScope, aClass, aWasInstantiated);
+      }
+    });
+
+    final SingletonInstantiation aExistingTask = aInInstantiation.putIfAbsent (aClass, aNewTask);
+    if (aExistingTask == null)
+    {
+      // We're the instantiating thread
+      try
+      {
+        aNewTask.run ();
+      }
+      finally
+      {
+        aInInstantiation.remove (aClass, aNewTask);
+      }
+      return _getInstantiatedSingleton (aClass, aNewTask);
+    }
+
+    if (aExistingTask.isOwnedByCurrentThread ())
+      throw new IllegalStateException ("The singleton " + aClass.getName () + " is recursively requested while it is instantiated!"); //$NON-NLS-1$ //$NON-NLS-2$
+
+    // Wait for the other thread - fail fast if it waits for us
+    final Thread aCurrentThread = Thread.currentThread ();
+    s_aWaitingThreads.put (aCurrentThread, aExistingTask);
+    try
+    {
+      if (_isWaitingForThread (aExistingTask, aCurrentThread))
+        throw new IllegalStateException ("The singleton " + aClass.getName () + " is part of a cyclic dependency between singletons instantiated in different threads!"); //$NON-NLS-1$ //$NON-NLS-2$
+      return _getInstantiatedSingleton (aClass, aExistingTask);
+    }
+    finally
+    {
+      s_aWaitingThreads.remove (aCurrentThread);
+    }
+  }
+
+  /**
+   * Check if waiting for the passed instantiation would (transitively) wait for
+   * the passed thread. The current thread must already be registered as
+   * waiting, so that of two threads waiting for each other at least one detects
+   * the cycle.
+   * 
+   * @param aTask
+   *        The instantiation to be waited for. May not be <code>null</code>.
+   * @param aThread
+   *        The thread to search. May not be <code>null</code>.
+   * @return <code>true</code> if the passed thread would be waited for.
+   */
+  private static boolean _isWaitingForThread (@Nonnull final SingletonInstantiation aTask, @Nonnull final Thread aThread)
+  {
+    SingletonInstantiation aCurTask = aTask;
+    // Each thread waits for at most one instantiation, so a path through the
+    // waiting threads is never longer than the number of waiting threads
+    for (int nSteps = s_aWaitingThreads.size (); nSteps >= 0 && aCurTask != null; --nSteps)
+    {
+      final Thread aOwner = aCurTask.getOwner ();
+      if (aOwner == null)
+        return false;
+      if (aOwner == aThread)
+        return true;
+      aCurTask = s_aWaitingThreads.get (aOwner);
+    }
+    return false;
+  }
+
+  @Nonnull
+  private static <T extends AbstractSingleton> T _getInstantiatedSingleton (@Nonnull final Class <T> aClass,
+                                                                            @Nonnull final SingletonInstantiation aTask)
+  {
+    try
+    {
+      return aClass.cast (aTask.get ());
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IllegalStateException ("Interrupted while waiting for the instantiation of " + aClass.getName (), ex); //$NON-NLS-1$
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      throw LoggedRuntimeException.newException (aCause);
+    }
+  }
+
   /**
    * Get the singleton object in the passed scope, using the passed class. If
    * the singleton is not yet instantiated, a new instance is created.
@@ -388,43 +628,30 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
     ValueEnforcer.notNull (aScope, "aScope"); //$NON-NLS-1$
     ValueEnforcer.notNull (aClass, "Class"); //$NON-NLS-1$
 
-    final String sSingletonScopeKey = getSingletonScopeKey (aClass);
-
     // check if already contained in passed scope
-    T aInstance = aClass.cast (aScope.getAttributeObject (sSingletonScopeKey));
+    T aInstance = aClass.cast (_getSingletonObject (aScope, aClass));
     if (aInstance == null)
     {
       // Some final objects to access them from the nested inner class
       final MutableBoolean aFinalWasInstantiated = new MutableBoolean (false);
 
-      // Safe instantiation:
-      aInstance = aScope.runAtomic (new INonThrowingCallableWithParameter <T, IScope> ()
+      if (aScope instanceof AbstractMapBasedScope)
       {
-        @Override
-        public T call (@Nullable final IScope aInnerScope)
+        // Safe instantiation with a lock per singleton class
+        aInstance = _instantiateSingletonPerClass ((AbstractMapBasedScope) aScope, aClass, aFinalWasInstantiated);
+      }
+      else
+      {
+        // Safe instantiation in the scope write lock:
+        aInstance = aScope.runAtomic (new INonThrowingCallableWithParameter <T, IScope> ()
         {
-          // try to resolve again in case it was set in the meantime
-          T aInnerInstance = aClass.cast (aScope.getAttributeObject (sSingletonScopeKey));
-          if (aInnerInstance == null)
+          @Override
+          public T call (@Nullable final IScope aInnerScope)
           {
-            // Main instantiation
-            aInnerInstance = _instantiateSingleton (aClass, aScope);
-
-            // Set in scope
-            aScope.setAttribute (sSingletonScopeKey, aInnerInstance);
-
-            // Remember that we instantiated the object
-            aFinalWasInstantiated.set (true);
-
-            // And some statistics
-            s_aStatsCounterInstantiate.increment (sSingletonScopeKey);
+            return _instantiateAndRegisterSingleton (aScope, aClass, aFinalWasInstantiated);
           }
-
-          // We have the instance - maybe from re-querying the scope, maybe from
-          // instantiation
-          return aInnerInstance;
-        }
-      });
+        });
+      }
 
       // Call outside the scope sync block, and after the instance was
       // registered in the scope
@@ -476,6 +703,122 @@ public abstract class AbstractSingleton implements IScopeDestructionAware
     return ret;
   }
 
+  /**
+   * The validated no-argument constructor of a singleton class. Like a
+   * reflective constructor invocation, the constructor may have any visibility
+   * and all exceptions thrown by it are wrapped in an
+   * {@link InvocationTargetException}.
+   * 
+   * @author Boris Gregorcic
+   */
+  private static final class SingletonFactory
+  {
+    private static final MethodType FACTORY_TYPE = MethodType.methodType (Object.class);
+
+    private final MethodHandle m_aCtor;
+    private final String m_sErrorMsg;
+    private final Throwable m_aErrorCause;
+
+    SingletonFactory (@Nonnull final Class <?> aClass)
+    {
+      MethodHandle aCtor = null;
+      String sErrorMsg = null;
+      Throwable aErrorCause = null;
+
+      // Check if class is non-abstract etc. - the constructor visibility does
+      // not matter
+      if (aClass.isInterface () || Modifier.isAbstract (aClass.getModifiers ()))
+        sErrorMsg = "Class " + aClass + " is not instancable!"; //$NON-NLS-1$ //$NON-NLS-2$
+      else
+        try
+        {
+          // Find the no-argument constructor - regardless of its visibility
+          final Constructor <?> aDeclaredCtor = aClass.getDeclaredConstructor ((Class <?> []) null);
+          aDeclaredCtor.setAccessible (true);
+          aCtor = MethodHandles.lookup ().unreflectConstructor (aDeclaredCtor).asType (FACTORY_TYPE);
+        }
+        catch (final NoSuchMethodException ex)
+        {
+          sErrorMsg = "Class " + aClass + " has no no-argument constructor!"; //$NON-NLS-1$ //$NON-NLS-2$
+          aErrorCause = ex;
+        }
+        catch (final IllegalAccessException ex)
+        {
+          sErrorMsg = "The constructor of class " + aClass + " is not accessible!"; //$NON-NLS-1$ //$NON-NLS-2$
+          aErrorCause = ex;
+        }
+        catch (final SecurityException ex)
+        {
+          sErrorMsg = "The constructor of class " + aClass + " is not accessible!"; //$NON-NLS-1$ //$NON-NLS-2$
+          aErrorCause = ex;
+        }
+      m_aCtor = aCtor;
+      m_sErrorMsg = sErrorMsg;
+      m_aErrorCause = aErrorCause;
+    }
+
+    @Nonnull
+    Object newInstance () throws InvocationTargetException
+    {
+      if (m_aCtor == null)
+        throw new IllegalStateException (m_sErrorMsg, m_aErrorCause);
+      try
+      {
+        return m_aCtor.invokeExact ();
+      }
+      catch (final Throwable t)
+      {
+        // Same as Constructor.newInstance
+        throw new InvocationTargetException (t);
+      }
+    }
+  }
+
+  /**
+   * The instantiation of a single singleton within a scope. Other threads
+   * requesting the same singleton wait for its completion. It must be run by
+   * the thread that created it.
+   * 
+   * @author Boris Gregorcic
+   */
+  static final class SingletonInstantiation extends FutureTask <Object>
+  {
+    private volatile Thread m_aOwner = Thread.currentThread ();
+
+    SingletonInstantiation (@Nonnull final Callable <Object> aCallable)
+    {
+      super (aCallable);
+    }
+
+    @Override
+    public void run ()
+    {
+      try
+      {
+        super.run ();
+      }
+      finally
+      {
+        m_aOwner = null;
+      }
+    }
+
+    /**
+     * @return The thread running this instantiation or <code>null</code> if it
+     *         is already completed.
+     */
+    @Nullable
+    Thread getOwner ()
+    {
+      return m_aOwner;
+    }
+
+    boolean isOwnedByCurrentThread ()
+    {
+      return m_aOwner == Thread.currentThread ();
+    }
+  }
+
   @Override
   @Nonnull
   public String toString ()
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Contains the default attribute storage backends for scopes.
+ * 
+ * @author Boris Gregorcic
+ */
+public enum EScopeAttributeStorage implements IScopeAttributeStorage
+{
+  /**
+   * A plain {@link HashMap}. All reads and writes are guarded by the read-write
+   * lock of the scope.
+   */
+  LOCKED_HASH_MAP
+  {
+    @Override
+    @Nonnull
+    public Map <String, Object> createAttributeMap ()
+    {
+      return new HashMap <String, Object> ();
+    }
+
+    @Override
+    public boolean isLockFreeRead ()
+    {
+      return false;
+    }
+
+    @Override
+    public boolean isUnsynchronized ()
+    {
+      return false;
+    }
+  },
+
+  /**
+   * A {@link ConcurrentHashMap}. Writes are still guarded by the write lock of
+   * the scope, but reads of single attributes don't take any lock. Use this
+   * for scopes that are read by many threads concurrently. Note: attribute
+   * names may not be <code>null</code>.
+   */
+  CONCURRENT_HASH_MAP
+  {
+    @Override
+    @Nonnull
+    public Map <String, Object> createAttributeMap ()
+    {
+      return new ConcurrentHashMap <String, Object> ();
+    }
+
+    @Override
+    public boolean isLockFreeRead ()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean isUnsynchronized ()
+    {
+      return false;
+    }
+  },
+
+  /**
+   * A compact array based map that switches to a {@link HashMap} only if it
+   * contains many attributes. All reads and writes are guarded by the
+   * read-write lock of the scope. Use this for scopes that usually contain
+   * only a few attributes.
+   */
+  SMALL_MAP
+  {
+    @Override
+    @Nonnull
+    public Map <String, Object> createAttributeMap ()
+    {
+      return new SmallAttributeMap ();
+    }
+
+    @Override
+    public boolean isLockFreeRead ()
+    {
+      return false;
+    }
+
+    @Override
+    public boolean isUnsynchronized ()
+    {
+      return false;
+    }
+  },
+
+  /**
+   * A compact array based map like {@link #SMALL_MAP}, but the scope does not
+   * lock at all when reading, writing or removing single attributes or when
+   * clearing all attributes. Only use this for scopes that are confined to a
+   * single thread.
+   */
+  UNSYNCHRONIZED_SMALL_MAP
+  {
+    @Override
+    @Nonnull
+    public Map <String, Object> createAttributeMap ()
+    {
+      return new SmallAttributeMap ();
+    }
+
+    @Override
+    public boolean isLockFreeRead ()
+    {
+      return true;
+    }
+
+    @Override
+    public boolean isUnsynchronized ()
+    {
+      return true;
+    }
+  };
+
+  /** The default storage for scopes that are not shared between threads */
+  public static final EScopeAttributeStorage DEFAULT = LOCKED_HASH_MAP;
+
+  /** The default storage for request scopes */
+  public static final EScopeAttributeStorage DEFAULT_REQUEST = SMALL_MAP;
+
+  /** The default storage for scopes that are shared by many threads */
+  public static final EScopeAttributeStorage DEFAULT_SHARED = CONCURRENT_HASH_MAP;
+}
@@ -91,6 +91,8 @@ public interface IScope extends IAttributeContainer, IHasID <String>
 
   /**
    * Perform stuff as a single action. All actions are executed in a write-lock!
+   * Scopes with lock-free attribute reads don't block readers while the action
+   * is executed.
    * 
    * @param aRunnable
    *        The action to be executed. May not be <code>null</code>.
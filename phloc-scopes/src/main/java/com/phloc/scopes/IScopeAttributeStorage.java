@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Defines the storage backend used for the attributes of an
+ * {@link AbstractMapBasedScope}.
+ * 
+ * @author Boris Gregorcic
+ * @see EScopeAttributeStorage
+ */
+public interface IScopeAttributeStorage
+{
+  /**
+   * @return A new, empty and writable map that is used to store the attributes
+   *         of a single scope. Never <code>null</code>.
+   */
+  @Nonnull
+  Map <String, Object> createAttributeMap ();
+
+  /**
+   * @return <code>true</code> if the maps created by
+   *         {@link #createAttributeMap()} can safely be read without holding
+   *         the read lock of the scope, <code>false</code> if all reads must be
+   *         guarded.
+   */
+  boolean isLockFreeRead ();
+
+  /**
+   * @return <code>true</code> if the scope does not need to lock at all when
+   *         reading or writing single attributes. This is only valid for scopes
+   *         that are confined to a single thread.
+   */
+  boolean isUnsynchronized ();
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+
+/**
+ * A compact map for scopes with only few attributes. Up to
+ * {@link #MAX_ARRAY_SIZE} entries are stored in two arrays that are searched
+ * linearly. When more entries are added, the map switches to a {@link HashMap}
+ * . <code>null</code> keys are not supported.
+ * 
+ * @author Boris Gregorcic
+ */
+@NotThreadSafe
+final class SmallAttributeMap extends AbstractMap <String, Object>
+{
+  /** The maximum number of entries stored in the arrays */
+  static final int MAX_ARRAY_SIZE = 8;
+  private static final int INITIAL_ARRAY_SIZE = 4;
+
+  private String [] m_aKeys;
+  private Object [] m_aValues;
+  private int m_nSize;
+  // Only present if there are too many entries for the arrays
+  private HashMap <String, Object> m_aMap;
+
+  SmallAttributeMap ()
+  {}
+
+  private int _indexOf (@Nullable final Object aKey)
+  {
+    if (aKey != null)
+      for (int i = 0; i < m_nSize; ++i)
+      {
+        final String sKey = m_aKeys[i];
+        if (sKey == aKey || sKey.equals (aKey))
+          return i;
+      }
+    return -1;
+  }
+
+  private void _removeIndex (final int nIndex)
+  {
+    final int nMoved = m_nSize - nIndex - 1;
+    if (nMoved > 0)
+    {
+      System.arraycopy (m_aKeys, nIndex + 1, m_aKeys, nIndex, nMoved);
+      System.arraycopy (m_aValues, nIndex + 1, m_aValues, nIndex, nMoved);
+    }
+    m_nSize--;
+    m_aKeys[m_nSize] = null;
+    m_aValues[m_nSize] = null;
+  }
+
+  @Override
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap != null ? m_aMap.size () : m_nSize;
+  }
+
+  @Override
+  public boolean isEmpty ()
+  {
+    return size () == 0;
+  }
+
+  @Override
+  public boolean containsKey (@Nullable final Object aKey)
+  {
+    return m_aMap != null ? m_aMap.containsKey (aKey) : _indexOf (aKey) >= 0;
+  }
+
+  @Override
+  @Nullable
+  public Object get (@Nullable final Object aKey)
+  {
+    if (m_aMap != null)
+      return m_aMap.get (aKey);
+    final int nIndex = _indexOf (aKey);
+    return nIndex >= 0 ? m_aValues[nIndex] : null;
+  }
+
+  @Override
+  @Nullable
+  public Object put (@Nonnull final String sKey, @Nullable final Object aValue)
+  {
+    ValueEnforcer.notNull (sKey, "Key");
+    if (m_aMap != null)
+      return m_aMap.put (sKey, aValue);
+
+    final int nIndex = _indexOf (sKey);
+    if (nIndex >= 0)
+    {
+      final Object aOldValue = m_aValues[nIndex];
+      m_aValues[nIndex] = aValue;
+      return aOldValue;
+    }
+
+    if (m_aKeys == null)
+    {
+      m_aKeys = new String [INITIAL_ARRAY_SIZE];
+      m_aValues = new Object [INITIAL_ARRAY_SIZE];
+    }
+    else
+      if (m_nSize == m_aKeys.length)
+      {
+        if (m_nSize == MAX_ARRAY_SIZE)
+        {
+          // Too many entries - switch to a hash map
+          final HashMap <String, Object> aMap = new HashMap <String, Object> (MAX_ARRAY_SIZE * 4);
+          for (int i = 0; i < m_nSize; ++i)
+            aMap.put (m_aKeys[i], m_aValues[i]);
+          aMap.put (sKey, aValue);
+          m_aMap = aMap;
+          m_aKeys = null;
+          m_aValues = null;
+          m_nSize = 0;
+          return null;
+        }
+
+        // Grow the arrays
+        final String [] aNewKeys = new String [MAX_ARRAY_SIZE];
+        final Object [] aNewValues = new Object [MAX_ARRAY_SIZE];
+        System.arraycopy (m_aKeys, 0, aNewKeys, 0, m_nSize);
+        System.arraycopy (m_aValues, 0, aNewValues, 0, m_nSize);
+        m_aKeys = aNewKeys;
+        m_aValues = aNewValues;
+      }
+    m_aKeys[m_nSize] = sKey;
+    m_aValues[m_nSize] = aValue;
+    m_nSize++;
+    return null;
+  }
+
+  @Override
+  @Nullable
+  public Object remove (@Nullable final Object aKey)
+  {
+    if (m_aMap != null)
+      return m_aMap.remove (aKey);
+    final int nIndex = _indexOf (aKey);
+    if (nIndex < 0)
+      return null;
+    final Object aOldValue = m_aValues[nIndex];
+    _removeIndex (nIndex);
+    return aOldValue;
+  }
+
+  @Override
+  public void clear ()
+  {
+    // Keep the arrays for reuse, but not a grown hash map
+    m_aMap = null;
+    for (int i = 0; i < m_nSize; ++i)
+    {
+      m_aKeys[i] = null;
+      m_aValues[i] = null;
+    }
+    m_nSize = 0;
+  }
+
+  @Override
+  @Nonnull
+  public Set <Map.Entry <String, Object>> entrySet ()
+  {
+    if (m_aMap != null)
+      return m_aMap.entrySet ();
+
+    return new AbstractSet <Map.Entry <String, Object>> ()
+    {
+      @Override
+      public int size ()
+      {
+        return SmallAttributeMap.this.size ();
+      }
+
+      @Override
+      public Iterator <Map.Entry <String, Object>> iterator ()
+      {
+        return new ArrayEntryIterator ();
+      }
+    };
+  }
+
+  /**
+   * Iterator over the entries while the map is array based.
+   */
+  private final class ArrayEntryIterator implements Iterator <Map.Entry <String, Object>>
+  {
+    private int m_nNext = 0;
+    private int m_nLast = -1;
+
+    public boolean hasNext ()
+    {
+      return m_nNext < m_nSize;
+    }
+
+    public Map.Entry <String, Object> next ()
+    {
+      if (m_nNext >= m_nSize)
+        throw new NoSuchElementException ();
+      m_nLast = m_nNext++;
+      final int nIndex = m_nLast;
+      return new AbstractMap.SimpleEntry <String, Object> (m_aKeys[nIndex], m_aValues[nIndex])
+      {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object setValue (final Object aValue)
+        {
+          m_aValues[nIndex] = aValue;
+          return super.setValue (aValue);
+        }
+      };
+    }
+
+    public void remove ()
+    {
+      if (m_nLast < 0)
+        throw new IllegalStateException ();
+      _removeIndex (m_nLast);
+      m_nNext = m_nLast;
+      m_nLast = -1;
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.domain;
+
+/**
+ * Optional interface for session scopes that track their last access. Only
+ * session scopes implementing this interface are ended by the idle session
+ * expiry of the ScopeSessionManager.
+ * 
+ * @author Boris Gregorcic
+ */
+public interface IAccessTrackingSessionScope extends ISessionScope
+{
+  /**
+   * Mark this session as being accessed now. This is used to determine idle
+   * sessions.
+   */
+  void touch ();
+
+  /**
+   * @return The time of the last access in milliseconds as returned by
+   *         {@link System#currentTimeMillis()}. Initially the creation time of
+   *         the scope.
+   * @see #touch()
+   */
+  long getLastAccessTimeMillis ();
+}
@@ -53,6 +53,18 @@ public interface IRequestScope extends IScope
   @Nullable
   String getSessionID (boolean bCreateIfNotExisting);
 
+  /**
+   * @return The ID of the application this request belongs to, as passed upon
+   *         creation. May be <code>null</code> if the application ID was not
+   *         known upon creation. The default implementation always returns
+   *         <code>null</code>.
+   */
+  @Nullable
+  default String getApplicationID ()
+  {
+    return null;
+  }
+
   /**
    * Get a list of all attribute values with the same name.
    * 
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.factory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.impl.ConfinedRequestScope;
+
+/**
+ * Scope factory that creates thread confined request scopes that don't lock
+ * when accessing attributes. Use it via
+ * {@link com.phloc.scopes.MetaScopeFactory#setScopeFactory(IScopeFactory)}.
+ * 
+ * @author Boris Gregorcic
+ * @see ConfinedRequestScope
+ */
+@ThreadSafe
+public class ConfinedScopeFactory extends DefaultScopeFactory
+{
+  public ConfinedScopeFactory ()
+  {}
+
+  @Override
+  @Nonnull
+  public IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                           @Nonnull @Nonempty final String sSessionID)
+  {
+    return new ConfinedRequestScope (sScopeID, sSessionID);
+  }
+
+  @Override
+  @Nonnull
+  public IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                           @Nonnull @Nonempty final String sSessionID,
+                                           @Nonnull @Nonempty final String sApplicationID)
+  {
+    return new ConfinedRequestScope (sScopeID, sSessionID, sApplicationID);
+  }
+}
@@ -73,4 +73,12 @@ public class DefaultScopeFactory implements IScopeFactory
   {
     return new RequestScope (sScopeID, sSessionID);
   }
+
+  @Nonnull
+  public IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                           @Nonnull @Nonempty final String sSessionID,
+                                           @Nonnull @Nonempty final String sApplicationID)
+  {
+    return new RequestScope (sScopeID, sSessionID, sApplicationID);
+  }
 }
@@ -84,4 +84,26 @@ public interface IScopeFactory
    */
   @Nonnull
   IRequestScope createRequestScope (@Nonnull @Nonempty String sScopeID, @Nonnull @Nonempty String sSessionID);
+
+  /**
+   * Create a new request scope for a known application. The default
+   * implementation ignores the application ID and calls
+   * {@link #createRequestScope(String, String)}.
+   * 
+   * @param sScopeID
+   *        The scope ID to use. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session scope ID to use. May be <code>null</code>.
+   * @param sApplicationID
+   *        The ID of the application the request belongs to. May neither be
+   *        <code>null</code> nor empty.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  default IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                            @Nonnull @Nonempty final String sSessionID,
+                                            @Nonnull @Nonempty final String sApplicationID)
+  {
+    return createRequestScope (sScopeID, sSessionID);
+  }
 }
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.factory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.impl.RequestScopePool;
+
+/**
+ * Scope factory that recycles request scopes after they were destroyed, to
+ * reduce the garbage created per request. Use it via
+ * {@link com.phloc.scopes.MetaScopeFactory#setScopeFactory(IScopeFactory)}.
+ * <br>
+ * Note: request scopes must not be referenced after the end of the request,
+ * because they are reused for subsequent requests.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+public class PooledScopeFactory extends DefaultScopeFactory
+{
+  private final RequestScopePool m_aRequestScopePool;
+
+  public PooledScopeFactory ()
+  {
+    this (RequestScopePool.DEFAULT_MAX_SIZE_PER_THREAD);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param nMaxPooledRequestScopesPerThread
+   *        The maximum number of request scopes pooled per thread. Must be
+   *        &gt; 0.
+   */
+  public PooledScopeFactory (@Nonnegative final int nMaxPooledRequestScopesPerThread)
+  {
+    m_aRequestScopePool = new RequestScopePool (nMaxPooledRequestScopesPerThread);
+  }
+
+  /**
+   * @return The underlying request scope pool. Never <code>null</code>.
+   */
+  @Nonnull
+  public RequestScopePool getRequestScopePool ()
+  {
+    return m_aRequestScopePool;
+  }
+
+  @Override
+  @Nonnull
+  public IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                           @Nonnull @Nonempty final String sSessionID)
+  {
+    return m_aRequestScopePool.acquire (sScopeID, sSessionID);
+  }
+
+  @Override
+  @Nonnull
+  public IRequestScope createRequestScope (@Nonnull @Nonempty final String sScopeID,
+                                           @Nonnull @Nonempty final String sSessionID,
+                                           @Nonnull @Nonempty final String sApplicationID)
+  {
+    return m_aRequestScopePool.acquire (sScopeID, sSessionID, sApplicationID);
+  }
+}
@@ -26,6 +26,8 @@ import org.slf4j.LoggerFactory;
 import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.lang.CGStringHelper;
 import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.EScopeAttributeStorage;
+import com.phloc.scopes.IScopeAttributeStorage;
 import com.phloc.scopes.ScopeUtils;
 import com.phloc.scopes.domain.IApplicationScope;
 
@@ -47,7 +49,21 @@ public class ApplicationScope extends AbstractMapBasedScope implements IApplicat
    */
   public ApplicationScope (@Nonnull @Nonempty final String sScopeID)
   {
-    super (sScopeID);
+    this (sScopeID, EScopeAttributeStorage.DEFAULT_SHARED);
+  }
+
+  /**
+   * Create a new application scope with the given ID and a custom attribute
+   * storage.
+   * 
+   * @param sScopeID
+   *        The scope ID to be used. May neither be <code>null</code> nor empty.
+   * @param aStorage
+   *        The attribute storage to be used. May not be <code>null</code>.
+   */
+  protected ApplicationScope (@Nonnull @Nonempty final String sScopeID, @Nonnull final IScopeAttributeStorage aStorage)
+  {
+    super (sScopeID, aStorage);
 
     if (ScopeUtils.debugApplicationScopeLifeCycle (s_aLogger))
       s_aLogger.info ("Created application scope '" +
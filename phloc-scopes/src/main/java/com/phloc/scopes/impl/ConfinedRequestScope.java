@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.GlobalDebug;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.AbstractSingleton;
+import com.phloc.scopes.EScopeAttributeStorage;
+
+/**
+ * A request scope that is confined to a single thread and therefore does not
+ * lock when accessing attributes. In debug mode each attribute access, each
+ * <code>runAtomic</code> call and the destruction check that they happen in
+ * the owning thread.<br>
+ * If the scope needs to be passed to another thread (e.g. for asynchronous
+ * request processing), the owning thread must call {@link #handOff()} before
+ * passing it, and the new thread must call {@link #adopt()} before using it.
+ * 
+ * @author Boris Gregorcic
+ */
+@NotThreadSafe
+public class ConfinedRequestScope extends RequestScope
+{
+  // null while the scope is handed off
+  private volatile Thread m_aOwner;
+
+  public ConfinedRequestScope (@Nonnull @Nonempty final String sScopeID, @Nonnull @Nonempty final String sSessionID)
+  {
+    this (sScopeID, sSessionID, null);
+  }
+
+  public ConfinedRequestScope (@Nonnull @Nonempty final String sScopeID,
+                               @Nonnull @Nonempty final String sSessionID,
+                               @Nullable final String sApplicationID)
+  {
+    super (sScopeID, sSessionID, sApplicationID, EScopeAttributeStorage.UNSYNCHRONIZED_SMALL_MAP);
+    m_aOwner = Thread.currentThread ();
+  }
+
+  /**
+   * @return The thread owning this scope or <code>null</code> if the scope was
+   *         handed off and not yet adopted.
+   */
+  @Nullable
+  public final Thread getOwner ()
+  {
+    return m_aOwner;
+  }
+
+  /**
+   * Release the ownership of this scope, so that another thread can
+   * {@link #adopt()} it. After this call the current thread may no longer use
+   * the scope.
+   * 
+   * @throws IllegalStateException
+   *         If the current thread is not the owner
+   */
+  public final void handOff ()
+  {
+    if (m_aOwner != Thread.currentThread ())
+      throw new IllegalStateException ("Only the owning thread " +
+                                       m_aOwner +
+                                       " can hand off the request scope '" +
+                                       getID () +
+                                       "'");
+    m_aOwner = null;
+  }
+
+  /**
+   * Make the current thread the owner of this scope after it was handed off by
+   * the previous owner.
+   * 
+   * @throws IllegalStateException
+   *         If the scope was not handed off
+   */
+  public final void adopt ()
+  {
+    if (m_aOwner != null)
+      throw new IllegalStateException ("The request scope '" +
+                                       getID () +
+                                       "' was not handed off by its owner " +
+                                       m_aOwner);
+    m_aOwner = Thread.currentThread ();
+  }
+
+  private void _checkOwner ()
+  {
+    // Only required while developing
+    if (GlobalDebug.isDebugMode ())
+    {
+      final Thread aOwner = m_aOwner;
+      if (aOwner != Thread.currentThread ())
+        throw new IllegalStateException ("The request scope '" +
+                                         getID () +
+                                         "' is owned by " +
+                                         (aOwner == null ? "no thread" : aOwner.toString ()) +
+                                         " and cannot be accessed from " +
+                                         Thread.currentThread ());
+    }
+  }
+
+  @Override
+  public boolean containsAttribute (@Nullable final String sName)
+  {
+    _checkOwner ();
+    return super.containsAttribute (sName);
+  }
+
+  @Override
+  @Nullable
+  public Object getAttributeObject (@Nullable final String sName)
+  {
+    _checkOwner ();
+    return super.getAttributeObject (sName);
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    _checkOwner ();
+    return super.setAttribute (sName, aValue);
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
+  {
+    _checkOwner ();
+    return super.removeAttribute (sName);
+  }
+
+  @Override
+  @Nonnegative
+  public int getAttributeCount ()
+  {
+    _checkOwner ();
+    return super.getAttributeCount ();
+  }
+
+  @Override
+  public boolean containsNoAttribute ()
+  {
+    _checkOwner ();
+    return super.containsNoAttribute ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Object> getAllAttributes ()
+  {
+    _checkOwner ();
+    return super.getAllAttributes ();
+  }
+
+  @Override
+  @Nonnull
+  public Enumeration <String> getAttributeNames ()
+  {
+    _checkOwner ();
+    return super.getAttributeNames ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllAttributeNames ()
+  {
+    _checkOwner ();
+    return super.getAllAttributeNames ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Collection <Object> getAllAttributeValues ()
+  {
+    _checkOwner ();
+    return super.getAllAttributeValues ();
+  }
+
+  @Override
+  @Nullable
+  public Object getSingletonObject (@Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    _checkOwner ();
+    return super.getSingletonObject (aClass);
+  }
+
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    _checkOwner ();
+    return super.clear ();
+  }
+
+  @Override
+  protected void beforeRunAtomic ()
+  {
+    _checkOwner ();
+  }
+
+  @Override
+  protected void beforeDestroyScope ()
+  {
+    _checkOwner ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("owner", m_aOwner).toString ();
+  }
+}
@@ -17,8 +17,8 @@
  */
 package com.phloc.scopes.impl;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -37,6 +37,8 @@ import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.lang.CGStringHelper;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.EScopeAttributeStorage;
+import com.phloc.scopes.IScopeAttributeStorage;
 import com.phloc.scopes.MetaScopeFactory;
 import com.phloc.scopes.ScopeUtils;
 import com.phloc.scopes.domain.IApplicationScope;
@@ -55,11 +57,30 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (GlobalScope.class);
 
-  private final Map <String, IApplicationScope> m_aAppScopes = new HashMap <String, IApplicationScope> ();
+  /** All completely initialized application scopes. Read without locking. */
+  private final Map <String, IApplicationScope> m_aAppScopes = new ConcurrentHashMap <String, IApplicationScope> ();
+  /**
+   * The application scopes currently being initialized. Only modified in the
+   * write lock, but read without locking.
+   */
+  private final Map <String, ScopeInCreation <IApplicationScope>> m_aAppScopesInCreation = new ConcurrentHashMap <String, ScopeInCreation <IApplicationScope>> ();
 
   public GlobalScope (@Nonnull @Nonempty final String sScopeID)
   {
-    super (sScopeID);
+    this (sScopeID, EScopeAttributeStorage.DEFAULT_SHARED);
+  }
+
+  /**
+   * Create a new global scope with a custom attribute storage.
+   * 
+   * @param sScopeID
+   *        The scope ID to be used. May neither be <code>null</code> nor empty.
+   * @param aStorage
+   *        The attribute storage to be used. May not be <code>null</code>.
+   */
+  protected GlobalScope (@Nonnull @Nonempty final String sScopeID, @Nonnull final IScopeAttributeStorage aStorage)
+  {
+    super (sScopeID, aStorage);
 
     if (ScopeUtils.debugGlobalScopeLifeCycle (s_aLogger))
       s_aLogger.info ("Created global scope '" + getID () + "' of class " + CGStringHelper.getClassLocalName (this),
@@ -75,11 +96,16 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
     m_aRWLock.writeLock ().lock ();
     try
     {
-      for (final IApplicationScope aAppScope : m_aAppScopes.values ())
+      for (final Map.Entry <String, IApplicationScope> aEntry : ContainerHelper.newMap (m_aAppScopes).entrySet ())
       {
+        final IApplicationScope aAppScope = aEntry.getValue ();
+
         // Invoke SPIs
         ScopeSPIManager.onApplicationScopeEnd (aAppScope);
 
+        // Unregister before destruction, as lookups don't lock
+        m_aAppScopes.remove (aEntry.getKey ());
+
         // Destroy the scope
         aAppScope.destroyScope ();
       }
@@ -120,16 +146,21 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
   {
     ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
 
-    // Read-lock only
-    IApplicationScope aAppScope;
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      aAppScope = m_aAppScopes.get (sApplicationID);
-    }
-    finally
+    // No lock at all
+    IApplicationScope aAppScope = m_aAppScopes.get (sApplicationID);
+    if (aAppScope == null)
     {
-      m_aRWLock.readLock ().unlock ();
+      final ScopeInCreation <IApplicationScope> aInCreation = m_aAppScopesInCreation.get (sApplicationID);
+      if (aInCreation != null)
+      {
+        // The creating thread sees the scope from initScope and the SPIs
+        if (aInCreation.isCreatedByCurrentThread ())
+          return aInCreation.getScope ();
+
+        // All other threads wait until it is published
+        aInCreation.awaitDone ();
+        aAppScope = m_aAppScopes.get (sApplicationID);
+      }
     }
 
     if (aAppScope == null && bCreateIfNotExisting)
@@ -138,16 +169,35 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
       m_aRWLock.writeLock ().lock ();
       try
       {
-        // Make sure it was not added in the mean time
+        // Make sure it was not added in the mean time - or is just being
+        // created by this thread
         aAppScope = m_aAppScopes.get (sApplicationID);
         if (aAppScope == null)
+        {
+          final ScopeInCreation <IApplicationScope> aInCreation = m_aAppScopesInCreation.get (sApplicationID);
+          if (aInCreation != null)
+            aAppScope = aInCreation.getScope ();
+        }
+        if (aAppScope == null)
         {
           aAppScope = createApplicationScope (sApplicationID);
-          m_aAppScopes.put (sApplicationID, aAppScope);
-          aAppScope.initScope ();
-
-          // Invoke SPIs
-          ScopeSPIManager.onApplicationScopeBegin (aAppScope);
+          final ScopeInCreation <IApplicationScope> aInCreation = new ScopeInCreation <IApplicationScope> (aAppScope);
+          m_aAppScopesInCreation.put (sApplicationID, aInCreation);
+          try
+          {
+            aAppScope.initScope ();
+
+            // Invoke SPIs
+            ScopeSPIManager.onApplicationScopeBegin (aAppScope);
+          }
+          finally
+          {
+            // Publish for lookups without locking - before removing it from
+            // the scopes in creation, so that it is always found
+            m_aAppScopes.put (sApplicationID, aAppScope);
+            m_aAppScopesInCreation.remove (sApplicationID);
+            aInCreation.done ();
+          }
         }
       }
       finally
@@ -162,29 +212,13 @@ public class GlobalScope extends AbstractMapBasedScope implements IGlobalScope
   @ReturnsMutableCopy
   public Map <String, IApplicationScope> getAllApplicationScopes ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return ContainerHelper.newMap (m_aAppScopes);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return ContainerHelper.newMap (m_aAppScopes);
   }
 
   @Nonnegative
   public int getApplicationScopeCount ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aAppScopes.size ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aAppScopes.size ();
   }
 
   @Override
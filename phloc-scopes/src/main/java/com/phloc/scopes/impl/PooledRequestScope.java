@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.AbstractSingleton;
+
+/**
+ * A request scope that returns itself to its {@link RequestScopePool} after it
+ * was destroyed. Accessing the attributes of a scope that was released to the
+ * pool results in an {@link IllegalStateException}.<br>
+ * The scope ID, session ID and application ID change with every reuse. As
+ * the scope ID changes, pooled scopes are compared by identity. Every reuse
+ * also increments the {@link #getGeneration() generation} of this scope. An
+ * access that overlaps with the release of the scope fails, and code that
+ * needs to keep a reference beyond the end of the request can remember the
+ * generation to detect a reuse.
+ * 
+ * @author Boris Gregorcic
+ */
+public class PooledRequestScope extends RequestScope
+{
+  /**
+   * The session and application of the request this scope is currently used
+   * for. It is replaced as a whole, so that readers never see a mix of two
+   * requests.
+   */
+  @Immutable
+  private static final class RequestIdentity
+  {
+    private final String m_sSessionID;
+    private final String m_sApplicationID;
+
+    RequestIdentity (@Nonnull @Nonempty final String sSessionID, @Nullable final String sApplicationID)
+    {
+      m_sSessionID = ValueEnforcer.notEmpty (sSessionID, "SessionID");
+      m_sApplicationID = sApplicationID;
+    }
+  }
+
+  /** All guarded accesses, dispatched by {@link PooledRequestScope#_access} */
+  private static enum EAccess
+  {
+    CONTAINS_ATTRIBUTE,
+    GET_ATTRIBUTE_OBJECT,
+    GET_ATTRIBUTE_COUNT,
+    CONTAINS_NO_ATTRIBUTE,
+    GET_ALL_ATTRIBUTES,
+    GET_ATTRIBUTE_NAMES,
+    GET_ALL_ATTRIBUTE_NAMES,
+    GET_ALL_ATTRIBUTE_VALUES,
+    GET_SINGLETON_OBJECT,
+    SET_ATTRIBUTE,
+    REMOVE_ATTRIBUTE,
+    CLEAR;
+  }
+
+  private final RequestScopePool m_aPool;
+  private volatile RequestIdentity m_aIdentity;
+  private volatile boolean m_bReleased = false;
+  // Incremented upon each release - only modified by the owning thread
+  private volatile long m_nGeneration = 0;
+
+  PooledRequestScope (@Nonnull final RequestScopePool aPool,
+                      @Nonnull @Nonempty final String sScopeID,
+                      @Nonnull @Nonempty final String sSessionID,
+                      @Nullable final String sApplicationID)
+  {
+    super (sScopeID, sSessionID);
+    m_aPool = aPool;
+    m_aIdentity = new RequestIdentity (sSessionID, sApplicationID);
+  }
+
+  /**
+   * Reuse this released scope for another request.
+   * 
+   * @param sScopeID
+   *        The new scope ID. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The new session ID. May neither be <code>null</code> nor empty.
+   * @param sApplicationID
+   *        The new application ID. May be <code>null</code>.
+   */
+  final void reuse (@Nonnull @Nonempty final String sScopeID,
+                    @Nonnull @Nonempty final String sSessionID,
+                    @Nullable final String sApplicationID)
+  {
+    final RequestIdentity aIdentity = new RequestIdentity (sSessionID, sApplicationID);
+    recycleScope (sScopeID);
+    m_aIdentity = aIdentity;
+    m_bReleased = false;
+  }
+
+  @Override
+  @Nonnull
+  @Nonempty
+  public String getSessionID (final boolean bCreateIfNotExisting)
+  {
+    return m_aIdentity.m_sSessionID;
+  }
+
+  @Override
+  @Nullable
+  public String getApplicationID ()
+  {
+    return m_aIdentity.m_sApplicationID;
+  }
+
+  /**
+   * @return <code>true</code> if this scope was destroyed and released to the
+   *         pool.
+   */
+  public final boolean isReleased ()
+  {
+    return m_bReleased;
+  }
+
+  /**
+   * @return The number of times this scope was released to the pool. A
+   *         reference to this scope obtained in a previous generation must not
+   *         be used anymore.
+   */
+  @Nonnegative
+  public final long getGeneration ()
+  {
+    return m_nGeneration;
+  }
+
+  /**
+   * Perform an access to the attributes of this scope. This is the only place
+   * where the super class implementations are invoked.
+   * 
+   * @param eAccess
+   *        The access to perform. May not be <code>null</code>.
+   * @param sName
+   *        The attribute name, if the access requires one.
+   * @param aArg
+   *        The attribute value or singleton class, if the access requires one.
+   * @return The result of the access, boxed if necessary.
+   * @throws IllegalStateException
+   *         If the scope is released, or was released while it was accessed.
+   *         In the latter case the result may already belong to the next
+   *         request.
+   */
+  @SuppressWarnings ("unchecked")
+  private Object _access (@Nonnull final EAccess eAccess, @Nullable final String sName, @Nullable final Object aArg)
+  {
+    // Read the generation first - release sets the flag before incrementing
+    final long nGeneration = m_nGeneration;
+    if (m_bReleased)
+      throw new IllegalStateException ("The request scope '" + getID () + "' was already released to the pool!");
+
+    final Object ret;
+    switch (eAccess)
+    {
+      case CONTAINS_ATTRIBUTE:
+        ret = Boolean.valueOf (super.containsAttribute (sName));
+        break;
+      case GET_ATTRIBUTE_OBJECT:
+        ret = super.getAttributeObject (sName);
+        break;
+      case GET_ATTRIBUTE_COUNT:
+        ret = Integer.valueOf (super.getAttributeCount ());
+        break;
+      case CONTAINS_NO_ATTRIBUTE:
+        ret = Boolean.valueOf (super.containsNoAttribute ());
+        break;
+      case GET_ALL_ATTRIBUTES:
+        ret = super.getAllAttributes ();
+        break;
+      case GET_ATTRIBUTE_NAMES:
+        ret = super.getAttributeNames ();
+        break;
+      case GET_ALL_ATTRIBUTE_NAMES:
+        ret = super.getAllAttributeNames ();
+        break;
+      case GET_ALL_ATTRIBUTE_VALUES:
+        ret = super.getAllAttributeValues ();
+        break;
+      case GET_SINGLETON_OBJECT:
+        ret = super.getSingletonObject ((Class <? extends AbstractSingleton>) aArg);
+        break;
+      case SET_ATTRIBUTE:
+        ret = super.setAttribute (sName, aArg);
+        break;
+      case REMOVE_ATTRIBUTE:
+        ret = super.removeAttribute (sName);
+        break;
+      case CLEAR:
+        ret = super.clear ();
+        break;
+      default:
+        throw new IllegalArgumentException ("Unknown access: " + eAccess);
+    }
+
+    if (m_nGeneration != nGeneration)
+      throw new IllegalStateException ("The request scope was released to the pool while it was accessed!");
+    return ret;
+  }
+
+  @Override
+  public boolean containsAttribute (@Nullable final String sName)
+  {
+    return ((Boolean) _access (EAccess.CONTAINS_ATTRIBUTE, sName, null)).booleanValue ();
+  }
+
+  @Override
+  @Nullable
+  public Object getAttributeObject (@Nullable final String sName)
+  {
+    return _access (EAccess.GET_ATTRIBUTE_OBJECT, sName, null);
+  }
+
+  @Override
+  @Nonnegative
+  public int getAttributeCount ()
+  {
+    return ((Integer) _access (EAccess.GET_ATTRIBUTE_COUNT, null, null)).intValue ();
+  }
+
+  @Override
+  public boolean containsNoAttribute ()
+  {
+    return ((Boolean) _access (EAccess.CONTAINS_NO_ATTRIBUTE, null, null)).booleanValue ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  @SuppressWarnings ("unchecked")
+  public Map <String, Object> getAllAttributes ()
+  {
+    return (Map <String, Object>) _access (EAccess.GET_ALL_ATTRIBUTES, null, null);
+  }
+
+  @Override
+  @Nonnull
+  @SuppressWarnings ("unchecked")
+  public Enumeration <String> getAttributeNames ()
+  {
+    return (Enumeration <String>) _access (EAccess.GET_ATTRIBUTE_NAMES, null, null);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  @SuppressWarnings ("unchecked")
+  public Set <String> getAllAttributeNames ()
+  {
+    return (Set <String>) _access (EAccess.GET_ALL_ATTRIBUTE_NAMES, null, null);
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  @SuppressWarnings ("unchecked")
+  public Collection <Object> getAllAttributeValues ()
+  {
+    return (Collection <Object>) _access (EAccess.GET_ALL_ATTRIBUTE_VALUES, null, null);
+  }
+
+  @Override
+  @Nullable
+  public Object getSingletonObject (@Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    return _access (EAccess.GET_SINGLETON_OBJECT, null, aClass);
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    return (EChange) _access (EAccess.SET_ATTRIBUTE, sName, aValue);
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
+  {
+    return (EChange) _access (EAccess.REMOVE_ATTRIBUTE, sName, null);
+  }
+
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    return (EChange) _access (EAccess.CLEAR, null, null);
+  }
+
+  @Override
+  protected void postDestroy ()
+  {
+    super.postDestroy ();
+
+    // Now the scope is completely destroyed
+    m_bReleased = true;
+    m_nGeneration++;
+    m_aPool.release (this);
+  }
+
+  /**
+   * Pooled scopes are compared by identity, as their ID changes with every
+   * reuse and they may be contained in hash based collections meanwhile.
+   */
+  @Override
+  public boolean equals (final Object o)
+  {
+    return o == this;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return System.identityHashCode (this);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("released", m_bReleased)
+                            .append ("generation", m_nGeneration)
+                            .toString ();
+  }
+}
@@ -32,6 +32,8 @@ import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.lang.CGStringHelper;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.EScopeAttributeStorage;
+import com.phloc.scopes.IScopeAttributeStorage;
 import com.phloc.scopes.ScopeUtils;
 import com.phloc.scopes.domain.IRequestScope;
 
@@ -44,11 +46,73 @@ public class RequestScope extends AbstractMapBasedScope implements IRequestScope
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (RequestScope.class);
   private final String m_sSessionID;
+  private final String m_sApplicationID;
 
   public RequestScope (@Nonnull @Nonempty final String sScopeID, @Nonnull @Nonempty final String sSessionID)
   {
-    super (sScopeID);
+    this (sScopeID, sSessionID, null);
+  }
+
+  /**
+   * Create a new request scope for a known application.
+   * 
+   * @param sScopeID
+   *        The scope ID to be used. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session ID to be used. May neither be <code>null</code> nor
+   *        empty.
+   * @param sApplicationID
+   *        The ID of the application the request belongs to. May be
+   *        <code>null</code>.
+   */
+  public RequestScope (@Nonnull @Nonempty final String sScopeID,
+                       @Nonnull @Nonempty final String sSessionID,
+                       @Nullable final String sApplicationID)
+  {
+    this (sScopeID, sSessionID, sApplicationID, EScopeAttributeStorage.DEFAULT_REQUEST);
+  }
+
+  /**
+   * Create a new request scope with a custom attribute storage.
+   * 
+   * @param sScopeID
+   *        The scope ID to be used. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session ID to be used. May neither be <code>null</code> nor
+   *        empty.
+   * @param aStorage
+   *        The attribute storage to be used. May not be <code>null</code>.
+   */
+  protected RequestScope (@Nonnull @Nonempty final String sScopeID,
+                          @Nonnull @Nonempty final String sSessionID,
+                          @Nonnull final IScopeAttributeStorage aStorage)
+  {
+    this (sScopeID, sSessionID, null, aStorage);
+  }
+
+  /**
+   * Create a new request scope with a custom attribute storage for a known
+   * application.
+   * 
+   * @param sScopeID
+   *        The scope ID to be used. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session ID to be used. May neither be <code>null</code> nor
+   *        empty.
+   * @param sApplicationID
+   *        The ID of the application the request belongs to. May be
+   *        <code>null</code>.
+   * @param aStorage
+   *        The attribute storage to be used. May not be <code>null</code>.
+   */
+  protected RequestScope (@Nonnull @Nonempty final String sScopeID,
+                          @Nonnull @Nonempty final String sSessionID,
+                          @Nullable final String sApplicationID,
+                          @Nonnull final IScopeAttributeStorage aStorage)
+  {
+    super (sScopeID, aStorage);
     m_sSessionID = ValueEnforcer.notEmpty (sSessionID, "SessionID");
+    m_sApplicationID = sApplicationID;
 
     // done initialization
     if (ScopeUtils.debugRequestScopeLifeCycle (s_aLogger))
@@ -65,11 +129,17 @@ public class RequestScope extends AbstractMapBasedScope implements IRequestScope
 
   @Nonnull
   @Nonempty
-  public final String getSessionID (final boolean bCreateIfNotExisting)
+  public String getSessionID (final boolean bCreateIfNotExisting)
   {
     return m_sSessionID;
   }
 
+  @Nullable
+  public String getApplicationID ()
+  {
+    return m_sApplicationID;
+  }
+
   public void initScope ()
   {}
 
@@ -120,6 +190,9 @@ public class RequestScope extends AbstractMapBasedScope implements IRequestScope
   @Override
   public String toString ()
   {
-    return ToStringGenerator.getDerived (super.toString ()).append ("sessionID", m_sSessionID).toString ();
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("sessionID", getSessionID (false))
+                            .append ("applicationID", getApplicationID ())
+                            .toString ();
   }
 }
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A pool of recyclable request scopes. Each thread has its own pool, so no
+ * synchronization is needed. A scope is returned to the pool of the thread
+ * that destroys it.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+public final class RequestScopePool
+{
+  /** The default maximum number of pooled scopes per thread */
+  public static final int DEFAULT_MAX_SIZE_PER_THREAD = 4;
+
+  private final int m_nMaxSizePerThread;
+  private final ThreadLocal <Deque <PooledRequestScope>> m_aPools = new ThreadLocal <Deque <PooledRequestScope>> ()
+  {
+    @Override
+    protected Deque <PooledRequestScope> initialValue ()
+    {
+      return new ArrayDeque <PooledRequestScope> ();
+    }
+  };
+
+  public RequestScopePool ()
+  {
+    this (DEFAULT_MAX_SIZE_PER_THREAD);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param nMaxSizePerThread
+   *        The maximum number of scopes pooled per thread. Must be &gt; 0.
+   */
+  public RequestScopePool (@Nonnegative final int nMaxSizePerThread)
+  {
+    m_nMaxSizePerThread = ValueEnforcer.isGT0 (nMaxSizePerThread, "MaxSizePerThread");
+  }
+
+  /**
+   * @return The maximum number of scopes pooled per thread. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getMaxSizePerThread ()
+  {
+    return m_nMaxSizePerThread;
+  }
+
+  /**
+   * @return The number of scopes currently pooled for the calling thread.
+   */
+  @Nonnegative
+  public int getPooledCount ()
+  {
+    return m_aPools.get ().size ();
+  }
+
+  /**
+   * Get a request scope from the pool of the calling thread or create a new
+   * one, if the pool is empty.
+   * 
+   * @param sScopeID
+   *        The scope ID to use. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session ID to use. May neither be <code>null</code> nor empty.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public PooledRequestScope acquire (@Nonnull @Nonempty final String sScopeID,
+                                     @Nonnull @Nonempty final String sSessionID)
+  {
+    return acquire (sScopeID, sSessionID, null);
+  }
+
+  /**
+   * Get a request scope for a known application from the pool of the calling
+   * thread or create a new one, if the pool is empty.
+   * 
+   * @param sScopeID
+   *        The scope ID to use. May neither be <code>null</code> nor empty.
+   * @param sSessionID
+   *        The session ID to use. May neither be <code>null</code> nor empty.
+   * @param sApplicationID
+   *        The application ID to use. May be <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public PooledRequestScope acquire (@Nonnull @Nonempty final String sScopeID,
+                                     @Nonnull @Nonempty final String sSessionID,
+                                     @Nullable final String sApplicationID)
+  {
+    final PooledRequestScope aScope = m_aPools.get ().pollFirst ();
+    if (aScope == null)
+      return new PooledRequestScope (this, sScopeID, sSessionID, sApplicationID);
+    aScope.reuse (sScopeID, sSessionID, sApplicationID);
+    return aScope;
+  }
+
+  /**
+   * Return a destroyed scope to the pool of the calling thread. If the pool is
+   * full, the scope is discarded.
+   * 
+   * @param aScope
+   *        The destroyed scope. May not be <code>null</code>.
+   */
+  void release (@Nonnull final PooledRequestScope aScope)
+  {
+    final Deque <PooledRequestScope> aPool = m_aPools.get ();
+    if (aPool.size () < m_nMaxSizePerThread)
+      aPool.addFirst (aScope);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("maxSizePerThread", m_nMaxSizePerThread).toString ();
+  }
+}
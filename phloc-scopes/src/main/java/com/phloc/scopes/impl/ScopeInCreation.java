@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A scope that is currently being initialized by a certain thread. Used as a
+ * per-ID future by the lock-free scope lookups: the creating thread itself
+ * sees the scope while its initialization and its SPIs run, all other threads
+ * wait until the scope is published.
+ * 
+ * @author Boris Gregorcic
+ * @param <SCOPETYPE>
+ *        The scope type
+ */
+@ThreadSafe
+final class ScopeInCreation <SCOPETYPE>
+{
+  private final SCOPETYPE m_aScope;
+  private final Thread m_aOwner = Thread.currentThread ();
+  private final CountDownLatch m_aDone = new CountDownLatch (1);
+
+  ScopeInCreation (@Nonnull final SCOPETYPE aScope)
+  {
+    m_aScope = ValueEnforcer.notNull (aScope, "Scope");
+  }
+
+  /**
+   * @return The scope in creation. Never <code>null</code>.
+   */
+  @Nonnull
+  SCOPETYPE getScope ()
+  {
+    return m_aScope;
+  }
+
+  /**
+   * @return <code>true</code> if the current thread is creating the scope.
+   */
+  boolean isCreatedByCurrentThread ()
+  {
+    return m_aOwner == Thread.currentThread ();
+  }
+
+  /**
+   * Signal that the scope was published. Must be called after the scope was
+   * added to the map of initialized scopes.
+   */
+  void done ()
+  {
+    m_aDone.countDown ();
+  }
+
+  /**
+   * Wait until the creation is done. An interrupt does not abort the waiting,
+   * as the caller could not handle the half created scope, but the interrupted
+   * flag is restored afterwards.
+   */
+  void awaitDone ()
+  {
+    boolean bInterrupted = false;
+    while (true)
+    {
+      try
+      {
+        m_aDone.await ();
+        break;
+      }
+      catch (final InterruptedException ex)
+      {
+        bInterrupted = true;
+      }
+    }
+    if (bInterrupted)
+      Thread.currentThread ().interrupt ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("scope", m_aScope)
+                                       .append ("owner", m_aOwner.getName ())
+                                       .append ("done", m_aDone.getCount () == 0)
+                                       .toString ();
+  }
+}
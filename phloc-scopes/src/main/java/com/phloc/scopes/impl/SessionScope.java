@@ -17,8 +17,11 @@
  */
 package com.phloc.scopes.impl;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -33,27 +36,50 @@ import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.lang.CGStringHelper;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.EContinue;
 import com.phloc.commons.string.StringHelper;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.scopes.AbstractMapBasedScope;
+import com.phloc.scopes.AbstractSingleton;
 import com.phloc.scopes.MetaScopeFactory;
 import com.phloc.scopes.ScopeUtils;
+import com.phloc.scopes.domain.IAccessTrackingSessionScope;
 import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
 import com.phloc.scopes.spi.ScopeSPIManager;
 
 /**
- * Default implementation of the {@link ISessionScope} interface
+ * Default implementation of the {@link ISessionScope} interface. Every access
+ * to an attribute, a singleton or a session application scope as well as every
+ * <code>runAtomic</code> call counts as an access of the session.
  * 
  * @author Philip Helger
  */
 @ThreadSafe
-public class SessionScope extends AbstractMapBasedScope implements ISessionScope
+public class SessionScope extends AbstractMapBasedScope implements IAccessTrackingSessionScope
 {
+  /**
+   * The maximum number of session application scope IDs cached per session.
+   * Further IDs are built on each access.
+   */
+  public static final int MAX_CACHED_APPLICATION_SCOPE_IDS = 16;
+
   private static final Logger s_aLogger = LoggerFactory.getLogger (SessionScope.class);
 
-  private final Map <String, ISessionApplicationScope> m_aSessionAppScopes = new HashMap <String, ISessionApplicationScope> ();
+  /** All completely initialized session application scopes. Read without locking. */
+  private final Map <String, ISessionApplicationScope> m_aSessionAppScopes = new ConcurrentHashMap <String, ISessionApplicationScope> ();
+  /**
+   * The session application scopes currently being initialized. Only modified
+   * in the write lock, but read without locking.
+   */
+  private final Map <String, ScopeInCreation <ISessionApplicationScope>> m_aSessionAppScopesInCreation = new ConcurrentHashMap <String, ScopeInCreation <ISessionApplicationScope>> ();
+  /**
+   * Cache from application ID to session application scope ID. Contains at
+   * most {@link #MAX_CACHED_APPLICATION_SCOPE_IDS} entries.
+   */
+  private final Map <String, String> m_aAppScopeIDs = new ConcurrentHashMap <String, String> ();
+  private volatile long m_nLastAccessTimeMillis = System.currentTimeMillis ();
 
   public SessionScope (@Nonnull @Nonempty final String sScopeID)
   {
@@ -74,11 +100,17 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     m_aRWLock.writeLock ().lock ();
     try
     {
-      for (final ISessionApplicationScope aSessionAppScope : m_aSessionAppScopes.values ())
+      for (final Map.Entry <String, ISessionApplicationScope> aEntry : ContainerHelper.newMap (m_aSessionAppScopes)
+                                                                                       .entrySet ())
       {
+        final ISessionApplicationScope aSessionAppScope = aEntry.getValue ();
+
         // Invoke SPIs
         ScopeSPIManager.onSessionApplicationScopeEnd (aSessionAppScope);
 
+        // Unregister before destruction, as lookups don't lock
+        m_aSessionAppScopes.remove (aEntry.getKey ());
+
         // destroy the scope
         aSessionAppScope.destroyScope ();
       }
@@ -108,6 +140,122 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     return EContinue.CONTINUE;
   }
 
+  public void touch ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    // Avoid writing the shared field if nothing changed
+    if (nNow != m_nLastAccessTimeMillis)
+      m_nLastAccessTimeMillis = nNow;
+  }
+
+  public long getLastAccessTimeMillis ()
+  {
+    return m_nLastAccessTimeMillis;
+  }
+
+  @Override
+  public boolean containsAttribute (@Nullable final String sName)
+  {
+    touch ();
+    return super.containsAttribute (sName);
+  }
+
+  @Override
+  @Nullable
+  public Object getAttributeObject (@Nullable final String sName)
+  {
+    touch ();
+    return super.getAttributeObject (sName);
+  }
+
+  @Override
+  @Nonnegative
+  public int getAttributeCount ()
+  {
+    touch ();
+    return super.getAttributeCount ();
+  }
+
+  @Override
+  public boolean containsNoAttribute ()
+  {
+    touch ();
+    return super.containsNoAttribute ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Map <String, Object> getAllAttributes ()
+  {
+    touch ();
+    return super.getAllAttributes ();
+  }
+
+  @Override
+  @Nonnull
+  public Enumeration <String> getAttributeNames ()
+  {
+    touch ();
+    return super.getAttributeNames ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <String> getAllAttributeNames ()
+  {
+    touch ();
+    return super.getAllAttributeNames ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public Collection <Object> getAllAttributeValues ()
+  {
+    touch ();
+    return super.getAllAttributeValues ();
+  }
+
+  @Override
+  @Nullable
+  public Object getSingletonObject (@Nonnull final Class <? extends AbstractSingleton> aClass)
+  {
+    touch ();
+    return super.getSingletonObject (aClass);
+  }
+
+  @Override
+  @Nonnull
+  public EChange setAttribute (@Nonnull final String sName, @Nullable final Object aValue)
+  {
+    touch ();
+    return super.setAttribute (sName, aValue);
+  }
+
+  @Override
+  @Nonnull
+  public EChange removeAttribute (@Nullable final String sName)
+  {
+    touch ();
+    return super.removeAttribute (sName);
+  }
+
+  @Override
+  @Nonnull
+  public EChange clear ()
+  {
+    touch ();
+    return super.clear ();
+  }
+
+  @Override
+  protected void beforeRunAtomic ()
+  {
+    touch ();
+  }
+
   @Nonnull
   @Nonempty
   private String _getApplicationScopeIDPrefix ()
@@ -150,20 +298,33 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
                                                               final boolean bCreateIfNotExisting)
   {
     ValueEnforcer.notEmpty (sApplicationID, "ApplicationID");
+    touch ();
 
-    final String sAppScopeID = createApplicationScopeID (sApplicationID);
-
-    ISessionApplicationScope aSessionAppScope;
-
-    // Try with read-lock only
-    m_aRWLock.readLock ().lock ();
-    try
+    // Build the application scope ID only once per application
+    String sAppScopeID = m_aAppScopeIDs.get (sApplicationID);
+    if (sAppScopeID == null)
     {
-      aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
+      sAppScopeID = createApplicationScopeID (sApplicationID);
+      // The size check is racy, so the bound may be exceeded by a few entries
+      if (m_aAppScopeIDs.size () < MAX_CACHED_APPLICATION_SCOPE_IDS)
+        m_aAppScopeIDs.put (sApplicationID, sAppScopeID);
     }
-    finally
+
+    // No lock at all
+    ISessionApplicationScope aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
+    if (aSessionAppScope == null)
     {
-      m_aRWLock.readLock ().unlock ();
+      final ScopeInCreation <ISessionApplicationScope> aInCreation = m_aSessionAppScopesInCreation.get (sAppScopeID);
+      if (aInCreation != null)
+      {
+        // The creating thread sees the scope from initScope and the SPIs
+        if (aInCreation.isCreatedByCurrentThread ())
+          return aInCreation.getScope ();
+
+        // All other threads wait until it is published
+        aInCreation.awaitDone ();
+        aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
+      }
     }
 
     if (aSessionAppScope == null && bCreateIfNotExisting)
@@ -174,14 +335,32 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
         // Check again - now in write lock
         aSessionAppScope = m_aSessionAppScopes.get (sAppScopeID);
         if (aSessionAppScope == null)
+        {
+          final ScopeInCreation <ISessionApplicationScope> aInCreation = m_aSessionAppScopesInCreation.get (sAppScopeID);
+          if (aInCreation != null)
+            aSessionAppScope = aInCreation.getScope ();
+        }
+        if (aSessionAppScope == null)
         {
           // Definitively not present
           aSessionAppScope = createSessionApplicationScope (sAppScopeID);
-          m_aSessionAppScopes.put (sAppScopeID, aSessionAppScope);
-          aSessionAppScope.initScope ();
-
-          // Invoke SPIs
-          ScopeSPIManager.onSessionApplicationScopeBegin (aSessionAppScope);
+          final ScopeInCreation <ISessionApplicationScope> aInCreation = new ScopeInCreation <ISessionApplicationScope> (aSessionAppScope);
+          m_aSessionAppScopesInCreation.put (sAppScopeID, aInCreation);
+          try
+          {
+            aSessionAppScope.initScope ();
+
+            // Invoke SPIs
+            ScopeSPIManager.onSessionApplicationScopeBegin (aSessionAppScope);
+          }
+          finally
+          {
+            // Publish for lookups without locking - before removing it from
+            // the scopes in creation, so that it is always found
+            m_aSessionAppScopes.put (sAppScopeID, aSessionAppScope);
+            m_aSessionAppScopesInCreation.remove (sAppScopeID);
+            aInCreation.done ();
+          }
         }
       }
       finally
@@ -201,7 +380,7 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (m_aSessionAppScopes.containsKey (sScopeID))
+      if (m_aSessionAppScopes.containsKey (sScopeID) || m_aSessionAppScopesInCreation.containsKey (sScopeID))
         throw new IllegalArgumentException ("A session application scope with the ID '" +
                                             sScopeID +
                                             "' is already contained!");
@@ -217,29 +396,13 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
   @ReturnsMutableCopy
   public Map <String, ISessionApplicationScope> getAllSessionApplicationScopes ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return ContainerHelper.newMap (m_aSessionAppScopes);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return ContainerHelper.newMap (m_aSessionAppScopes);
   }
 
   @Nonnegative
   public int getSessionApplicationScopeCount ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aSessionAppScopes.size ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aSessionAppScopes.size ();
   }
 
   @Override
@@ -247,6 +410,7 @@ public class SessionScope extends AbstractMapBasedScope implements ISessionScope
   {
     return ToStringGenerator.getDerived (super.toString ())
                             .append ("sessionAppScopes", m_aSessionAppScopes)
+                            .append ("lastAccessTimeMillis", m_nLastAccessTimeMillis)
                             .toString ();
   }
 }
@@ -53,6 +53,17 @@ public enum EScope
     return getScope (this, bCreateIfNotExisting);
   }
 
+  /**
+   * @return The current scope of this level or <code>null</code> if it is not
+   *         present. Never throws an exception.
+   * @see #getScopeOrNull(EScope)
+   */
+  @Nullable
+  public IScope getScopeOrNull ()
+  {
+    return getScopeOrNull (this);
+  }
+
   /**
    * Resolve the currently matching scope of the given {@link EScope} value.
    * 
@@ -86,4 +97,38 @@ public enum EScope
         throw new IllegalArgumentException ("Unknown scope: " + eScope);
     }
   }
+
+  /**
+   * Resolve the currently matching scope of the given {@link EScope} value
+   * without creating it. In contrast to {@link #getScope(EScope, boolean)}
+   * this method never throws an exception if a scope is not available, e.g.
+   * because it is called from a thread without a request scope. This makes it
+   * suitable for frequently called code like event dispatching.
+   * 
+   * @param eScope
+   *        The scope to resolve to a real scope.
+   * @return The matching {@link IScope} or <code>null</code> if no such scope
+   *         is present.
+   * @throws IllegalArgumentException
+   *         If an illegal enumeration value is passed.
+   */
+  @Nullable
+  public static IScope getScopeOrNull (@Nonnull final EScope eScope)
+  {
+    switch (eScope)
+    {
+      case GLOBAL:
+        return ScopeManager.getGlobalScopeOrNull ();
+      case APPLICATION:
+        return ScopeManager.getApplicationScopeOrNull ();
+      case SESSION:
+        return ScopeManager.getSessionScope (false);
+      case SESSION_APPLICATION:
+        return ScopeManager.getSessionApplicationScopeOrNull ();
+      case REQUEST:
+        return ScopeManager.getRequestScopeOrNull ();
+      default:
+        throw new IllegalArgumentException ("Unknown scope: " + eScope);
+    }
+  }
 }
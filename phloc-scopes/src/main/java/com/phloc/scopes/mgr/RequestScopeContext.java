@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.mgr;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
+
+/**
+ * The per-thread context of the current request. Besides the request scope it
+ * caches the scopes resolved for the request, so that subsequent accesses
+ * don't need to look them up again. Cached scopes are only returned as long as
+ * they are valid, so destroying e.g. the session in the middle of the request
+ * automatically invalidates the cache.
+ * 
+ * @author Boris Gregorcic
+ */
+@NotThreadSafe
+final class RequestScopeContext
+{
+  private final IRequestScope m_aRequestScope;
+  private final String m_sApplicationID;
+  private IApplicationScope m_aApplicationScope;
+  private ISessionScope m_aSessionScope;
+  private ISessionApplicationScope m_aSessionApplicationScope;
+
+  RequestScopeContext (@Nonnull final IRequestScope aRequestScope, @Nonnull @Nonempty final String sApplicationID)
+  {
+    m_aRequestScope = ValueEnforcer.notNull (aRequestScope, "RequestScope"); //$NON-NLS-1$
+    m_sApplicationID = ValueEnforcer.notEmpty (sApplicationID, "ApplicationID"); //$NON-NLS-1$
+  }
+
+  @Nullable
+  private static <T extends IScope> T _getIfValid (@Nullable final T aScope)
+  {
+    return aScope != null && aScope.isValid () ? aScope : null;
+  }
+
+  @Nonnull
+  IRequestScope getRequestScope ()
+  {
+    return m_aRequestScope;
+  }
+
+  @Nonnull
+  @Nonempty
+  String getApplicationID ()
+  {
+    return m_sApplicationID;
+  }
+
+  /**
+   * @return The cached application scope or <code>null</code> if none is
+   *         cached or the cached scope is no longer valid.
+   */
+  @Nullable
+  IApplicationScope getApplicationScope ()
+  {
+    return _getIfValid (m_aApplicationScope);
+  }
+
+  void setApplicationScope (@Nullable final IApplicationScope aApplicationScope)
+  {
+    m_aApplicationScope = aApplicationScope;
+  }
+
+  /**
+   * @return The cached session scope or <code>null</code> if none is cached or
+   *         the cached scope is no longer valid.
+   */
+  @Nullable
+  ISessionScope getSessionScope ()
+  {
+    return _getIfValid (m_aSessionScope);
+  }
+
+  void setSessionScope (@Nullable final ISessionScope aSessionScope)
+  {
+    m_aSessionScope = aSessionScope;
+  }
+
+  /**
+   * @return The cached session application scope of the request application
+   *         or <code>null</code> if none is cached or the cached scope is no
+   *         longer valid.
+   */
+  @Nullable
+  ISessionApplicationScope getSessionApplicationScope ()
+  {
+    return _getIfValid (m_aSessionApplicationScope);
+  }
+
+  void setSessionApplicationScope (@Nullable final ISessionApplicationScope aSessionApplicationScope)
+  {
+    m_aSessionApplicationScope = aSessionApplicationScope;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("requestScope", m_aRequestScope)
+                                       .append ("applicationID", m_sApplicationID)
+                                       .append ("applicationScope", m_aApplicationScope)
+                                       .append ("sessionScope", m_aSessionScope)
+                                       .append ("sessionApplicationScope", m_aSessionApplicationScope)
+                                       .toString ();
+  }
+}
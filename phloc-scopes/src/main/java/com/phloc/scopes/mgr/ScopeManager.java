@@ -60,7 +60,9 @@ public final class ScopeManager
 
   /**
    * The name of the attribute used to store the application scope in the
-   * current request
+   * current request. Only kept for compatibility with request scopes that
+   * don't know their application ID - use
+   * {@link IRequestScope#getApplicationID()} instead.
    */
   private static final String REQ_APPLICATION_ID = "phloc.applicationscope"; //$NON-NLS-1$
 
@@ -70,8 +72,8 @@ public final class ScopeManager
   @GuardedBy ("s_aGlobalLock")
   private static volatile IGlobalScope s_aGlobalScope;
 
-  /** Request scope */
-  private static final ThreadLocal <IRequestScope> s_aRequestScope = new ThreadLocal <> ();
+  /** Request scope and the scopes resolved for it */
+  private static final ThreadLocal <RequestScopeContext> s_aRequestContext = new ThreadLocal <> ();
 
   @PresentForCodeCoverage
   @SuppressWarnings ("unused")
@@ -176,6 +178,10 @@ public final class ScopeManager
         s_aGlobalScope.destroyScope ();
         s_aGlobalScope = null;
 
+        // Stop the asynchronous SPI notifications - the pending ones are
+        // awaited outside of the lock
+        ScopeSPIManager.onGlobalScopeDestroyed ();
+
         // done
         if (ScopeUtils.debugGlobalScopeLifeCycle (LOG))
           LOG.info ("Global scope '" + sDestroyedScopeID + "' shut down!", ScopeUtils.getDebugStackTrace ()); //$NON-NLS-1$ //$NON-NLS-2$
@@ -187,6 +193,10 @@ public final class ScopeManager
     {
       s_aGlobalLock.unlock ();
     }
+
+    // Deliver the pending asynchronous SPI notifications, including those of
+    // the application and session scopes ended above
+    ScopeSPIManager.awaitAsyncNotifications ();
   }
 
   // --- application scope ---
@@ -201,6 +211,11 @@ public final class ScopeManager
   @Nullable
   public static String getRequestApplicationID (@Nonnull final IRequestScope aRequestScope)
   {
+    final String ret = aRequestScope.getApplicationID ();
+    if (ret != null)
+      return ret;
+
+    // Request scope not initialized via this class
     return aRequestScope.getAttributeAsString (REQ_APPLICATION_ID);
   }
 
@@ -209,15 +224,12 @@ public final class ScopeManager
    * 
    * @return Never <code>null</code>
    * @throws IllegalStateException
-   *         if no application ID is present
+   *         if no request scope is present
    */
   @Nonnull
   public static String getRequestApplicationID ()
   {
-    final String ret = getRequestApplicationID (getRequestScope ());
-    if (ret == null)
-      throw new IllegalStateException ("Weird state - no appid!"); //$NON-NLS-1$
-    return ret;
+    return _getRequestContext ().getApplicationID ();
   }
 
   /**
@@ -245,7 +257,41 @@ public final class ScopeManager
   @Nullable
   public static IApplicationScope getApplicationScope (final boolean bCreateIfNotExisting)
   {
-    return getApplicationScope (getRequestApplicationID (), bCreateIfNotExisting);
+    final RequestScopeContext aContext = _getRequestContext ();
+    IApplicationScope ret = aContext.getApplicationScope ();
+    if (ret == null)
+    {
+      ret = getApplicationScope (aContext.getApplicationID (), bCreateIfNotExisting);
+      aContext.setApplicationScope (ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Get the current application scope if it is present. In contrast to
+   * {@link #getApplicationScope(boolean)} this method never throws an
+   * exception, e.g. if it is called from a thread without a request scope.
+   * 
+   * @return <code>null</code> if no request scope, no global scope or no
+   *         matching application scope is present.
+   */
+  @Nullable
+  public static IApplicationScope getApplicationScopeOrNull ()
+  {
+    final RequestScopeContext aContext = s_aRequestContext.get ();
+    if (aContext == null)
+      return null;
+
+    IApplicationScope ret = aContext.getApplicationScope ();
+    if (ret == null)
+    {
+      final IGlobalScope aGlobalScope = getGlobalScopeOrNull ();
+      if (aGlobalScope == null)
+        return null;
+      ret = aGlobalScope.getApplicationScope (aContext.getApplicationID (), false);
+      aContext.setApplicationScope (ret);
+    }
+    return ret;
   }
 
   /**
@@ -315,9 +361,19 @@ public final class ScopeManager
   @Nullable
   public static ISessionScope getSessionScope (final boolean bCreateIfNotExisting)
   {
-    final IRequestScope aRequestScope = getRequestScopeOrNull ();
-    if (aRequestScope != null)
+    final RequestScopeContext aContext = s_aRequestContext.get ();
+    if (aContext != null)
     {
+      // Already resolved in this request?
+      final ISessionScope aCachedSessionScope = aContext.getSessionScope ();
+      if (aCachedSessionScope != null)
+      {
+        // Remember the access for the idle session expiry
+        ScopeSessionManager.touchSessionScope (aCachedSessionScope);
+        return aCachedSessionScope;
+      }
+
+      final IRequestScope aRequestScope = aContext.getRequestScope ();
       final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
 
       // Get the session ID from the underlying request
@@ -333,11 +389,13 @@ public final class ScopeManager
         // Create a new session scope
         aSessionScope = MetaScopeFactory.getScopeFactory ().createSessionScope (sSessionID);
 
-        // And register in the Session Manager
-        aSSM.onScopeBegin (aSessionScope);
+        // And register in the Session Manager - if a concurrent request was
+        // faster, its scope is returned and the new one is dropped
+        aSessionScope = aSSM.onScopeBegin (aSessionScope);
       }
 
       // We're done - maybe null
+      aContext.setSessionScope (aSessionScope);
       return aSessionScope;
     }
 
@@ -373,7 +431,41 @@ public final class ScopeManager
   @Nullable
   public static ISessionApplicationScope getSessionApplicationScope (final boolean bCreateIfNotExisting)
   {
-    return getSessionApplicationScope (ScopeManager.getRequestApplicationID (), bCreateIfNotExisting);
+    final RequestScopeContext aContext = _getRequestContext ();
+    ISessionApplicationScope ret = aContext.getSessionApplicationScope ();
+    if (ret == null)
+    {
+      ret = getSessionApplicationScope (aContext.getApplicationID (), bCreateIfNotExisting);
+      aContext.setSessionApplicationScope (ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Get the current session application scope if it is present. In contrast
+   * to {@link #getSessionApplicationScope(boolean)} this method never throws an
+   * exception, e.g. if it is called from a thread without a request scope.
+   * 
+   * @return <code>null</code> if no request scope, no session scope or no
+   *         matching session application scope is present.
+   */
+  @Nullable
+  public static ISessionApplicationScope getSessionApplicationScopeOrNull ()
+  {
+    final RequestScopeContext aContext = s_aRequestContext.get ();
+    if (aContext == null)
+      return null;
+
+    ISessionApplicationScope ret = aContext.getSessionApplicationScope ();
+    if (ret == null)
+    {
+      final ISessionScope aSessionScope = getSessionScope (false);
+      if (aSessionScope == null)
+        return null;
+      ret = aSessionScope.getSessionApplicationScope (aContext.getApplicationID (), false);
+      aContext.setSessionApplicationScope (ret);
+    }
+    return ret;
   }
 
   @Nonnull
@@ -411,10 +503,19 @@ public final class ScopeManager
     ValueEnforcer.notNull (aRequestScope, "RequestScope"); //$NON-NLS-1$
     if (!isGlobalScopePresent ())
       throw new IllegalStateException ("No global context present! May be the global context listener is not installed?"); //$NON-NLS-1$
+    final String sScopeApplicationID = aRequestScope.getApplicationID ();
+    if (sScopeApplicationID != null && !sScopeApplicationID.equals (sApplicationID))
+      throw new IllegalStateException ("The request scope '" + //$NON-NLS-1$
+                                       aRequestScope.getID () +
+                                       "' belongs to application '" + //$NON-NLS-1$
+                                       sScopeApplicationID +
+                                       "' and not to '" + //$NON-NLS-1$
+                                       sApplicationID +
+                                       "'"); //$NON-NLS-1$
 
     // Happens if an internal redirect happens in a web-application (e.g. for
     // 404 page)
-    final IRequestScope aExistingRequestScope = s_aRequestScope.get ();
+    final IRequestScope aExistingRequestScope = getRequestScopeOrNull ();
     if (aExistingRequestScope != null)
     {
       LOG.warn ("A request scope is already present - will overwrite it: {}", aExistingRequestScope); //$NON-NLS-1$
@@ -428,11 +529,12 @@ public final class ScopeManager
     }
 
     // set request context
-    s_aRequestScope.set (aRequestScope);
+    s_aRequestContext.set (new RequestScopeContext (aRequestScope, sApplicationID));
     try
     {
-      // assign the application ID to the current request
-      if (aRequestScope.setAttribute (REQ_APPLICATION_ID, sApplicationID).isUnchanged ())
+      // assign the application ID as an attribute for compatibility - only
+      // if the scope doesn't know it, to avoid a locked write per request
+      if (sScopeApplicationID == null && aRequestScope.setAttribute (REQ_APPLICATION_ID, sApplicationID).isUnchanged ())
       {
         LOG.warn ("Failed to set the application ID '{}' into the request scope '{}'", //$NON-NLS-1$
                   sApplicationID,
@@ -457,7 +559,9 @@ public final class ScopeManager
                                               @Nonnull @Nonempty final String sScopeID,
                                               @Nonnull @Nonempty final String sSessionID)
   {
-    final IRequestScope aRequestScope = MetaScopeFactory.getScopeFactory ().createRequestScope (sScopeID, sSessionID);
+    final IRequestScope aRequestScope = MetaScopeFactory.getScopeFactory ().createRequestScope (sScopeID,
+                                                                                                sSessionID,
+                                                                                                sApplicationID);
     setAndInitRequestScope (sApplicationID, aRequestScope);
     return aRequestScope;
   }
@@ -469,7 +573,8 @@ public final class ScopeManager
   @Nullable
   public static IRequestScope getRequestScopeOrNull ()
   {
-    return s_aRequestScope.get ();
+    final RequestScopeContext aContext = s_aRequestContext.get ();
+    return aContext == null ? null : aContext.getRequestScope ();
   }
 
   /**
@@ -489,10 +594,16 @@ public final class ScopeManager
   @Nonnull
   public static IRequestScope getRequestScope ()
   {
-    final IRequestScope aScope = getRequestScopeOrNull ();
-    if (aScope == null)
+    return _getRequestContext ().getRequestScope ();
+  }
+
+  @Nonnull
+  private static RequestScopeContext _getRequestContext ()
+  {
+    final RequestScopeContext aContext = s_aRequestContext.get ();
+    if (aContext == null)
       throw new IllegalStateException ("No request scope is available."); //$NON-NLS-1$
-    return aScope;
+    return aContext;
   }
 
   private static void _destroyRequestScope (@Nonnull final IRequestScope aRequestScope)
@@ -527,7 +638,7 @@ public final class ScopeManager
     finally
     {
       // Remove from ThreadLocal
-      s_aRequestScope.remove ();
+      s_aRequestContext.remove ();
     }
   }
 }
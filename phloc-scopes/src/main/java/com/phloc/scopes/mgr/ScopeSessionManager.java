@@ -18,13 +18,20 @@
 package com.phloc.scopes.mgr;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -39,10 +46,12 @@ import com.phloc.commons.ValueEnforcer;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.annotations.UsedViaReflection;
 import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.mutable.MutableBoolean;
 import com.phloc.commons.state.EChange;
 import com.phloc.commons.stats.IStatisticsHandlerCounter;
 import com.phloc.commons.stats.StatisticsManager;
 import com.phloc.commons.string.StringHelper;
+import com.phloc.scopes.domain.IAccessTrackingSessionScope;
 import com.phloc.scopes.domain.ISessionScope;
 import com.phloc.scopes.singleton.GlobalSingleton;
 import com.phloc.scopes.spi.ScopeSPIManager;
@@ -61,20 +70,48 @@ public class ScopeSessionManager extends GlobalSingleton
 {
   public static final boolean DEFAULT_DESTROY_ALL_SESSIONS_ON_SCOPE_END = true;
   public static final boolean DEFAULT_END_ALL_SESSIONS_ON_SCOPE_END = true;
+  /** By default all sessions are destroyed sequentially */
+  public static final int DEFAULT_SESSION_DESTRUCTION_THREADS = 1;
+  /** By default there is no deadline for the destruction of all sessions */
+  public static final long DEFAULT_SESSION_DESTRUCTION_TIMEOUT_MILLIS = 0;
+  /** By default idle sessions are not expired */
+  public static final long DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS = 0;
+  /**
+   * The time in milliseconds the workers of a parallel destruction may take to
+   * finish after the timeout elapsed
+   */
+  public static final long SESSION_DESTRUCTION_GRACE_MILLIS = 1000;
+  /** The interval in which the progress of a parallel destruction is logged */
+  private static final long PROGRESS_INTERVAL_MILLIS = 5000;
   private static final Logger LOG = LoggerFactory.getLogger (ScopeSessionManager.class);
   private static final IStatisticsHandlerCounter s_aUniqueSessionCounter = StatisticsManager.getCounterHandler (ScopeSessionManager.class.getName () +
                                                                                                                 "$UNIQUE_SESSIONS"); //$NON-NLS-1$
 
   private static volatile ScopeSessionManager s_aInstance = null;
 
-  /** All contained session scopes. */
+  /**
+   * All contained session scopes. Lookups are lock-free and changes of
+   * different sessions don't block each other.
+   */
+  private final ConcurrentMap <String, ISessionScope> m_aSessionScopes = new ConcurrentHashMap <String, ISessionScope> ();
+  /** The IDs of all sessions currently being destroyed. */
+  private final Set <String> m_aSessionsInDestruction = Collections.newSetFromMap (new ConcurrentHashMap <String, Boolean> ());
+  /** Lock for the settings only. */
   private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock ();
-  private final Map <String, ISessionScope> m_aSessionScopes = new HashMap <String, ISessionScope> ();
-  private final Set <String> m_aSessionsInDestruction = new HashSet <String> ();
   @GuardedBy ("m_aRWLock")
   private boolean m_bDestroyAllSessionsOnScopeEnd = DEFAULT_DESTROY_ALL_SESSIONS_ON_SCOPE_END;
   @GuardedBy ("m_aRWLock")
   private boolean m_bEndAllSessionsOnScopeEnd = DEFAULT_END_ALL_SESSIONS_ON_SCOPE_END;
+  @GuardedBy ("m_aRWLock")
+  private int m_nSessionDestructionThreads = DEFAULT_SESSION_DESTRUCTION_THREADS;
+  @GuardedBy ("m_aRWLock")
+  private long m_nSessionDestructionTimeoutMillis = DEFAULT_SESSION_DESTRUCTION_TIMEOUT_MILLIS;
+  @GuardedBy ("m_aRWLock")
+  private long m_nSessionIdleTimeoutMillis = DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS;
+  @GuardedBy ("m_aRWLock")
+  private ScheduledExecutorService m_aExpiryExecutor;
+  /** The expiry wheel - only present if an idle timeout is set */
+  private volatile SessionExpiryWheel m_aExpiryWheel;
 
   @Deprecated
   @UsedViaReflection
@@ -93,7 +130,7 @@ public class ScopeSessionManager extends GlobalSingleton
 
   /**
    * Get the session scope with the specified ID. If no such scope exists, no
-   * further actions are taken.
+   * further actions are taken. A found scope is marked as accessed.
    * 
    * @param sScopeID
    *        The ID to be resolved. May be <code>null</code>.
@@ -105,42 +142,58 @@ public class ScopeSessionManager extends GlobalSingleton
     if (StringHelper.hasNoText (sScopeID))
       return null;
 
-    this.m_aRWLock.readLock ().lock ();
-    try
-    {
-      return this.m_aSessionScopes.get (sScopeID);
-    }
-    finally
-    {
-      this.m_aRWLock.readLock ().unlock ();
-    }
+    final ISessionScope aSessionScope = this.m_aSessionScopes.get (sScopeID);
+    touchSessionScope (aSessionScope);
+    return aSessionScope;
+  }
+
+  /**
+   * Mark the passed session scope as being accessed now, if it tracks its last
+   * access.
+   * 
+   * @param aSessionScope
+   *        The session scope that is accessed. May be <code>null</code>.
+   */
+  static void touchSessionScope (@Nullable final ISessionScope aSessionScope)
+  {
+    if (aSessionScope instanceof IAccessTrackingSessionScope)
+      ((IAccessTrackingSessionScope) aSessionScope).touch ();
   }
 
   /**
    * Register the passed session scope in the internal map, call the
    * {@link ISessionScope #initScope()} method and finally invoke the SPIs for
-   * the new scope.
+   * the new scope. If another session scope with the same ID is already
+   * registered, the passed scope is rejected and the registered scope stays
+   * untouched. A rejected scope is neither initialized nor passed to the SPIs,
+   * so callers must continue with the returned scope.
    * 
    * @param aSessionScope
    *        The session scope that was just created. May not be
    *        <code>null</code>.
+   * @return The registered session scope. This is the passed scope, or the
+   *         scope that was already registered with the same ID. Never
+   *         <code>null</code>.
    */
-  public void onScopeBegin (@Nonnull final ISessionScope aSessionScope)
+  @Nonnull
+  public ISessionScope onScopeBegin (@Nonnull final ISessionScope aSessionScope)
   {
     ValueEnforcer.notNull (aSessionScope, "SessionScope"); //$NON-NLS-1$
 
     final String sSessionID = aSessionScope.getID ();
-    this.m_aRWLock.writeLock ().lock ();
-    try
+    final ISessionScope aExistingScope = this.m_aSessionScopes.putIfAbsent (sSessionID, aSessionScope);
+    if (aExistingScope != null)
     {
-      if (this.m_aSessionScopes.put (sSessionID, aSessionScope) != null)
-        LOG.error ("Overwriting session scope with ID '" + sSessionID + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-    }
-    finally
-    {
-      this.m_aRWLock.writeLock ().unlock ();
+      if (aExistingScope != aSessionScope)
+        LOG.error ("Ignoring new session scope because a session scope with ID '" + sSessionID + "' is already registered"); //$NON-NLS-1$ //$NON-NLS-2$
+      return aExistingScope;
     }
 
+    // Schedule for the idle session expiry
+    final SessionExpiryWheel aExpiryWheel = this.m_aExpiryWheel;
+    if (aExpiryWheel != null && aSessionScope instanceof IAccessTrackingSessionScope)
+      aExpiryWheel.schedule ((IAccessTrackingSessionScope) aSessionScope);
+
     // Init the scope after it was registered
     aSessionScope.initScope ();
 
@@ -149,6 +202,34 @@ public class ScopeSessionManager extends GlobalSingleton
 
     // Increment statistics counter
     s_aUniqueSessionCounter.increment ();
+    return aSessionScope;
+  }
+
+  /**
+   * Atomically remove the passed session scope from the internal map, if it is
+   * still registered. Scopes are compared by identity, so that a newer scope
+   * with the same ID is not removed.
+   * 
+   * @param aSessionScope
+   *        The session scope to be removed. May not be <code>null</code>.
+   * @return <code>true</code> if the scope was removed
+   */
+  private boolean _removeSessionScope (@Nonnull final ISessionScope aSessionScope)
+  {
+    final MutableBoolean aRemoved = new MutableBoolean (false);
+    this.m_aSessionScopes.computeIfPresent (aSessionScope.getID (),
+                                            new BiFunction <String, ISessionScope, ISessionScope> ()
+                                            {
+                                              public ISessionScope apply (final String sSessionID,
+                                                                          final ISessionScope aCurrentScope)
+                                              {
+                                                if (aCurrentScope != aSessionScope)
+                                                  return aCurrentScope;
+                                                aRemoved.set (true);
+                                                return null;
+                                              }
+                                            });
+    return aRemoved.booleanValue ();
   }
 
   /**
@@ -168,36 +249,20 @@ public class ScopeSessionManager extends GlobalSingleton
     {
       final String sSessionID = aSessionScope.getID ();
 
-      boolean bCanDestroyScope = true;
-      this.m_aRWLock.writeLock ().lock ();
-      try
+      // Only if we're not just in destruction of exactly this session
+      if (this.m_aSessionsInDestruction.add (sSessionID))
       {
-        // Only if we're not just in destruction of exactly this session
-        if (this.m_aSessionsInDestruction.add (sSessionID))
+        try
         {
-          // Remove from map
-          final ISessionScope aRemovedScope = this.m_aSessionScopes.remove (sSessionID);
-          if (aRemovedScope != aSessionScope)
+          // Remove from map - but only the passed scope and not a newer scope
+          // with the same ID
+          if (!_removeSessionScope (aSessionScope))
           {
             LOG.error ("Ending an unknown session with ID '" + sSessionID + "'"); //$NON-NLS-1$ //$NON-NLS-2$
             LOG.error ("  Scope to be removed: " + aSessionScope); //$NON-NLS-1$
-            LOG.error ("  Removed scope:       " + aRemovedScope); //$NON-NLS-1$
+            LOG.error ("  Contained scope:     " + this.m_aSessionScopes.get (sSessionID)); //$NON-NLS-1$
           }
-          bCanDestroyScope = true;
-        }
-        else
-          LOG.info ("Already destructing session '" + sSessionID + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-      }
-      finally
-      {
-        this.m_aRWLock.writeLock ().unlock ();
-      }
 
-      if (bCanDestroyScope)
-      {
-        // Destroy scope outside of write lock
-        try
-        {
           // Invoke SPIs
           ScopeSPIManager.onSessionScopeEnd (aSessionScope);
 
@@ -207,17 +272,11 @@ public class ScopeSessionManager extends GlobalSingleton
         finally
         {
           // Remove from "in destruction" list
-          this.m_aRWLock.writeLock ().lock ();
-          try
-          {
-            this.m_aSessionsInDestruction.remove (sSessionID);
-          }
-          finally
-          {
-            this.m_aRWLock.writeLock ().unlock ();
-          }
+          this.m_aSessionsInDestruction.remove (sSessionID);
         }
       }
+      else
+        LOG.info ("Already destructing session '" + sSessionID + "'"); //$NON-NLS-1$ //$NON-NLS-2$
     }
   }
 
@@ -227,15 +286,7 @@ public class ScopeSessionManager extends GlobalSingleton
    */
   public boolean containsAnySession ()
   {
-    this.m_aRWLock.readLock ().lock ();
-    try
-    {
-      return !this.m_aSessionScopes.isEmpty ();
-    }
-    finally
-    {
-      this.m_aRWLock.readLock ().unlock ();
-    }
+    return !this.m_aSessionScopes.isEmpty ();
   }
 
   /**
@@ -244,15 +295,7 @@ public class ScopeSessionManager extends GlobalSingleton
   @Nonnegative
   public int getSessionCount ()
   {
-    this.m_aRWLock.readLock ().lock ();
-    try
-    {
-      return this.m_aSessionScopes.size ();
-    }
-    finally
-    {
-      this.m_aRWLock.readLock ().unlock ();
-    }
+    return this.m_aSessionScopes.size ();
   }
 
   /**
@@ -263,85 +306,275 @@ public class ScopeSessionManager extends GlobalSingleton
   @ReturnsMutableCopy
   public Collection <? extends ISessionScope> getAllSessionScopes ()
   {
-    this.m_aRWLock.readLock ().lock ();
-    try
+    return ContainerHelper.newList (this.m_aSessionScopes.values ());
+  }
+
+  private void checkIfAnySessionsExist (final Collection <? extends ISessionScope> aScopes)
+  {
+    if (containsAnySession ())
     {
-      return ContainerHelper.newList (this.m_aSessionScopes.values ());
+      final List <String> aResidual = ContainerHelper.newList ();
+      for (final ISessionScope aScope : aScopes)
+      {
+        if (_removeSessionScope (aScope))
+        {
+          aResidual.add (aScope.getID ());
+        }
+      }
+      if (!aResidual.isEmpty ())
+      {
+        LOG.error ("Removed {} left over session scopes: {}", String.valueOf (aResidual.size ()), aResidual); //$NON-NLS-1$
+      }
     }
-    finally
+  }
+
+  /**
+   * End a single session scope as part of the bulk destruction.
+   * 
+   * @param aSessionScope
+   *        The session scope to end. May not be <code>null</code>.
+   * @param bSelfDestruct
+   *        <code>true</code> to destroy the underlying session as well
+   */
+  private void _endSessionScope (@Nonnull final ISessionScope aSessionScope, final boolean bSelfDestruct)
+  {
+    // Unfortunately we need a special handling here
+    if (!bSelfDestruct || aSessionScope.selfDestruct ().isContinue ())
     {
-      this.m_aRWLock.readLock ().unlock ();
+      // Remove from map
+      onScopeEnd (aSessionScope);
     }
+    // Else the destruction was already started!
   }
 
-  private void checkIfAnySessionsExist (final Collection <? extends ISessionScope> aScopes)
+  /**
+   * Destroy a session scope that was not ended before the deadline of a
+   * parallel destruction. The SPIs are not invoked, as they may be the reason
+   * for the timeout, but the scope is destroyed so that its contents (e.g.
+   * session singletons) are notified.
+   * 
+   * @param aSessionScope
+   *        The session scope to destroy. May not be <code>null</code>.
+   */
+  private void _destroyRemainingSessionScope (@Nonnull final ISessionScope aSessionScope)
   {
-    if (containsAnySession ())
+    final String sSessionID = aSessionScope.getID ();
+    if (aSessionScope.isValid () && this.m_aSessionsInDestruction.add (sSessionID))
     {
-      final List <String> aResidual = ContainerHelper.newList ();
-      this.m_aRWLock.writeLock ().lock ();
       try
       {
-        for (final ISessionScope aScope : aScopes)
+        if (_removeSessionScope (aSessionScope))
+          aSessionScope.destroyScope ();
+      }
+      catch (final RuntimeException ex)
+      {
+        LOG.error ("Failed to destroy session scope '" + sSessionID + "'", ex); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      finally
+      {
+        this.m_aSessionsInDestruction.remove (sSessionID);
+      }
+    }
+  }
+
+  /**
+   * End all passed session scopes in parallel, using the configured number of
+   * threads. If the configured timeout elapses or the current thread is
+   * interrupted, no further sessions are handed to the workers. The workers
+   * are interrupted and waited for at most
+   * {@link #SESSION_DESTRUCTION_GRACE_MILLIS} milliseconds - workers still
+   * running afterwards are abandoned. All sessions that were not yet handed to
+   * a worker are then destroyed in the calling thread without invoking the
+   * SPIs. So this method returns at most the grace period after the timeout,
+   * unless destroying a scope itself blocks.
+   * 
+   * @param aAllScopes
+   *        The session scopes to end. May not be <code>null</code>.
+   * @param bSelfDestruct
+   *        <code>true</code> to destroy the underlying sessions as well
+   * @param nThreads
+   *        The number of threads to use. Must be &gt; 1.
+   * @param nTimeoutMillis
+   *        The overall timeout in milliseconds. Values &le; 0 mean no timeout.
+   */
+  private void _endSessionScopesParallel (@Nonnull final List <? extends ISessionScope> aAllScopes,
+                                          final boolean bSelfDestruct,
+                                          final int nThreads,
+                                          final long nTimeoutMillis)
+  {
+    final int nTotal = aAllScopes.size ();
+    final long nDeadline = nTimeoutMillis > 0 ? System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (nTimeoutMillis)
+                                              : Long.MAX_VALUE;
+    final AtomicInteger aNextIndex = new AtomicInteger ();
+    final AtomicInteger aEnded = new AtomicInteger ();
+    final int nWorkers = Math.min (nThreads, nTotal);
+
+    LOG.info ("Ending " + nTotal + " session scopes using " + nWorkers + " threads"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    final AtomicInteger aThreadIndex = new AtomicInteger ();
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (nWorkers, new ThreadFactory ()
+    {
+      public Thread newThread (@Nonnull final Runnable aRunnable)
+      {
+        final Thread aThread = new Thread (aRunnable, "phloc-session-destruction-" + aThreadIndex.incrementAndGet ()); //$NON-NLS-1$
+        aThread.setDaemon (true);
+        return aThread;
+      }
+    });
+    boolean bInterrupted = false;
+    boolean bCompleted = false;
+    try
+    {
+      for (int i = 0; i < nWorkers; ++i)
+        aExecutor.execute (new Runnable ()
         {
-          if (this.m_aSessionScopes.remove (aScope.getID ()) != null)
+          public void run ()
           {
-            aResidual.add (aScope.getID ());
+            int nIndex;
+            while (!Thread.currentThread ().isInterrupted () && (nIndex = aNextIndex.getAndIncrement ()) < nTotal)
+            {
+              final ISessionScope aSessionScope = aAllScopes.get (nIndex);
+              try
+              {
+                _endSessionScope (aSessionScope, bSelfDestruct);
+              }
+              catch (final RuntimeException ex)
+              {
+                // Continue with the other sessions
+                LOG.error ("Failed to end session scope '" + aSessionScope.getID () + "'", ex); //$NON-NLS-1$ //$NON-NLS-2$
+              }
+              aEnded.incrementAndGet ();
+            }
           }
+        });
+      aExecutor.shutdown ();
+
+      // Wait for completion and report the progress
+      while (true)
+      {
+        final long nRemainingNanos = nTimeoutMillis > 0 ? nDeadline - System.nanoTime () : Long.MAX_VALUE;
+        if (nRemainingNanos <= 0)
+        {
+          LOG.warn ("Timeout after ending " + aEnded.get () + " of " + nTotal + " session scopes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+          break;
+        }
+        if (aExecutor.awaitTermination (Math.min (nRemainingNanos, TimeUnit.MILLISECONDS.toNanos (PROGRESS_INTERVAL_MILLIS)),
+                                        TimeUnit.NANOSECONDS))
+        {
+          LOG.info ("Finished ending " + aEnded.get () + " session scopes"); //$NON-NLS-1$ //$NON-NLS-2$
+          bCompleted = true;
+          break;
         }
+        LOG.info ("Ended " + aEnded.get () + " of " + nTotal + " session scopes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
       }
-      finally
+    }
+    catch (final InterruptedException ex)
+    {
+      LOG.error ("Interrupted after ending " + aEnded.get () + " of " + nTotal + " session scopes"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      bInterrupted = true;
+    }
+    finally
+    {
+      if (!bCompleted)
       {
-        this.m_aRWLock.writeLock ().unlock ();
-        if (!aResidual.isEmpty ())
+        // Don't hand out further sessions - all indices from here on were
+        // never picked up by a worker
+        final int nFirstRemaining = Math.min (aNextIndex.getAndSet (nTotal), nTotal);
+
+        // Stop the workers and give the sessions currently being ended a
+        // limited time to finish
+        aExecutor.shutdownNow ();
+        if (_awaitTermination (aExecutor, SESSION_DESTRUCTION_GRACE_MILLIS))
+          bInterrupted = true;
+
+        if (nFirstRemaining < nTotal)
         {
-          LOG.error ("Removed {} left over session scopes: {}", String.valueOf (aResidual.size ()), aResidual); //$NON-NLS-1$
+          LOG.warn ("Destroying " + //$NON-NLS-1$
+                    (nTotal - nFirstRemaining) +
+                    " remaining session scopes without invoking the SPIs"); //$NON-NLS-1$
+          for (final ISessionScope aSessionScope : aAllScopes.subList (nFirstRemaining, nTotal))
+            _destroyRemainingSessionScope (aSessionScope);
         }
       }
+      if (bInterrupted)
+        Thread.currentThread ().interrupt ();
     }
   }
 
   /**
-   * Destroy all known session scopes. After this method it is ensured that the
-   * internal session map is empty.
+   * Wait until all workers of the passed executor have finished, but at most
+   * the passed time. If the current thread is interrupted, the waiting is
+   * stopped immediately.
+   * 
+   * @param aExecutor
+   *        The executor that was already shut down. May not be
+   *        <code>null</code>.
+   * @param nMaxWaitMillis
+   *        The maximum time to wait in milliseconds.
+   * @return <code>true</code> if the current thread was interrupted while
+   *         waiting. The interrupted flag is cleared in this case.
    */
-  public void destroyAllSessions ()
+  private static boolean _awaitTermination (@Nonnull final ExecutorService aExecutor, final long nMaxWaitMillis)
   {
-    // destroy all session scopes (make a copy, because we're invalidating
-    // the sessions internally!)
-    final Collection <? extends ISessionScope> aAllScopes = getAllSessionScopes ();
-
-    for (final ISessionScope aSessionScope : aAllScopes)
+    try
     {
-      // Unfortunately we need a special handling here
-      if (aSessionScope.selfDestruct ().isContinue ())
-      {
-        // Remove from map
-        onScopeEnd (aSessionScope);
-      }
-      // Else the destruction was already started!
+      if (!aExecutor.awaitTermination (nMaxWaitMillis, TimeUnit.MILLISECONDS))
+        LOG.error ("The session destruction threads did not finish within " + //$NON-NLS-1$
+                   nMaxWaitMillis +
+                   " milliseconds - giving up on them"); //$NON-NLS-1$
+      return false;
     }
+    catch (final InterruptedException ex)
+    {
+      LOG.error ("Interrupted while waiting for the session destruction threads - giving up on them"); //$NON-NLS-1$
+      return true;
+    }
+  }
+
+  /**
+   * End all passed session scopes, either sequentially or in parallel
+   * depending on the configured number of session destruction threads.
+   * Afterwards it is ensured that the passed scopes are no longer contained.
+   * 
+   * @param bSelfDestruct
+   *        <code>true</code> to destroy the underlying sessions as well
+   */
+  private void _endAllSessionScopes (final boolean bSelfDestruct)
+  {
+    // make a copy, because we're invalidating the sessions internally!
+    final List <? extends ISessionScope> aAllScopes = ContainerHelper.newList (this.m_aSessionScopes.values ());
+
+    final int nThreads = getSessionDestructionThreads ();
+    if (nThreads > 1 && aAllScopes.size () > 1)
+      _endSessionScopesParallel (aAllScopes, bSelfDestruct, nThreads, getSessionDestructionTimeoutMillis ());
+    else
+      for (final ISessionScope aSessionScope : aAllScopes)
+        _endSessionScope (aSessionScope, bSelfDestruct);
 
     // Sanity check in case something went wrong
     checkIfAnySessionsExist (aAllScopes);
   }
 
+  /**
+   * Destroy all known session scopes. After this method it is ensured that the
+   * internal session map is empty.
+   * 
+   * @see #setSessionDestructionThreads(int)
+   * @see #setSessionDestructionTimeoutMillis(long)
+   */
+  public void destroyAllSessions ()
+  {
+    _endAllSessionScopes (true);
+  }
+
   /**
    * Remove all existing session scopes, and invoke the destruction methods on
    * the contained objects.
    */
   private void endAllSessionScopes ()
   {
-    // end all session scopes without destroying the underlying sessions (make a
-    // copy, because we're invalidating the sessions!)
-    final Collection <? extends ISessionScope> aAllScopes = getAllSessionScopes ();
-    for (final ISessionScope aSessionScope : aAllScopes)
-    {
-      // Remove from map
-      onScopeEnd (aSessionScope);
-    }
-    // Sanity check in case something went wrong
-    checkIfAnySessionsExist (aAllScopes);
+    // end all session scopes without destroying the underlying sessions
+    _endAllSessionScopes (false);
   }
 
   public boolean isDestroyAllSessionsOnScopeEnd ()
@@ -404,10 +637,230 @@ public class ScopeSessionManager extends GlobalSingleton
     }
   }
 
+  /**
+   * @return The number of threads used to end all sessions upon destruction.
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public int getSessionDestructionThreads ()
+  {
+    this.m_aRWLock.readLock ().lock ();
+    try
+    {
+      return this.m_nSessionDestructionThreads;
+    }
+    finally
+    {
+      this.m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Set the number of threads used to end all sessions upon destruction. If
+   * the value is &gt; 1 the sessions are ended in parallel.
+   * 
+   * @param nSessionDestructionThreads
+   *        The number of threads to use. Must be &gt; 0.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange setSessionDestructionThreads (@Nonnegative final int nSessionDestructionThreads)
+  {
+    ValueEnforcer.isGT0 (nSessionDestructionThreads, "SessionDestructionThreads"); //$NON-NLS-1$
+
+    this.m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (this.m_nSessionDestructionThreads == nSessionDestructionThreads)
+        return EChange.UNCHANGED;
+      this.m_nSessionDestructionThreads = nSessionDestructionThreads;
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      this.m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The overall timeout in milliseconds for ending all sessions in
+   *         parallel. Values &le; 0 mean no timeout.
+   */
+  public long getSessionDestructionTimeoutMillis ()
+  {
+    this.m_aRWLock.readLock ().lock ();
+    try
+    {
+      return this.m_nSessionDestructionTimeoutMillis;
+    }
+    finally
+    {
+      this.m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Set the overall timeout for ending all sessions in parallel. Sessions that
+   * were not picked up when the timeout elapsed are destroyed without invoking
+   * the SPIs. Sessions being ended at that time get an additional
+   * {@link #SESSION_DESTRUCTION_GRACE_MILLIS} milliseconds to finish.
+   * 
+   * @param nSessionDestructionTimeoutMillis
+   *        The timeout in milliseconds. Values &le; 0 mean no timeout.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange setSessionDestructionTimeoutMillis (final long nSessionDestructionTimeoutMillis)
+  {
+    this.m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (this.m_nSessionDestructionTimeoutMillis == nSessionDestructionTimeoutMillis)
+        return EChange.UNCHANGED;
+      this.m_nSessionDestructionTimeoutMillis = nSessionDestructionTimeoutMillis;
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      this.m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * @return The idle timeout in milliseconds after which unused sessions are
+   *         ended. Values &le; 0 mean that idle sessions are not expired.
+   */
+  public long getSessionIdleTimeoutMillis ()
+  {
+    this.m_aRWLock.readLock ().lock ();
+    try
+    {
+      return this.m_nSessionIdleTimeoutMillis;
+    }
+    finally
+    {
+      this.m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Set the idle timeout after which sessions that were not accessed are ended
+   * via {@link #onScopeEnd(ISessionScope)}. The last access of a session is
+   * determined by {@link IAccessTrackingSessionScope#getLastAccessTimeMillis()}
+   * and sessions not implementing this interface never expire. Idle
+   * sessions are ended in batches by a background thread, so a session may
+   * live up to 1/{@value SessionExpiryWheel#TICKS_PER_TIMEOUT} of the timeout
+   * (at least {@value SessionExpiryWheel#MIN_TICK_MILLIS} milliseconds) longer.
+   * 
+   * @param nSessionIdleTimeoutMillis
+   *        The idle timeout in milliseconds. Values &le; 0 disable the expiry.
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange setSessionIdleTimeoutMillis (final long nSessionIdleTimeoutMillis)
+  {
+    final long nTimeout = Math.max (0, nSessionIdleTimeoutMillis);
+    this.m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (this.m_nSessionIdleTimeoutMillis == nTimeout)
+        return EChange.UNCHANGED;
+      this.m_nSessionIdleTimeoutMillis = nTimeout;
+
+      _stopIdleSessionExpiry ();
+      if (nTimeout > 0)
+      {
+        final SessionExpiryWheel aExpiryWheel = new SessionExpiryWheel (nTimeout, System.currentTimeMillis ());
+        this.m_aExpiryWheel = aExpiryWheel;
+        for (final ISessionScope aSessionScope : this.m_aSessionScopes.values ())
+          if (aSessionScope instanceof IAccessTrackingSessionScope)
+            aExpiryWheel.schedule ((IAccessTrackingSessionScope) aSessionScope);
+
+        this.m_aExpiryExecutor = Executors.newSingleThreadScheduledExecutor (new ThreadFactory ()
+        {
+          public Thread newThread (@Nonnull final Runnable aRunnable)
+          {
+            final Thread aThread = new Thread (aRunnable, "phloc-session-expiry"); //$NON-NLS-1$
+            aThread.setDaemon (true);
+            return aThread;
+          }
+        });
+        this.m_aExpiryExecutor.scheduleWithFixedDelay (new Runnable ()
+        {
+          public void run ()
+          {
+            _expireIdleSessions (aExpiryWheel);
+          }
+        }, aExpiryWheel.getTickMillis (), aExpiryWheel.getTickMillis (), TimeUnit.MILLISECONDS);
+      }
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      this.m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _stopIdleSessionExpiry ()
+  {
+    this.m_aExpiryWheel = null;
+    if (this.m_aExpiryExecutor != null)
+    {
+      this.m_aExpiryExecutor.shutdownNow ();
+      this.m_aExpiryExecutor = null;
+    }
+  }
+
+  /**
+   * End all sessions of the passed expiry wheel that are idle.
+   * 
+   * @param aExpiryWheel
+   *        The expiry wheel to use. May not be <code>null</code>.
+   */
+  private void _expireIdleSessions (@Nonnull final SessionExpiryWheel aExpiryWheel)
+  {
+    try
+    {
+      final List <IAccessTrackingSessionScope> aIdleScopes = aExpiryWheel.advance (System.currentTimeMillis ());
+      int nEnded = 0;
+      for (final IAccessTrackingSessionScope aSessionScope : aIdleScopes)
+      {
+        // Stop if the expiry was disabled in the meantime
+        if (this.m_aExpiryWheel != aExpiryWheel)
+          break;
+
+        // Only end sessions that are still managed
+        if (this.m_aSessionScopes.get (aSessionScope.getID ()) == aSessionScope)
+        {
+          _endSessionScope (aSessionScope, true);
+          nEnded++;
+        }
+      }
+      if (nEnded > 0 && LOG.isDebugEnabled ())
+        LOG.debug ("Ended " + nEnded + " idle session scopes"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    catch (final RuntimeException ex)
+    {
+      // Don't stop the scheduled execution
+      LOG.error ("Failed to expire idle session scopes", ex); //$NON-NLS-1$
+    }
+  }
+
   @SuppressFBWarnings ("ST_WRITE_TO_STATIC_FROM_INSTANCE_METHOD")
   @Override
   protected void onDestroy ()
   {
+    this.m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _stopIdleSessionExpiry ();
+    }
+    finally
+    {
+      this.m_aRWLock.writeLock ().unlock ();
+    }
+
     if (isDestroyAllSessionsOnScopeEnd ())
       destroyAllSessions ();
     else
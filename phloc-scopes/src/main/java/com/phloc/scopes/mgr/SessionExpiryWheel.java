@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.mgr;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.domain.IAccessTrackingSessionScope;
+
+/**
+ * A hashed timer wheel for the expiry of idle session scopes. Scheduling a
+ * session is O(1) and touching a session does not change the wheel at all:
+ * when the bucket of a session is due, the last access time of the session is
+ * checked and the session is either returned as idle or scheduled again.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+final class SessionExpiryWheel
+{
+  /** The number of ticks per idle timeout */
+  static final int TICKS_PER_TIMEOUT = 16;
+  /** The minimum duration of a single tick */
+  static final long MIN_TICK_MILLIS = 100;
+  private static final int BUCKET_COUNT = 2 * TICKS_PER_TIMEOUT;
+
+  private final long m_nIdleTimeoutMillis;
+  private final long m_nTickMillis;
+  private final Queue <IAccessTrackingSessionScope> [] m_aBuckets;
+  // Only written by the thread calling advance
+  private volatile long m_nLastProcessedTick;
+
+  @SuppressWarnings ("unchecked")
+  SessionExpiryWheel (@Nonnegative final long nIdleTimeoutMillis, final long nNowMillis)
+  {
+    ValueEnforcer.isGT0 (nIdleTimeoutMillis, "IdleTimeoutMillis"); //$NON-NLS-1$
+    m_nIdleTimeoutMillis = nIdleTimeoutMillis;
+    m_nTickMillis = Math.max (MIN_TICK_MILLIS, nIdleTimeoutMillis / TICKS_PER_TIMEOUT);
+    m_aBuckets = new Queue [BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; ++i)
+      m_aBuckets[i] = new ConcurrentLinkedQueue <IAccessTrackingSessionScope> ();
+    m_nLastProcessedTick = nNowMillis / m_nTickMillis;
+  }
+
+  /**
+   * @return The duration of a single tick in milliseconds. Always &gt; 0.
+   */
+  @Nonnegative
+  long getTickMillis ()
+  {
+    return m_nTickMillis;
+  }
+
+  /**
+   * Schedule the passed session scope for the expiry check, based on its last
+   * access time.
+   * 
+   * @param aSessionScope
+   *        The session scope to schedule. May not be <code>null</code>.
+   */
+  void schedule (@Nonnull final IAccessTrackingSessionScope aSessionScope)
+  {
+    // Round up to the next tick and never schedule into the past
+    final long nExpiryTick = (aSessionScope.getLastAccessTimeMillis () + m_nIdleTimeoutMillis) / m_nTickMillis + 1;
+    final long nTick = Math.max (nExpiryTick, m_nLastProcessedTick + 1);
+    m_aBuckets[(int) (nTick % BUCKET_COUNT)].add (aSessionScope);
+  }
+
+  /**
+   * Process all buckets that are due. Sessions that are still valid but were
+   * accessed in the meantime are scheduled again. Must only be called by a
+   * single thread at a time.
+   * 
+   * @param nNowMillis
+   *        The current time in milliseconds.
+   * @return All valid session scopes that are idle for at least the idle
+   *         timeout. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  List <IAccessTrackingSessionScope> advance (final long nNowMillis)
+  {
+    final List <IAccessTrackingSessionScope> ret = ContainerHelper.newList ();
+    final List <IAccessTrackingSessionScope> aReschedule = ContainerHelper.newList ();
+    final long nNowTick = nNowMillis / m_nTickMillis;
+
+    // Each bucket needs to be processed at most once
+    final long nFirstTick = Math.max (m_nLastProcessedTick + 1, nNowTick - BUCKET_COUNT + 1);
+    for (long nTick = nFirstTick; nTick <= nNowTick; ++nTick)
+    {
+      final Queue <IAccessTrackingSessionScope> aBucket = m_aBuckets[(int) (nTick % BUCKET_COUNT)];
+      IAccessTrackingSessionScope aSessionScope;
+      while ((aSessionScope = aBucket.poll ()) != null)
+      {
+        // Ended in the meantime?
+        if (!aSessionScope.isValid ())
+          continue;
+
+        if (nNowMillis - aSessionScope.getLastAccessTimeMillis () >= m_nIdleTimeoutMillis)
+          ret.add (aSessionScope);
+        else
+          aReschedule.add (aSessionScope);
+      }
+    }
+    if (nNowTick > m_nLastProcessedTick)
+      m_nLastProcessedTick = nNowTick;
+
+    // Schedule again after the processed ticks were updated
+    for (final IAccessTrackingSessionScope aSessionScope : aReschedule)
+      schedule (aSessionScope);
+    return ret;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("idleTimeoutMillis", m_nIdleTimeoutMillis)
+                                       .append ("tickMillis", m_nTickMillis)
+                                       .append ("lastProcessedTick", m_nLastProcessedTick)
+                                       .toString ();
+  }
+}
@@ -40,7 +40,11 @@ public interface IApplicationScopeSPI
   void onApplicationScopeBegin (@Nonnull IApplicationScope aApplicationScope);
 
   /**
-   * Called before the application scope is shut down
+   * Called before the application scope is shut down.<br>
+   * <b>Not invoked</b> if the implementation also implements
+   * {@link IAsyncScopeSPI} - {@link IAsyncScopeSPI#onScopeEndAsync(ScopeEndInfo)}
+   * is invoked instead, so such implementations should leave this method
+   * empty.
    * 
    * @param aApplicationScope
    *        The application scope object to be used. Never <code>null</code>.
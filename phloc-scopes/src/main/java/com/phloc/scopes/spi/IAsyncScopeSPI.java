@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Interface for scope SPI implementations that want to be notified about the
+ * end of application, session, session application and request scopes
+ * asynchronously. The notifications are delivered in order by a background
+ * thread, so that e.g. audit SPIs writing to disk don't add to the latency of
+ * the thread ending the scope. All other notifications, including the end of
+ * the global scope, are still delivered synchronously.<br>
+ * This interface is implemented in addition to the scope SPI interface the
+ * implementation is registered for (e.g. {@link IRequestScopeSPI}).
+ * <b>Important:</b> for these scope levels the synchronous end method of the
+ * scope SPI interface (e.g. {@link IRequestScopeSPI#onRequestScopeEnd}) must
+ * still be implemented to satisfy the interface, but it is never invoked and
+ * should therefore be left empty. Instead
+ * {@link #onScopeEndAsync(ScopeEndInfo)} is invoked with the information
+ * captured when the scope ended, as the scope object itself may already be
+ * destroyed or even recycled for another scope when the notification is
+ * delivered.<br>
+ * If the background thread can't keep up, the thread ending the scope waits a
+ * limited time until there is room in the queue and delivers the notification
+ * itself afterwards. Pending notifications are delivered
+ * before the global scope end is completed, so the notifications of the
+ * application and session scopes ended together with the global scope are
+ * not lost. Scopes ending while no global scope is present are notified
+ * synchronously.
+ * 
+ * @author Boris Gregorcic
+ */
+public interface IAsyncScopeSPI
+{
+  /**
+   * Called asynchronously after a non-global scope ended.
+   * 
+   * @param aInfo
+   *        The information about the ended scope. Never <code>null</code>.
+   */
+  void onScopeEndAsync (@Nonnull ScopeEndInfo aInfo);
+}
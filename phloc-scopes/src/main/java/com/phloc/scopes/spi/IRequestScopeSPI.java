@@ -40,7 +40,11 @@ public interface IRequestScopeSPI
   void onRequestScopeBegin (@Nonnull IRequestScope aRequestScope);
 
   /**
-   * Called before the request scope is shut down
+   * Called before the request scope is shut down.<br>
+   * <b>Not invoked</b> if the implementation also implements
+   * {@link IAsyncScopeSPI} - {@link IAsyncScopeSPI#onScopeEndAsync(ScopeEndInfo)}
+   * is invoked instead, so such implementations should leave this method
+   * empty.
    * 
    * @param aRequestScope
    *        The request scope object to be used. Never <code>null</code>.
@@ -41,7 +41,11 @@ public interface ISessionApplicationScopeSPI
   void onSessionApplicationScopeBegin (@Nonnull ISessionApplicationScope aSessionApplicationScope);
 
   /**
-   * Called before the session application scope is shut down
+   * Called before the session application scope is shut down.<br>
+   * <b>Not invoked</b> if the implementation also implements
+   * {@link IAsyncScopeSPI} - {@link IAsyncScopeSPI#onScopeEndAsync(ScopeEndInfo)}
+   * is invoked instead, so such implementations should leave this method
+   * empty.
    * 
    * @param aSessionApplicationScope
    *        The session application scope object to be used. Never
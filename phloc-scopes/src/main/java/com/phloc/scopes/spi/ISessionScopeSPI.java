@@ -40,7 +40,11 @@ public interface ISessionScopeSPI
   void onSessionScopeBegin (@Nonnull ISessionScope aSessionScope);
 
   /**
-   * Called before the session scope is shut down
+   * Called before the session scope is shut down.<br>
+   * <b>Not invoked</b> if the implementation also implements
+   * {@link IAsyncScopeSPI} - {@link IAsyncScopeSPI#onScopeEndAsync(ScopeEndInfo)}
+   * is invoked instead, so such implementations should leave this method
+   * empty.
    * 
    * @param aSessionScope
    *        The session scope object to be used. Never <code>null</code>.
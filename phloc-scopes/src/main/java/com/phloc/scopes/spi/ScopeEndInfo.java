@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.mgr.EScope;
+
+/**
+ * Contains the information about an ended scope that is passed to
+ * {@link IAsyncScopeSPI} implementations. All values are captured when the
+ * scope ends, so they stay valid even if the scope object itself is destroyed
+ * or recycled (e.g. pooled request scopes) before the notification is
+ * delivered.
+ * 
+ * @author Boris Gregorcic
+ */
+@Immutable
+public final class ScopeEndInfo
+{
+  private final EScope m_eScope;
+  private final String m_sScopeID;
+  private final String m_sSessionID;
+  private final String m_sApplicationID;
+
+  /**
+   * @param eScope
+   *        The level of the ended scope. May not be <code>null</code>.
+   * @param sScopeID
+   *        The ID of the ended scope. May neither be <code>null</code> nor
+   *        empty.
+   * @param sSessionID
+   *        The ID of the session the ended scope belonged to. May be
+   *        <code>null</code>.
+   * @param sApplicationID
+   *        The ID of the application the ended scope belonged to. May be
+   *        <code>null</code>.
+   */
+  public ScopeEndInfo (@Nonnull final EScope eScope,
+                       @Nonnull @Nonempty final String sScopeID,
+                       @Nullable final String sSessionID,
+                       @Nullable final String sApplicationID)
+  {
+    m_eScope = ValueEnforcer.notNull (eScope, "Scope"); //$NON-NLS-1$
+    m_sScopeID = ValueEnforcer.notEmpty (sScopeID, "ScopeID"); //$NON-NLS-1$
+    m_sSessionID = sSessionID;
+    m_sApplicationID = sApplicationID;
+  }
+
+  /**
+   * @return The level of the ended scope. Never <code>null</code>.
+   */
+  @Nonnull
+  public EScope getScope ()
+  {
+    return m_eScope;
+  }
+
+  /**
+   * @return The ID of the ended scope. Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getScopeID ()
+  {
+    return m_sScopeID;
+  }
+
+  /**
+   * @return The ID of the ended session scope or of the session the ended
+   *         request scope belonged to. <code>null</code> for other scopes and
+   *         for request scopes without a session.
+   */
+  @Nullable
+  public String getSessionID ()
+  {
+    return m_sSessionID;
+  }
+
+  /**
+   * @return The ID of the application the ended request scope belonged to.
+   *         Only present for request scopes created with an application ID.
+   */
+  @Nullable
+  public String getApplicationID ()
+  {
+    return m_sApplicationID;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("scope", m_eScope) //$NON-NLS-1$
+                                       .append ("scopeID", m_sScopeID) //$NON-NLS-1$
+                                       .append ("sessionID", m_sSessionID) //$NON-NLS-1$
+                                       .append ("applicationID", m_sApplicationID) //$NON-NLS-1$
+                                       .toString ();
+  }
+}
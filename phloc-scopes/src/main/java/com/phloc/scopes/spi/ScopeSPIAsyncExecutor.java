@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.annotations.PresentForCodeCoverage;
+
+/**
+ * Delivers the notifications for {@link IAsyncScopeSPI} implementations. A
+ * single daemon thread delivers the notifications in the order they were
+ * submitted. The queue is bounded: if it is full, the submitting thread waits
+ * up to {@link #MAX_QUEUE_FULL_WAIT_MILLIS} milliseconds until there is room,
+ * which slows down the producers until the background thread caught up but
+ * retains the order. If there is still no room afterwards or if the submitting
+ * thread is interrupted while waiting, it delivers the notification itself, so
+ * the order is lost for this notification but nothing is lost.<br>
+ * After {@link #close()} all notifications are delivered in the submitting
+ * thread until the executor is opened again via {@link #open()}. The
+ * notifications queued before are still delivered by the background thread -
+ * {@link #awaitClosed()} waits for them.
+ * 
+ * @author Boris Gregorcic
+ */
+@ThreadSafe
+final class ScopeSPIAsyncExecutor
+{
+  /** The maximum number of pending notifications */
+  public static final int QUEUE_CAPACITY = 1024;
+
+  /** The maximum time to wait for pending notifications upon drain */
+  public static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+  /**
+   * The interval in which a submitting thread waiting for room in the queue
+   * checks whether the executor was closed in the meantime
+   */
+  public static final long QUEUE_FULL_RETRY_MILLIS = 100;
+
+  /**
+   * The maximum time a submitting thread waits for room in the queue before it
+   * delivers the notification itself
+   */
+  public static final long MAX_QUEUE_FULL_WAIT_MILLIS = 1000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopeSPIAsyncExecutor.class);
+
+  private static final Lock s_aLock = new ReentrantLock ();
+  @GuardedBy ("s_aLock")
+  private static volatile ThreadPoolExecutor s_aExecutor;
+  @GuardedBy ("s_aLock")
+  private static boolean s_bClosed = false;
+  /** The closed executors that may still deliver queued notifications */
+  @GuardedBy ("s_aLock")
+  private static final List <ThreadPoolExecutor> s_aClosedExecutors = new ArrayList <ThreadPoolExecutor> ();
+
+  @SuppressWarnings ("unused")
+  @PresentForCodeCoverage
+  private static final ScopeSPIAsyncExecutor s_aInstance = new ScopeSPIAsyncExecutor ();
+
+  private ScopeSPIAsyncExecutor ()
+  {}
+
+  /**
+   * Makes the submitting thread wait for room in the queue for a limited time,
+   * so that the delivery order is retained.
+   */
+  private static final class WaitForRoomPolicy implements RejectedExecutionHandler
+  {
+    public void rejectedExecution (@Nonnull final Runnable aRunnable, @Nonnull final ThreadPoolExecutor aExecutor)
+    {
+      final long nDeadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (MAX_QUEUE_FULL_WAIT_MILLIS);
+      try
+      {
+        long nRemainingMillis;
+        while (!aExecutor.isShutdown () &&
+               (nRemainingMillis = TimeUnit.NANOSECONDS.toMillis (nDeadline - System.nanoTime ())) > 0)
+          if (aExecutor.getQueue ().offer (aRunnable,
+                                           Math.min (nRemainingMillis, QUEUE_FULL_RETRY_MILLIS),
+                                           TimeUnit.MILLISECONDS))
+          {
+            // If the executor was closed in the meantime, the notification
+            // may not be picked up anymore
+            if (!aExecutor.isShutdown () || !aExecutor.getQueue ().remove (aRunnable))
+              return;
+            break;
+          }
+        if (!aExecutor.isShutdown ())
+          s_aLogger.warn ("No room in the asynchronous SPI notification queue within " + //$NON-NLS-1$
+                          MAX_QUEUE_FULL_WAIT_MILLIS +
+                          " milliseconds - delivering out of order"); //$NON-NLS-1$
+      }
+      catch (final InterruptedException ex)
+      {
+        s_aLogger.warn ("Interrupted while waiting for room in the asynchronous SPI notification queue - delivering out of order"); //$NON-NLS-1$
+        Thread.currentThread ().interrupt ();
+      }
+
+      // The executor was closed, the queue stayed full or we were interrupted
+      // - deliver in the calling thread so that nothing is lost
+      aRunnable.run ();
+    }
+  }
+
+  @Nullable
+  private static ThreadPoolExecutor _getOrCreateExecutor ()
+  {
+    ThreadPoolExecutor aExecutor = s_aExecutor;
+    if (aExecutor == null)
+    {
+      s_aLock.lock ();
+      try
+      {
+        aExecutor = s_aExecutor;
+        if (aExecutor == null && !s_bClosed)
+        {
+          aExecutor = new ThreadPoolExecutor (1,
+                                              1,
+                                              0,
+                                              TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue <Runnable> (QUEUE_CAPACITY),
+                                              new ThreadFactory ()
+                                              {
+                                                public Thread newThread (@Nonnull final Runnable aRunnable)
+                                                {
+                                                  final Thread aThread = new Thread (aRunnable, "phloc-scope-spi-async"); //$NON-NLS-1$
+                                                  aThread.setDaemon (true);
+                                                  return aThread;
+                                                }
+                                              },
+                                              new WaitForRoomPolicy ());
+          s_aExecutor = aExecutor;
+        }
+      }
+      finally
+      {
+        s_aLock.unlock ();
+      }
+    }
+    return aExecutor;
+  }
+
+  /**
+   * Deliver the passed information to all SPIs of the passed dispatcher
+   * asynchronously. If the executor is closed, the SPIs are notified in the
+   * calling thread.
+   * 
+   * @param aDispatcher
+   *        The dispatcher containing the asynchronous SPIs. May not be
+   *        <code>null</code>.
+   * @param aMethod
+   *        The method to invoke. May not be <code>null</code>.
+   * @param aInfo
+   *        The information captured when the scope ended. May not be
+   *        <code>null</code>.
+   */
+  static void submit (@Nonnull final ScopeSPIDispatcher <IAsyncScopeSPI, ScopeEndInfo> aDispatcher,
+                      @Nonnull final ScopeSPIMethod <IAsyncScopeSPI, ScopeEndInfo> aMethod,
+                      @Nonnull final ScopeEndInfo aInfo)
+  {
+    final Runnable aTask = new Runnable ()
+    {
+      public void run ()
+      {
+        aDispatcher.dispatch (aMethod, aInfo);
+      }
+    };
+    final ThreadPoolExecutor aExecutor = _getOrCreateExecutor ();
+    if (aExecutor == null)
+    {
+      // Closed - deliver synchronously
+      aTask.run ();
+    }
+    else
+    {
+      // If the executor is closed concurrently, the rejection policy delivers
+      // in the calling thread
+      aExecutor.execute (aTask);
+    }
+  }
+
+  /**
+   * Open the executor again after {@link #close()}, so that notifications are
+   * delivered asynchronously again. The background thread is started upon the
+   * next submission.
+   */
+  static void open ()
+  {
+    s_aLock.lock ();
+    try
+    {
+      s_bClosed = false;
+    }
+    finally
+    {
+      s_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Close the executor: the background thread is shut down after it delivered
+   * the already queued notifications, and all notifications submitted
+   * afterwards are delivered synchronously until {@link #open()} is called.
+   * This method does not wait - use {@link #awaitClosed()} for this.
+   */
+  static void close ()
+  {
+    s_aLock.lock ();
+    try
+    {
+      final ThreadPoolExecutor aExecutor = s_aExecutor;
+      s_aExecutor = null;
+      s_bClosed = true;
+      if (aExecutor != null)
+      {
+        // Already queued notifications are still delivered
+        aExecutor.shutdown ();
+        s_aClosedExecutors.add (aExecutor);
+      }
+    }
+    finally
+    {
+      s_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Wait at most {@link #DRAIN_TIMEOUT_MILLIS} milliseconds until all
+   * notifications queued before the last {@link #close()} are delivered. Must
+   * not be called while holding locks that the SPIs may need.
+   */
+  static void awaitClosed ()
+  {
+    List <ThreadPoolExecutor> aClosedExecutors;
+    s_aLock.lock ();
+    try
+    {
+      aClosedExecutors = new ArrayList <ThreadPoolExecutor> (s_aClosedExecutors);
+    }
+    finally
+    {
+      s_aLock.unlock ();
+    }
+
+    final long nDeadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (DRAIN_TIMEOUT_MILLIS);
+    try
+    {
+      for (final ThreadPoolExecutor aExecutor : aClosedExecutors)
+        if (!aExecutor.awaitTermination (nDeadline - System.nanoTime (), TimeUnit.NANOSECONDS))
+          s_aLogger.warn ("Not all asynchronous SPI notifications were delivered within " + //$NON-NLS-1$
+                          DRAIN_TIMEOUT_MILLIS +
+                          " milliseconds - " + //$NON-NLS-1$
+                          aExecutor.getQueue ().size () +
+                          " notifications are still pending"); //$NON-NLS-1$
+    }
+    catch (final InterruptedException ex)
+    {
+      s_aLogger.warn ("Interrupted while waiting for asynchronous SPI notifications"); //$NON-NLS-1$
+      Thread.currentThread ().interrupt ();
+    }
+
+    // Forget about the terminated executors
+    s_aLock.lock ();
+    try
+    {
+      for (final ThreadPoolExecutor aExecutor : aClosedExecutors)
+        if (aExecutor.isTerminated ())
+          s_aClosedExecutors.remove (aExecutor);
+    }
+    finally
+    {
+      s_aLock.unlock ();
+    }
+  }
+}
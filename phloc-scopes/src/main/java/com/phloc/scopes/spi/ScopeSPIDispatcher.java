@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.mock.IMockException;
+
+/**
+ * Invokes a {@link ScopeSPIMethod} on a fixed set of SPI implementations. The
+ * set of SPIs is analyzed once upon creation, so that the common cases of no,
+ * one or two registered SPIs don't need to iterate a list on each scope
+ * lifecycle event.<br>
+ * Exceptions thrown by SPI implementations are caught and logged. To avoid
+ * that a permanently failing SPI floods the log (and dominates the latency of
+ * each request), at most {@link #MAX_LOGGED_FAILURES_PER_INTERVAL} failures
+ * are logged per {@link #FAILURE_LOG_INTERVAL_MILLIS} milliseconds. The number
+ * of suppressed messages is logged at the beginning of the next interval.
+ * 
+ * @author Boris Gregorcic
+ * @param <SPITYPE>
+ *        The SPI interface type
+ * @param <SCOPETYPE>
+ *        The scope type passed to the SPIs
+ */
+@Immutable
+abstract class ScopeSPIDispatcher <SPITYPE, SCOPETYPE>
+{
+  /** The maximum number of SPI failures logged per interval */
+  public static final int MAX_LOGGED_FAILURES_PER_INTERVAL = 10;
+
+  /** The length of a failure logging interval in milliseconds */
+  public static final long FAILURE_LOG_INTERVAL_MILLIS = 10000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopeSPIManager.class);
+
+  private static final AtomicLong s_aFailureIntervalStart = new AtomicLong (0);
+  private static final AtomicInteger s_aFailuresInInterval = new AtomicInteger (0);
+  private static final AtomicInteger s_aSuppressedFailures = new AtomicInteger (0);
+
+  private static final ScopeSPIDispatcher <Object, Object> EMPTY = new EmptyDispatcher <Object, Object> ();
+
+  ScopeSPIDispatcher ()
+  {}
+
+  /**
+   * Invoke the passed method on all contained SPI implementations.
+   * 
+   * @param aMethod
+   *        The method to invoke. Never <code>null</code>.
+   * @param aScope
+   *        The scope to pass to the method. Never <code>null</code>.
+   */
+  abstract void dispatch (@Nonnull ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull SCOPETYPE aScope);
+
+  /**
+   * @return A list with all contained SPI implementations in invocation order.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  abstract List <SPITYPE> getAllSPIs ();
+
+  /**
+   * @return The number of contained SPI implementations.
+   */
+  abstract int getSPICount ();
+
+  private static boolean _isFailureLoggingAllowed ()
+  {
+    final long nNow = System.currentTimeMillis ();
+    final long nIntervalStart = s_aFailureIntervalStart.get ();
+    if (nNow - nIntervalStart >= FAILURE_LOG_INTERVAL_MILLIS &&
+        s_aFailureIntervalStart.compareAndSet (nIntervalStart, nNow))
+    {
+      // A new interval starts
+      s_aFailuresInInterval.set (0);
+      final int nSuppressed = s_aSuppressedFailures.getAndSet (0);
+      if (nSuppressed > 0)
+        s_aLogger.error ("Suppressed the logging of {} SPI invocation failures", Integer.valueOf (nSuppressed)); //$NON-NLS-1$
+    }
+    if (s_aFailuresInInterval.incrementAndGet () <= MAX_LOGGED_FAILURES_PER_INTERVAL)
+      return true;
+    s_aSuppressedFailures.incrementAndGet ();
+    return false;
+  }
+
+  static <SPITYPE, SCOPETYPE> void invoke (@Nonnull final SPITYPE aSPI,
+                                           @Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod,
+                                           @Nonnull final SCOPETYPE aScope)
+  {
+    try
+    {
+      aMethod.invoke (aSPI, aScope);
+    }
+    catch (final Throwable t)
+    {
+      if (_isFailureLoggingAllowed () && s_aLogger.isErrorEnabled ())
+      {
+        // The message is only assembled if it is really logged
+        if (t instanceof IMockException)
+          s_aLogger.error ("Failed to invoke SPI method {} on {} with scope {}", new Object [] { aMethod, aSPI, aScope }); //$NON-NLS-1$
+        else
+          s_aLogger.error ("Failed to invoke SPI method {} on {} with scope {}", new Object [] { aMethod, //$NON-NLS-1$
+                                                                                                 aSPI,
+                                                                                                 aScope,
+                                                                                                 t });
+      }
+    }
+  }
+
+  /**
+   * Create a dispatcher for the passed SPI implementations.
+   * 
+   * @param aSPIs
+   *        The SPI implementations in invocation order. May not be
+   *        <code>null</code>. The list is copied.
+   * @return A dispatcher specialized for the number of passed SPIs. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @SuppressWarnings ("unchecked")
+  static <SPITYPE, SCOPETYPE> ScopeSPIDispatcher <SPITYPE, SCOPETYPE> create (@Nonnull final List <? extends SPITYPE> aSPIs)
+  {
+    ValueEnforcer.notNull (aSPIs, "SPIs"); //$NON-NLS-1$
+    switch (aSPIs.size ())
+    {
+      case 0:
+        return (ScopeSPIDispatcher <SPITYPE, SCOPETYPE>) EMPTY;
+      case 1:
+        return new SingleDispatcher <SPITYPE, SCOPETYPE> (aSPIs.get (0));
+      case 2:
+        return new PairDispatcher <SPITYPE, SCOPETYPE> (aSPIs.get (0), aSPIs.get (1));
+      default:
+        return new ArrayDispatcher <SPITYPE, SCOPETYPE> (aSPIs.toArray ());
+    }
+  }
+
+  private static final class EmptyDispatcher <SPITYPE, SCOPETYPE> extends ScopeSPIDispatcher <SPITYPE, SCOPETYPE>
+  {
+    @Override
+    void dispatch (@Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+    {}
+
+    @Override
+    @Nonnull
+    @ReturnsMutableCopy
+    List <SPITYPE> getAllSPIs ()
+    {
+      return ContainerHelper.newList ();
+    }
+
+    @Override
+    int getSPICount ()
+    {
+      return 0;
+    }
+  }
+
+  private static final class SingleDispatcher <SPITYPE, SCOPETYPE> extends ScopeSPIDispatcher <SPITYPE, SCOPETYPE>
+  {
+    private final SPITYPE m_aSPI;
+
+    SingleDispatcher (@Nonnull final SPITYPE aSPI)
+    {
+      m_aSPI = ValueEnforcer.notNull (aSPI, "SPI"); //$NON-NLS-1$
+    }
+
+    @Override
+    void dispatch (@Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+    {
+      invoke (m_aSPI, aMethod, aScope);
+    }
+
+    @Override
+    @Nonnull
+    @ReturnsMutableCopy
+    List <SPITYPE> getAllSPIs ()
+    {
+      return ContainerHelper.newList (m_aSPI);
+    }
+
+    @Override
+    int getSPICount ()
+    {
+      return 1;
+    }
+  }
+
+  private static final class PairDispatcher <SPITYPE, SCOPETYPE> extends ScopeSPIDispatcher <SPITYPE, SCOPETYPE>
+  {
+    private final SPITYPE m_aFirstSPI;
+    private final SPITYPE m_aSecondSPI;
+
+    PairDispatcher (@Nonnull final SPITYPE aFirstSPI, @Nonnull final SPITYPE aSecondSPI)
+    {
+      m_aFirstSPI = ValueEnforcer.notNull (aFirstSPI, "FirstSPI"); //$NON-NLS-1$
+      m_aSecondSPI = ValueEnforcer.notNull (aSecondSPI, "SecondSPI"); //$NON-NLS-1$
+    }
+
+    @Override
+    void dispatch (@Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+    {
+      invoke (m_aFirstSPI, aMethod, aScope);
+      invoke (m_aSecondSPI, aMethod, aScope);
+    }
+
+    @Override
+    @Nonnull
+    @ReturnsMutableCopy
+    List <SPITYPE> getAllSPIs ()
+    {
+      return ContainerHelper.newList (m_aFirstSPI, m_aSecondSPI);
+    }
+
+    @Override
+    int getSPICount ()
+    {
+      return 2;
+    }
+  }
+
+  private static final class ArrayDispatcher <SPITYPE, SCOPETYPE> extends ScopeSPIDispatcher <SPITYPE, SCOPETYPE>
+  {
+    // Object array, as generic arrays cannot be created
+    private final Object [] m_aSPIs;
+
+    ArrayDispatcher (@Nonnull final Object [] aSPIs)
+    {
+      m_aSPIs = aSPIs;
+    }
+
+    @Override
+    @SuppressWarnings ("unchecked")
+    void dispatch (@Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+    {
+      for (final Object aSPI : m_aSPIs)
+        invoke ((SPITYPE) aSPI, aMethod, aScope);
+    }
+
+    @Override
+    @Nonnull
+    @ReturnsMutableCopy
+    @SuppressWarnings ("unchecked")
+    List <SPITYPE> getAllSPIs ()
+    {
+      final List <SPITYPE> ret = new ArrayList <SPITYPE> (m_aSPIs.length);
+      for (final Object aSPI : m_aSPIs)
+        ret.add ((SPITYPE) aSPI);
+      return ret;
+    }
+
+    @Override
+    int getSPICount ()
+    {
+      return m_aSPIs.length;
+    }
+  }
+}
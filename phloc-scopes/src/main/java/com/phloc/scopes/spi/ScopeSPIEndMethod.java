@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.annotations.Nonempty;
+
+/**
+ * Represents the end method of a scope SPI interface. Additionally to the
+ * synchronous invocation it captures the {@link ScopeEndInfo} passed to
+ * {@link IAsyncScopeSPI} implementations.
+ * 
+ * @author Boris Gregorcic
+ * @param <SPITYPE>
+ *        The SPI interface type
+ * @param <SCOPETYPE>
+ *        The scope type passed to the SPI method
+ */
+@Immutable
+abstract class ScopeSPIEndMethod <SPITYPE, SCOPETYPE> extends ScopeSPIMethod <SPITYPE, SCOPETYPE>
+{
+  ScopeSPIEndMethod (@Nonnull @Nonempty final String sName)
+  {
+    super (sName);
+  }
+
+  /**
+   * Capture the information passed to asynchronous SPIs. Called in the thread
+   * ending the scope, before the scope is destroyed.
+   * 
+   * @param aScope
+   *        The ending scope. Never <code>null</code>.
+   * @return The captured information. Never <code>null</code>.
+   */
+  @Nonnull
+  abstract ScopeEndInfo createEndInfo (@Nonnull SCOPETYPE aScope);
+}
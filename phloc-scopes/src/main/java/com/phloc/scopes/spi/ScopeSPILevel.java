@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+
+/**
+ * Contains the dispatchers for all SPI implementations of a single scope
+ * level. Begin notifications are delivered synchronously to all SPIs. End
+ * notifications are delivered synchronously to all regular SPIs and
+ * asynchronously via {@link ScopeSPIAsyncExecutor} to all SPIs implementing
+ * {@link IAsyncScopeSPI}. The latter only receive the {@link ScopeEndInfo}
+ * captured upon submission and never the scope itself.
+ * 
+ * @author Boris Gregorcic
+ * @param <SPITYPE>
+ *        The SPI interface type
+ * @param <SCOPETYPE>
+ *        The scope type passed to the SPIs
+ */
+@Immutable
+final class ScopeSPILevel <SPITYPE, SCOPETYPE>
+{
+  private static final ScopeSPIMethod <IAsyncScopeSPI, ScopeEndInfo> ON_SCOPE_END_ASYNC =
+    new ScopeSPIMethod <IAsyncScopeSPI, ScopeEndInfo> ("onScopeEndAsync") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IAsyncScopeSPI aSPI, @Nonnull final ScopeEndInfo aInfo)
+      {
+        aSPI.onScopeEndAsync (aInfo);
+      }
+    };
+
+  private final ScopeSPIDispatcher <SPITYPE, SCOPETYPE> m_aAllSPIs;
+  private final ScopeSPIDispatcher <SPITYPE, SCOPETYPE> m_aSyncSPIs;
+  private final ScopeSPIDispatcher <IAsyncScopeSPI, ScopeEndInfo> m_aAsyncSPIs;
+
+  /**
+   * @param aSPIs
+   *        All SPI implementations of the scope level. May not be
+   *        <code>null</code>.
+   * @param bAsyncEndAllowed
+   *        <code>true</code> if end notifications may be delivered
+   *        asynchronously, <code>false</code> if all SPIs are always notified
+   *        synchronously.
+   */
+  ScopeSPILevel (@Nonnull final List <? extends SPITYPE> aSPIs, final boolean bAsyncEndAllowed)
+  {
+    ValueEnforcer.notNull (aSPIs, "SPIs"); //$NON-NLS-1$
+    final List <SPITYPE> aSyncSPIs = ContainerHelper.newList ();
+    final List <IAsyncScopeSPI> aAsyncSPIs = ContainerHelper.newList ();
+    for (final SPITYPE aSPI : aSPIs)
+      if (bAsyncEndAllowed && aSPI instanceof IAsyncScopeSPI)
+        aAsyncSPIs.add ((IAsyncScopeSPI) aSPI);
+      else
+        aSyncSPIs.add (aSPI);
+    m_aAllSPIs = ScopeSPIDispatcher.create (aSPIs);
+    m_aSyncSPIs = ScopeSPIDispatcher.create (aSyncSPIs);
+    m_aAsyncSPIs = ScopeSPIDispatcher.create (aAsyncSPIs);
+  }
+
+  /**
+   * @return All SPI implementations of this level in invocation order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  List <SPITYPE> getAllSPIs ()
+  {
+    return m_aAllSPIs.getAllSPIs ();
+  }
+
+  /**
+   * Deliver a begin notification synchronously to all SPIs.
+   * 
+   * @param aMethod
+   *        The method to invoke. May not be <code>null</code>.
+   * @param aScope
+   *        The scope to pass. May not be <code>null</code>.
+   */
+  void onBegin (@Nonnull final ScopeSPIMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+  {
+    m_aAllSPIs.dispatch (aMethod, aScope);
+  }
+
+  /**
+   * Deliver an end notification. Asynchronous SPIs are notified in the
+   * background with the information captured now, all others synchronously.
+   * 
+   * @param aMethod
+   *        The method to invoke. May not be <code>null</code>.
+   * @param aScope
+   *        The scope to pass. May not be <code>null</code>.
+   */
+  void onEnd (@Nonnull final ScopeSPIEndMethod <SPITYPE, SCOPETYPE> aMethod, @Nonnull final SCOPETYPE aScope)
+  {
+    if (m_aAsyncSPIs.getSPICount () > 0)
+      ScopeSPIAsyncExecutor.submit (m_aAsyncSPIs, ON_SCOPE_END_ASYNC, aMethod.createEndInfo (aScope));
+    m_aSyncSPIs.dispatch (aMethod, aScope);
+  }
+}
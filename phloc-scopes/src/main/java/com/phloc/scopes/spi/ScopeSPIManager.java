@@ -17,50 +17,197 @@
  */
 package com.phloc.scopes.spi;
 
-import java.util.List;
-
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.Immutable;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import javax.annotation.concurrent.ThreadSafe;
 
 import com.phloc.commons.annotations.PresentForCodeCoverage;
-import com.phloc.commons.lang.ServiceLoaderUtils;
-import com.phloc.commons.mock.IMockException;
 import com.phloc.scopes.domain.IApplicationScope;
 import com.phloc.scopes.domain.IGlobalScope;
 import com.phloc.scopes.domain.IRequestScope;
 import com.phloc.scopes.domain.ISessionApplicationScope;
 import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.mgr.EScope;
 
 /**
  * This is an internal class, that triggers the SPI implementations registered
- * for scope lifecycle SPI implementations. <b>Never</b> call this class from
- * outside of this project!
+ * for scope lifecycle SPI implementations. <b>Never</b> call the notification
+ * methods of this class from outside of this project!<br>
+ * The registered SPI implementations are loaded once and compiled into
+ * {@link ScopeSPIDispatcher} objects, so that no work is done for scope levels
+ * without SPI implementations. SPI implementations that also implement
+ * {@link IAsyncScopeSPI} are notified about the end of non-global scopes
+ * asynchronously, with a {@link ScopeEndInfo} captured when the scope
+ * ends.<br>
+ * Additional SPI implementations can be registered and unregistered at
+ * runtime. Modifications replace the dispatchers of the affected scope level
+ * (copy-on-write), so that the notification itself is lock-free.
  * 
  * @author Philip Helger
  */
-@Immutable
+@ThreadSafe
 public final class ScopeSPIManager
 {
-  private static final Logger s_aLogger = LoggerFactory.getLogger (ScopeSPIManager.class);
+  private static final ScopeSPIMethod <IGlobalScopeSPI, IGlobalScope> ON_GLOBAL_SCOPE_BEGIN =
+    new ScopeSPIMethod <IGlobalScopeSPI, IGlobalScope> ("onGlobalScopeBegin") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IGlobalScopeSPI aSPI, @Nonnull final IGlobalScope aScope)
+      {
+        aSPI.onGlobalScopeBegin (aScope);
+      }
+    };
+
+  private static final ScopeSPIEndMethod <IGlobalScopeSPI, IGlobalScope> ON_GLOBAL_SCOPE_END =
+    new ScopeSPIEndMethod <IGlobalScopeSPI, IGlobalScope> ("onGlobalScopeEnd") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IGlobalScopeSPI aSPI, @Nonnull final IGlobalScope aScope)
+      {
+        aSPI.onGlobalScopeEnd (aScope);
+      }
+
+      @Override
+      @Nonnull
+      ScopeEndInfo createEndInfo (@Nonnull final IGlobalScope aScope)
+      {
+        return new ScopeEndInfo (EScope.GLOBAL, aScope.getID (), null, null);
+      }
+    };
+
+  private static final ScopeSPIMethod <IApplicationScopeSPI, IApplicationScope> ON_APPLICATION_SCOPE_BEGIN =
+    new ScopeSPIMethod <IApplicationScopeSPI, IApplicationScope> ("onApplicationScopeBegin") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IApplicationScopeSPI aSPI, @Nonnull final IApplicationScope aScope)
+      {
+        aSPI.onApplicationScopeBegin (aScope);
+      }
+    };
+
+  private static final ScopeSPIEndMethod <IApplicationScopeSPI, IApplicationScope> ON_APPLICATION_SCOPE_END =
+    new ScopeSPIEndMethod <IApplicationScopeSPI, IApplicationScope> ("onApplicationScopeEnd") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IApplicationScopeSPI aSPI, @Nonnull final IApplicationScope aScope)
+      {
+        aSPI.onApplicationScopeEnd (aScope);
+      }
+
+      @Override
+      @Nonnull
+      ScopeEndInfo createEndInfo (@Nonnull final IApplicationScope aScope)
+      {
+        return new ScopeEndInfo (EScope.APPLICATION, aScope.getID (), null, null);
+      }
+    };
+
+  private static final ScopeSPIMethod <ISessionScopeSPI, ISessionScope> ON_SESSION_SCOPE_BEGIN =
+    new ScopeSPIMethod <ISessionScopeSPI, ISessionScope> ("onSessionScopeBegin") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final ISessionScopeSPI aSPI, @Nonnull final ISessionScope aScope)
+      {
+        aSPI.onSessionScopeBegin (aScope);
+      }
+    };
+
+  private static final ScopeSPIEndMethod <ISessionScopeSPI, ISessionScope> ON_SESSION_SCOPE_END =
+    new ScopeSPIEndMethod <ISessionScopeSPI, ISessionScope> ("onSessionScopeEnd") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final ISessionScopeSPI aSPI, @Nonnull final ISessionScope aScope)
+      {
+        aSPI.onSessionScopeEnd (aScope);
+      }
+
+      @Override
+      @Nonnull
+      ScopeEndInfo createEndInfo (@Nonnull final ISessionScope aScope)
+      {
+        return new ScopeEndInfo (EScope.SESSION, aScope.getID (), aScope.getID (), null);
+      }
+    };
+
+  private static final ScopeSPIMethod <ISessionApplicationScopeSPI,
+                                       ISessionApplicationScope> ON_SESSION_APPLICATION_SCOPE_BEGIN =
+    new ScopeSPIMethod <ISessionApplicationScopeSPI,
+                        ISessionApplicationScope> ("onSessionApplicationScopeBegin") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final ISessionApplicationScopeSPI aSPI, @Nonnull final ISessionApplicationScope aScope)
+      {
+        aSPI.onSessionApplicationScopeBegin (aScope);
+      }
+    };
+
+  private static final ScopeSPIEndMethod <ISessionApplicationScopeSPI,
+                                          ISessionApplicationScope> ON_SESSION_APPLICATION_SCOPE_END =
+    new ScopeSPIEndMethod <ISessionApplicationScopeSPI,
+                           ISessionApplicationScope> ("onSessionApplicationScopeEnd") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final ISessionApplicationScopeSPI aSPI, @Nonnull final ISessionApplicationScope aScope)
+      {
+        aSPI.onSessionApplicationScopeEnd (aScope);
+      }
+
+      @Override
+      @Nonnull
+      ScopeEndInfo createEndInfo (@Nonnull final ISessionApplicationScope aScope)
+      {
+        return new ScopeEndInfo (EScope.SESSION_APPLICATION, aScope.getID (), null, null);
+      }
+    };
+
+  private static final ScopeSPIMethod <IRequestScopeSPI, IRequestScope> ON_REQUEST_SCOPE_BEGIN =
+    new ScopeSPIMethod <IRequestScopeSPI, IRequestScope> ("onRequestScopeBegin") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IRequestScopeSPI aSPI, @Nonnull final IRequestScope aScope)
+      {
+        aSPI.onRequestScopeBegin (aScope);
+      }
+    };
+
+  private static final ScopeSPIEndMethod <IRequestScopeSPI, IRequestScope> ON_REQUEST_SCOPE_END =
+    new ScopeSPIEndMethod <IRequestScopeSPI, IRequestScope> ("onRequestScopeEnd") //$NON-NLS-1$
+    {
+      @Override
+      void invoke (@Nonnull final IRequestScopeSPI aSPI, @Nonnull final IRequestScope aScope)
+      {
+        aSPI.onRequestScopeEnd (aScope);
+      }
+
+      @Override
+      @Nonnull
+      ScopeEndInfo createEndInfo (@Nonnull final IRequestScope aScope)
+      {
+        return new ScopeEndInfo (EScope.REQUEST,
+                                 aScope.getID (),
+                                 aScope.getSessionID (false),
+                                 aScope.getApplicationID ());
+      }
+    };
 
   // non-web scopes
-  private static final List <IGlobalScopeSPI> s_aGlobalSPIs;
-  private static final List <IApplicationScopeSPI> s_aApplicationSPIs;
-  private static final List <ISessionScopeSPI> s_aSessionSPIs;
-  private static final List <ISessionApplicationScopeSPI> s_aSessionApplicationSPIs;
-  private static final List <IRequestScopeSPI> s_aRequestSPIs;
+  private static final ScopeSPIRegistry <IGlobalScopeSPI, IGlobalScope> s_aGlobalSPIs;
+  private static final ScopeSPIRegistry <IApplicationScopeSPI, IApplicationScope> s_aApplicationSPIs;
+  private static final ScopeSPIRegistry <ISessionScopeSPI, ISessionScope> s_aSessionSPIs;
+  private static final ScopeSPIRegistry <ISessionApplicationScopeSPI,
+                                         ISessionApplicationScope> s_aSessionApplicationSPIs;
+  private static final ScopeSPIRegistry <IRequestScopeSPI, IRequestScope> s_aRequestSPIs;
 
   static
   {
     // Register all listeners
-    s_aGlobalSPIs = ServiceLoaderUtils.getAllSPIImplementations (IGlobalScopeSPI.class);
-    s_aApplicationSPIs = ServiceLoaderUtils.getAllSPIImplementations (IApplicationScopeSPI.class);
-    s_aSessionSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISessionScopeSPI.class);
-    s_aSessionApplicationSPIs = ServiceLoaderUtils.getAllSPIImplementations (ISessionApplicationScopeSPI.class);
-    s_aRequestSPIs = ServiceLoaderUtils.getAllSPIImplementations (IRequestScopeSPI.class);
+    s_aGlobalSPIs = new ScopeSPIRegistry <IGlobalScopeSPI, IGlobalScope> (IGlobalScopeSPI.class, false);
+    s_aApplicationSPIs = new ScopeSPIRegistry <IApplicationScopeSPI, IApplicationScope> (IApplicationScopeSPI.class,
+                                                                                         true);
+    s_aSessionSPIs = new ScopeSPIRegistry <ISessionScopeSPI, ISessionScope> (ISessionScopeSPI.class, true);
+    s_aSessionApplicationSPIs = new ScopeSPIRegistry <ISessionApplicationScopeSPI,
+                                                      ISessionApplicationScope> (ISessionApplicationScopeSPI.class,
+                                                                                                              true);
+    s_aRequestSPIs = new ScopeSPIRegistry <IRequestScopeSPI, IRequestScope> (IRequestScopeSPI.class, true);
   }
 
   @SuppressWarnings ("unused")
@@ -70,151 +217,143 @@ public final class ScopeSPIManager
   private ScopeSPIManager ()
   {}
 
+  /**
+   * @return The registry of the global scope SPI implementations. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ScopeSPIRegistry <IGlobalScopeSPI, IGlobalScope> getGlobalScopeSPIRegistry ()
+  {
+    return s_aGlobalSPIs;
+  }
+
+  /**
+   * @return The registry of the application scope SPI implementations. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ScopeSPIRegistry <IApplicationScopeSPI, IApplicationScope> getApplicationScopeSPIRegistry ()
+  {
+    return s_aApplicationSPIs;
+  }
+
+  /**
+   * @return The registry of the session scope SPI implementations. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ScopeSPIRegistry <ISessionScopeSPI, ISessionScope> getSessionScopeSPIRegistry ()
+  {
+    return s_aSessionSPIs;
+  }
+
+  /**
+   * @return The registry of the session application scope SPI
+   *         implementations. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ScopeSPIRegistry <ISessionApplicationScopeSPI,
+                                 ISessionApplicationScope> getSessionApplicationScopeSPIRegistry ()
+  {
+    return s_aSessionApplicationSPIs;
+  }
+
+  /**
+   * @return The registry of the request scope SPI implementations. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ScopeSPIRegistry <IRequestScopeSPI, IRequestScope> getRequestScopeSPIRegistry ()
+  {
+    return s_aRequestSPIs;
+  }
+
+  /**
+   * Discard all SPI implementations registered at runtime and load the SPI
+   * implementations registered via the service loader again.
+   */
+  public static void reloadAllSPIs ()
+  {
+    s_aGlobalSPIs.reload ();
+    s_aApplicationSPIs.reload ();
+    s_aSessionSPIs.reload ();
+    s_aSessionApplicationSPIs.reload ();
+    s_aRequestSPIs.reload ();
+  }
+
   public static void onGlobalScopeBegin (@Nonnull final IGlobalScope aGlobalScope)
   {
-    for (final IGlobalScopeSPI aSPI : s_aGlobalSPIs)
-      try
-      {
-        aSPI.onGlobalScopeBegin (aGlobalScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onGlobalScopeBegin on " + aSPI + " with scope " + aGlobalScope,
-                         t instanceof IMockException ? null : t);
-      }
+    // Deliver asynchronous notifications in the background again
+    ScopeSPIAsyncExecutor.open ();
+    s_aGlobalSPIs.getLevel ().onBegin (ON_GLOBAL_SCOPE_BEGIN, aGlobalScope);
   }
 
   public static void onGlobalScopeEnd (@Nonnull final IGlobalScope aGlobalScope)
   {
-    for (final IGlobalScopeSPI aSPI : s_aGlobalSPIs)
-      try
-      {
-        aSPI.onGlobalScopeEnd (aGlobalScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onGlobalScopeEnd on " + aSPI + " with scope " + aGlobalScope,
-                         t instanceof IMockException ? null : t);
-      }
+    s_aGlobalSPIs.getLevel ().onEnd (ON_GLOBAL_SCOPE_END, aGlobalScope);
+  }
+
+  /**
+   * To be called after the global scope and therefore all application and
+   * session scopes were destroyed. Until the next global scope begins,
+   * asynchronous SPIs are notified synchronously. The pending asynchronous
+   * notifications, including those of the scopes ended together with the
+   * global scope, are still delivered in the background - use
+   * {@link #awaitAsyncNotifications()} to wait for them.
+   */
+  public static void onGlobalScopeDestroyed ()
+  {
+    ScopeSPIAsyncExecutor.close ();
+  }
+
+  /**
+   * Wait until the asynchronous notifications pending upon the last
+   * {@link #onGlobalScopeDestroyed()} call are delivered. The waiting is
+   * limited, so that a hanging SPI cannot block the shutdown forever. Must not
+   * be called while holding a lock that may be required by the SPIs.
+   */
+  public static void awaitAsyncNotifications ()
+  {
+    ScopeSPIAsyncExecutor.awaitClosed ();
   }
 
   public static void onApplicationScopeBegin (@Nonnull final IApplicationScope aApplicationScope)
   {
-    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs)
-      try
-      {
-        aSPI.onApplicationScopeBegin (aApplicationScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onApplicationScopeBegin on " +
-                         aSPI +
-                         " with scope " +
-                         aApplicationScope, t instanceof IMockException ? null : t);
-      }
+    s_aApplicationSPIs.getLevel ().onBegin (ON_APPLICATION_SCOPE_BEGIN, aApplicationScope);
   }
 
   public static void onApplicationScopeEnd (@Nonnull final IApplicationScope aApplicationScope)
   {
-    for (final IApplicationScopeSPI aSPI : s_aApplicationSPIs)
-      try
-      {
-        aSPI.onApplicationScopeEnd (aApplicationScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onApplicationScopeEnd on " +
-                         aSPI +
-                         " with scope " +
-                         aApplicationScope, t instanceof IMockException ? null : t);
-      }
+    s_aApplicationSPIs.getLevel ().onEnd (ON_APPLICATION_SCOPE_END, aApplicationScope);
   }
 
   public static void onSessionScopeBegin (@Nonnull final ISessionScope aSessionScope)
   {
-    for (final ISessionScopeSPI aSPI : s_aSessionSPIs)
-      try
-      {
-        aSPI.onSessionScopeBegin (aSessionScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onSessionScopeBegin on " + aSPI + " with scope " + aSessionScope,
-                         t instanceof IMockException ? null : t);
-      }
+    s_aSessionSPIs.getLevel ().onBegin (ON_SESSION_SCOPE_BEGIN, aSessionScope);
   }
 
   public static void onSessionScopeEnd (@Nonnull final ISessionScope aSessionScope)
   {
-    for (final ISessionScopeSPI aSPI : s_aSessionSPIs)
-      try
-      {
-        aSPI.onSessionScopeEnd (aSessionScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onSessionScopeEnd on " + aSPI + " with scope " + aSessionScope,
-                         t instanceof IMockException ? null : t);
-      }
+    s_aSessionSPIs.getLevel ().onEnd (ON_SESSION_SCOPE_END, aSessionScope);
   }
 
   public static void onSessionApplicationScopeBegin (@Nonnull final ISessionApplicationScope aSessionApplicationScope)
   {
-    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs)
-      try
-      {
-        aSPI.onSessionApplicationScopeBegin (aSessionApplicationScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onSessionApplicationScopeBegin on " +
-                         aSPI +
-                         " with scope " +
-                         aSessionApplicationScope, t instanceof IMockException ? null : t);
-      }
+    s_aSessionApplicationSPIs.getLevel ().onBegin (ON_SESSION_APPLICATION_SCOPE_BEGIN, aSessionApplicationScope);
   }
 
   public static void onSessionApplicationScopeEnd (@Nonnull final ISessionApplicationScope aSessionApplicationScope)
   {
-    for (final ISessionApplicationScopeSPI aSPI : s_aSessionApplicationSPIs)
-      try
-      {
-        aSPI.onSessionApplicationScopeEnd (aSessionApplicationScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onSessionApplicationScopeEnd on " +
-                         aSPI +
-                         " with scope " +
-                         aSessionApplicationScope, t instanceof IMockException ? null : t);
-      }
+    s_aSessionApplicationSPIs.getLevel ().onEnd (ON_SESSION_APPLICATION_SCOPE_END, aSessionApplicationScope);
   }
 
   public static void onRequestScopeBegin (@Nonnull final IRequestScope aRequestScope)
   {
-    for (final IRequestScopeSPI aSPI : s_aRequestSPIs)
-      try
-      {
-        aSPI.onRequestScopeBegin (aRequestScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onRequestScopeBegin on " + aSPI + " with scope " + aRequestScope,
-                         t instanceof IMockException ? null : t);
-      }
+    s_aRequestSPIs.getLevel ().onBegin (ON_REQUEST_SCOPE_BEGIN, aRequestScope);
   }
 
   public static void onRequestScopeEnd (@Nonnull final IRequestScope aRequestScope)
   {
-    for (final IRequestScopeSPI aSPI : s_aRequestSPIs)
-      try
-      {
-        aSPI.onRequestScopeEnd (aRequestScope);
-      }
-      catch (final Throwable t)
-      {
-        s_aLogger.error ("Failed to invoke SPI method onRequestScopeEnd on " + aSPI + " with scope " + aRequestScope,
-                         t instanceof IMockException ? null : t);
-      }
+    s_aRequestSPIs.getLevel ().onEnd (ON_REQUEST_SCOPE_END, aRequestScope);
   }
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.Nonempty;
+
+/**
+ * Represents a single lifecycle method of a scope SPI interface, so that the
+ * dispatch logic in {@link ScopeSPIDispatcher} can be shared by all SPI types.
+ * 
+ * @author Boris Gregorcic
+ * @param <SPITYPE>
+ *        The SPI interface type
+ * @param <SCOPETYPE>
+ *        The scope type passed to the SPI method
+ */
+@Immutable
+abstract class ScopeSPIMethod <SPITYPE, SCOPETYPE>
+{
+  private final String m_sName;
+
+  ScopeSPIMethod (@Nonnull @Nonempty final String sName)
+  {
+    m_sName = ValueEnforcer.notEmpty (sName, "Name"); //$NON-NLS-1$
+  }
+
+  /**
+   * @return The name of the SPI method. Used for logging only.
+   */
+  @Nonnull
+  @Nonempty
+  final String getName ()
+  {
+    return m_sName;
+  }
+
+  /**
+   * Invoke the SPI method.
+   * 
+   * @param aSPI
+   *        The SPI implementation to invoke. Never <code>null</code>.
+   * @param aScope
+   *        The scope to pass. Never <code>null</code>.
+   */
+  abstract void invoke (@Nonnull SPITYPE aSPI, @Nonnull SCOPETYPE aScope);
+
+  @Override
+  public String toString ()
+  {
+    return m_sName;
+  }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.ValueEnforcer;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.lang.ServiceLoaderUtils;
+import com.phloc.commons.state.EChange;
+
+/**
+ * Manages the SPI implementations of a single scope level. The current set of
+ * SPIs is stored in an immutable {@link ScopeSPILevel}, that is replaced as a
+ * whole upon each modification (copy-on-write). Therefore dispatching only
+ * requires a single volatile read and neither locks nor allocates. Modifications
+ * are serialized, as they are expected to be rare.<br>
+ * The registries are obtained via the respective accessors of
+ * {@link ScopeSPIManager}, e.g.
+ * {@link ScopeSPIManager#getRequestScopeSPIRegistry()}.
+ * 
+ * @author Boris Gregorcic
+ * @param <SPITYPE>
+ *        The SPI interface type
+ * @param <SCOPETYPE>
+ *        The scope type passed to the SPIs
+ */
+@ThreadSafe
+public final class ScopeSPIRegistry <SPITYPE, SCOPETYPE>
+{
+  private final Class <SPITYPE> m_aSPIClass;
+  private final boolean m_bAsyncEndAllowed;
+  private final Lock m_aLock = new ReentrantLock ();
+  private volatile ScopeSPILevel <SPITYPE, SCOPETYPE> m_aLevel;
+
+  /**
+   * Constructor. Loads all SPI implementations registered via the service
+   * loader.
+   * 
+   * @param aSPIClass
+   *        The SPI interface class. May not be <code>null</code>.
+   * @param bAsyncEndAllowed
+   *        <code>true</code> if end notifications may be delivered
+   *        asynchronously.
+   */
+  ScopeSPIRegistry (@Nonnull final Class <SPITYPE> aSPIClass, final boolean bAsyncEndAllowed)
+  {
+    m_aSPIClass = ValueEnforcer.notNull (aSPIClass, "SPIClass"); //$NON-NLS-1$
+    m_bAsyncEndAllowed = bAsyncEndAllowed;
+    m_aLevel = new ScopeSPILevel <SPITYPE, SCOPETYPE> (ServiceLoaderUtils.getAllSPIImplementations (aSPIClass),
+                                                       bAsyncEndAllowed);
+  }
+
+  /**
+   * @return The current SPI level to dispatch to. Never <code>null</code>.
+   */
+  @Nonnull
+  ScopeSPILevel <SPITYPE, SCOPETYPE> getLevel ()
+  {
+    return m_aLevel;
+  }
+
+  /**
+   * @return All currently registered SPI implementations in invocation order.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <SPITYPE> getAllSPIs ()
+  {
+    return m_aLevel.getAllSPIs ();
+  }
+
+  private static int _indexOf (@Nonnull final List <?> aList, @Nonnull final Object aObject)
+  {
+    // Compare by identity, as SPI implementations may implement equals
+    // differently
+    for (int i = 0; i < aList.size (); ++i)
+      if (aList.get (i) == aObject)
+        return i;
+    return -1;
+  }
+
+  /**
+   * Register an additional SPI implementation at runtime. It is notified after
+   * all previously registered implementations.
+   * 
+   * @param aSPI
+   *        The SPI implementation to register. May not be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if the same object is already registered.
+   */
+  @Nonnull
+  public EChange registerSPI (@Nonnull final SPITYPE aSPI)
+  {
+    ValueEnforcer.notNull (aSPI, "SPI"); //$NON-NLS-1$
+
+    m_aLock.lock ();
+    try
+    {
+      final List <SPITYPE> aSPIs = m_aLevel.getAllSPIs ();
+      if (_indexOf (aSPIs, aSPI) >= 0)
+        return EChange.UNCHANGED;
+      aSPIs.add (aSPI);
+      m_aLevel = new ScopeSPILevel <SPITYPE, SCOPETYPE> (aSPIs, m_bAsyncEndAllowed);
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Unregister an SPI implementation.
+   * 
+   * @param aSPI
+   *        The SPI implementation to unregister. May be <code>null</code>.
+   * @return {@link EChange#UNCHANGED} if the object is not registered.
+   */
+  @Nonnull
+  public EChange unregisterSPI (@Nullable final SPITYPE aSPI)
+  {
+    m_aLock.lock ();
+    try
+    {
+      final List <SPITYPE> aSPIs = m_aLevel.getAllSPIs ();
+      final int nIndex = aSPI == null ? -1 : _indexOf (aSPIs, aSPI);
+      if (nIndex < 0)
+        return EChange.UNCHANGED;
+      aSPIs.remove (nIndex);
+      m_aLevel = new ScopeSPILevel <SPITYPE, SCOPETYPE> (aSPIs, m_bAsyncEndAllowed);
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Discard all SPI implementations and load the ones registered via the
+   * service loader again.
+   */
+  void reload ()
+  {
+    // Load outside of the lock, as it may take some time
+    final List <SPITYPE> aSPIs = ServiceLoaderUtils.getAllSPIImplementations (m_aSPIClass);
+    m_aLock.lock ();
+    try
+    {
+      m_aLevel = new ScopeSPILevel <SPITYPE, SCOPETYPE> (aSPIs, m_bAsyncEndAllowed);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link SmallAttributeMap}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class SmallAttributeMapTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final SmallAttributeMap aMap = new SmallAttributeMap ();
+    final Map <String, Object> aExpected = new HashMap <String, Object> ();
+    assertTrue (aMap.isEmpty ());
+    assertNull (aMap.get ("key0"));
+    assertNull (aMap.get (null));
+    assertFalse (aMap.containsKey (null));
+
+    // Fill beyond the array size
+    for (int i = 0; i < 3 * SmallAttributeMap.MAX_ARRAY_SIZE; ++i)
+    {
+      final String sKey = "key" + i;
+      assertNull (aMap.put (sKey, Integer.valueOf (i)));
+      aExpected.put (sKey, Integer.valueOf (i));
+      assertEquals (aExpected, aMap);
+      assertEquals (Integer.valueOf (i), aMap.put (sKey, Integer.valueOf (i)));
+    }
+
+    // Back to the array mode
+    aMap.clear ();
+    aExpected.clear ();
+    assertTrue (aMap.isEmpty ());
+    for (int i = 0; i < SmallAttributeMap.MAX_ARRAY_SIZE; ++i)
+    {
+      aMap.put ("key" + i, "value" + i);
+      aExpected.put ("key" + i, "value" + i);
+    }
+    assertEquals (aExpected, aMap);
+    assertEquals (aExpected.hashCode (), aMap.hashCode ());
+
+    assertEquals ("value3", aMap.remove ("key3"));
+    aExpected.remove ("key3");
+    assertNull (aMap.remove ("key3"));
+    assertEquals (aExpected, aMap);
+
+    // Remove and modify via the iterator
+    final Iterator <Map.Entry <String, Object>> it = aMap.entrySet ().iterator ();
+    while (it.hasNext ())
+    {
+      final Map.Entry <String, Object> aEntry = it.next ();
+      if (aEntry.getKey ().equals ("key0") || aEntry.getKey ().equals ("key7"))
+        it.remove ();
+      else
+        aEntry.setValue ("new");
+    }
+    assertEquals (SmallAttributeMap.MAX_ARRAY_SIZE - 3, aMap.size ());
+    assertFalse (aMap.containsKey ("key0"));
+    assertFalse (aMap.containsKey ("key7"));
+    for (final Object aValue : aMap.values ())
+      assertEquals ("new", aValue);
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.factory.DefaultScopeFactory;
+import com.phloc.scopes.factory.IScopeFactory;
+import com.phloc.scopes.factory.PooledScopeFactory;
+
+/**
+ * GC pressure benchmark for the request scope life cycle with and without
+ * pooling. Run manually via the main method.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class BenchmarkRequestScopePooling
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (BenchmarkRequestScopePooling.class);
+  private static final int REQUESTS = 1000000;
+  private static final int ATTRIBUTES_PER_REQUEST = 10;
+
+  private BenchmarkRequestScopePooling ()
+  {}
+
+  private static final String [] KEYS = new String [ATTRIBUTES_PER_REQUEST];
+
+  static
+  {
+    for (int i = 0; i < ATTRIBUTES_PER_REQUEST; ++i)
+      KEYS[i] = "attr" + i;
+  }
+
+  private static void _runRequests (@Nonnull final IScopeFactory aFactory)
+  {
+    for (int i = 0; i < REQUESTS; ++i)
+    {
+      final IRequestScope aScope = aFactory.createRequestScope ("request", "session");
+      for (final String sKey : KEYS)
+        aScope.setAttribute (sKey, sKey);
+      aScope.destroyScope ();
+    }
+  }
+
+  private static long _getGCCount ()
+  {
+    long ret = 0;
+    for (final GarbageCollectorMXBean aGC : ManagementFactory.getGarbageCollectorMXBeans ())
+      ret += Math.max (0, aGC.getCollectionCount ());
+    return ret;
+  }
+
+  private static long _getAllocatedBytes ()
+  {
+    final ThreadMXBean aMXBean = ManagementFactory.getThreadMXBean ();
+    if (aMXBean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) aMXBean).getThreadAllocatedBytes (Thread.currentThread ().getId ());
+    return -1;
+  }
+
+  public static void main (final String [] aArgs)
+  {
+    final IScopeFactory [] aFactories = new IScopeFactory [] { new DefaultScopeFactory (), new PooledScopeFactory () };
+
+    // Warm up
+    for (final IScopeFactory aFactory : aFactories)
+      _runRequests (aFactory);
+
+    for (final IScopeFactory aFactory : aFactories)
+    {
+      final long nGCBefore = _getGCCount ();
+      final long nAllocBefore = _getAllocatedBytes ();
+      final long nStart = System.nanoTime ();
+      _runRequests (aFactory);
+      final long nMillis = (System.nanoTime () - nStart) / 1000000;
+      final long nAllocated = _getAllocatedBytes () - nAllocBefore;
+      s_aLogger.info (aFactory.getClass ().getSimpleName () +
+                      ": " +
+                      nMillis +
+                      " ms, " +
+                      (nAllocated / REQUESTS) +
+                      " bytes/request, " +
+                      (_getGCCount () - nGCBefore) +
+                      " GCs");
+    }
+  }
+}
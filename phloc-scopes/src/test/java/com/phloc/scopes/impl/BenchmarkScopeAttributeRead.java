@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.scopes.EScopeAttributeStorage;
+import com.phloc.scopes.IScope;
+
+/**
+ * Contention benchmark for attribute reads of the global scope with the
+ * different attribute storages. Run manually via the main method.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class BenchmarkScopeAttributeRead
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (BenchmarkScopeAttributeRead.class);
+  private static final int ATTRIBUTE_COUNT = 50;
+  private static final long RUN_MILLIS = 1000;
+
+  private BenchmarkScopeAttributeRead ()
+  {}
+
+  private static final String [] KEYS = new String [ATTRIBUTE_COUNT];
+
+  static
+  {
+    for (int i = 0; i < ATTRIBUTE_COUNT; ++i)
+      KEYS[i] = "attr" + i;
+  }
+
+  private static long _runReads (@Nonnull final IScope aScope, final int nThreads) throws InterruptedException
+  {
+    final CountDownLatch aStart = new CountDownLatch (1);
+    final CountDownLatch aDone = new CountDownLatch (nThreads);
+    final AtomicLong aTotalReads = new AtomicLong ();
+    final long nEnd = System.currentTimeMillis () + RUN_MILLIS;
+    for (int i = 0; i < nThreads; ++i)
+    {
+      final int nOffset = i;
+      new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+          {
+            aStart.await ();
+            long nReads = 0;
+            int nIndex = nOffset;
+            while (System.currentTimeMillis () < nEnd)
+            {
+              // Read a batch of attributes between time checks
+              for (int j = 0; j < 1000; ++j)
+              {
+                if (aScope.getAttributeObject (KEYS[nIndex % ATTRIBUTE_COUNT]) == null)
+                  throw new IllegalStateException ("Attribute missing");
+                nIndex++;
+              }
+              nReads += 1000;
+            }
+            aTotalReads.addAndGet (nReads);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          finally
+          {
+            aDone.countDown ();
+          }
+        }
+      }).start ();
+    }
+    aStart.countDown ();
+    aDone.await ();
+    return aTotalReads.get ();
+  }
+
+  public static void main (final String [] aArgs) throws InterruptedException
+  {
+    for (final EScopeAttributeStorage eStorage : EScopeAttributeStorage.values ())
+    {
+      final GlobalScope aScope = new GlobalScope ("benchmark", eStorage);
+      for (int i = 0; i < ATTRIBUTE_COUNT; ++i)
+        aScope.setAttribute (KEYS[i], Integer.valueOf (i));
+
+      // Warm up
+      _runReads (aScope, 1);
+
+      for (int nThreads = 1; nThreads <= 32; nThreads *= 2)
+      {
+        final long nReads = _runReads (aScope, nThreads);
+        s_aLogger.info (eStorage + " with " + nThreads + " threads: " + (nReads / RUN_MILLIS) + " reads/ms");
+      }
+      aScope.destroyScope ();
+    }
+  }
+}
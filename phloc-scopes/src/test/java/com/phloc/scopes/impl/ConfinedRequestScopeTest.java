@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.phloc.commons.GlobalDebug;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.scopes.IScope;
+
+/**
+ * Test class for class {@link ConfinedRequestScope}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ConfinedRequestScopeTest
+{
+  private static final class MockConfinedRequestScope extends ConfinedRequestScope
+  {
+    MockConfinedRequestScope ()
+    {
+      super ("request", "session");
+    }
+
+    Lock getWriteLock ()
+    {
+      return m_aRWLock.writeLock ();
+    }
+  }
+
+  @Test
+  public void testHandOff () throws Exception
+  {
+    Assume.assumeTrue (GlobalDebug.isDebugMode ());
+
+    final ConfinedRequestScope aScope = new ConfinedRequestScope ("request", "session");
+    assertSame (Thread.currentThread (), aScope.getOwner ());
+    assertTrue (aScope.isUnsynchronized ());
+    aScope.setAttribute ("key", "value");
+
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try
+    {
+      // Not allowed from another thread
+      try
+      {
+        aES.submit (new Callable <Object> ()
+        {
+          public Object call ()
+          {
+            return aScope.getAttributeObject ("key");
+          }
+        }).get ();
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof IllegalStateException);
+      }
+
+      // Explicit hand off
+      aScope.handOff ();
+      assertNull (aScope.getOwner ());
+      final Object aValue = aES.submit (new Callable <Object> ()
+      {
+        public Object call ()
+        {
+          aScope.adopt ();
+          final Object ret = aScope.getAttributeObject ("key");
+          aScope.setAttribute ("key2", "value2");
+          aScope.handOff ();
+          return ret;
+        }
+      }).get ();
+      assertEquals ("value", aValue);
+
+      // And back
+      aScope.adopt ();
+      assertEquals ("value2", aScope.getAttributeObject ("key2"));
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+    aScope.destroyScope ();
+  }
+
+  @Test (timeout = 30000)
+  public void testWritesDontLock () throws Exception
+  {
+    final MockConfinedRequestScope aScope = new MockConfinedRequestScope ();
+    aScope.setAttribute ("key", "value");
+
+    // Hold the write lock of the scope in another thread - runAtomic can't be
+    // used, as it is restricted to the owning thread
+    final CountDownLatch aLocked = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try
+    {
+      final Future <?> aFuture = aES.submit (new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.getWriteLock ().lock ();
+          try
+          {
+            aLocked.countDown ();
+            aRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+          finally
+          {
+            aScope.getWriteLock ().unlock ();
+          }
+        }
+      });
+      assertTrue (aLocked.await (10, TimeUnit.SECONDS));
+
+      // None of these may block
+      assertTrue (aScope.setAttribute ("key2", "value2").isChanged ());
+      assertTrue (aScope.setAttribute ("key2", "value2").isUnchanged ());
+      assertEquals ("value2", aScope.getAttributeObject ("key2"));
+      assertTrue (aScope.removeAttribute ("key2").isChanged ());
+      assertTrue (aScope.setAttribute ("key", null).isChanged ());
+      assertTrue (aScope.setAttribute ("key3", "value3").isChanged ());
+      assertTrue (aScope.clear ().isChanged ());
+      assertTrue (aScope.clear ().isUnchanged ());
+      assertEquals (0, aScope.getAttributeCount ());
+
+      aRelease.countDown ();
+      aFuture.get ();
+    }
+    finally
+    {
+      aRelease.countDown ();
+      aES.shutdown ();
+    }
+    aScope.destroyScope ();
+  }
+
+  private static void _assertOwnerCheck (@Nonnull final ExecutorService aES, @Nonnull final Runnable aAccess) throws Exception
+  {
+    try
+    {
+      aES.submit (aAccess).get ();
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      assertTrue (ex.getCause () instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void testOwnerCheckOnAllAccessPaths () throws Exception
+  {
+    Assume.assumeTrue (GlobalDebug.isDebugMode ());
+
+    final ConfinedRequestScope aScope = new ConfinedRequestScope ("request", "session");
+    aScope.setAttribute ("key", "value");
+    final ExecutorService aES = Executors.newSingleThreadExecutor ();
+    try
+    {
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.getAttributeCount ();
+        }
+      });
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.getAllAttributes ();
+        }
+      });
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.getAllAttributeNames ();
+        }
+      });
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.clear ();
+        }
+      });
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.runAtomic (new INonThrowingRunnableWithParameter <IScope> ()
+          {
+            public void run (final IScope aCurrentScope)
+            {}
+          });
+        }
+      });
+      _assertOwnerCheck (aES, new Runnable ()
+      {
+        public void run ()
+        {
+          aScope.destroyScope ();
+        }
+      });
+    }
+    finally
+    {
+      aES.shutdown ();
+    }
+
+    // Nothing was changed by the other thread
+    assertEquals ("value", aScope.getAttributeObject ("key"));
+    assertTrue (aScope.isValid ());
+    aScope.destroyScope ();
+  }
+}
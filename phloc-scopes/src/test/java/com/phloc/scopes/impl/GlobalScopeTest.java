@@ -19,12 +19,20 @@ package com.phloc.scopes.impl;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import com.phloc.commons.mutable.MutableBoolean;
+import com.phloc.scopes.AbstractSingleton;
 import com.phloc.scopes.IScopeDestructionAware;
+import com.phloc.scopes.domain.IApplicationScope;
 
 /**
  * Test class for class {@link GlobalScope}.
@@ -67,5 +75,171 @@ public final class GlobalScopeTest
 
     // Did the scope destruction aware class trigger?
     assertTrue (aDestroyed.booleanValue ());
+
+    // Cannot destroy twice
+    try
+    {
+      aGS.destroyScope ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {}
+  }
+
+  @Test
+  public void testLockFreeRead ()
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    assertTrue (aGS.isLockFreeRead ());
+    assertTrue (aGS.containsNoAttribute ());
+    assertNull (aGS.getAttributeObject (null));
+    assertFalse (aGS.containsAttribute (null));
+    assertTrue (aGS.setAttribute ("key1", "whatsoever").isChanged ());
+    assertEquals ("whatsoever", aGS.getAttributeObject ("key1"));
+    assertTrue (aGS.containsAttribute ("key1"));
+    assertEquals (1, aGS.getAttributeCount ());
+    assertTrue (aGS.removeAttribute ("key1").isChanged ());
+    assertNull (aGS.getAttributeObject ("key1"));
+    assertTrue (aGS.containsNoAttribute ());
+    aGS.destroyScope ();
+    assertTrue (aGS.isDestroyed ());
+
+    final RequestScope aRS = new RequestScope ("req", "sess");
+    assertFalse (aRS.isLockFreeRead ());
+    aRS.destroyScope ();
+  }
+
+  @SuppressWarnings ("deprecation")
+  public static final class MockIndexSingleton extends AbstractSingleton
+  {
+    public MockIndexSingleton ()
+    {}
+  }
+
+  @Test
+  public void testSingletonIndex ()
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    final String sKey = AbstractSingleton.getSingletonScopeKey (MockIndexSingleton.class);
+    assertNull (aGS.getSingletonObject (MockIndexSingleton.class));
+
+    final MockIndexSingleton a = new MockIndexSingleton ();
+    assertTrue (aGS.setAttribute (sKey, a).isChanged ());
+    assertSame (a, aGS.getSingletonObject (MockIndexSingleton.class));
+    assertSame (a, aGS.getSingletonObject (MockIndexSingleton.class));
+
+    // Overwriting the attribute must invalidate the index
+    final MockIndexSingleton b = new MockIndexSingleton ();
+    assertTrue (aGS.setAttribute (sKey, b).isChanged ());
+    assertSame (b, aGS.getSingletonObject (MockIndexSingleton.class));
+
+    // Removing as well
+    assertTrue (aGS.removeAttribute (sKey).isChanged ());
+    assertNull (aGS.getSingletonObject (MockIndexSingleton.class));
+    aGS.destroyScope ();
+  }
+
+  @Test
+  public void testConcurrentApplicationScopeCreation () throws Exception
+  {
+    final GlobalScope aGS = new GlobalScope ("test");
+    final int nThreads = 8;
+    final IApplicationScope [] aResults = new IApplicationScope [nThreads];
+    final CountDownLatch aStart = new CountDownLatch (1);
+    final Thread [] aThreads = new Thread [nThreads];
+    for (int i = 0; i < nThreads; ++i)
+    {
+      final int nIndex = i;
+      aThreads[i] = new Thread (new Runnable ()
+      {
+        public void run ()
+        {
+          try
+          {
+            aStart.await ();
+            aResults[nIndex] = aGS.getApplicationScope ("app", true);
+          }
+          catch (final InterruptedException ex)
+          {
+            Thread.currentThread ().interrupt ();
+          }
+        }
+      });
+      aThreads[i].start ();
+    }
+    aStart.countDown ();
+    for (final Thread aThread : aThreads)
+      aThread.join ();
+
+    // Exactly one application scope was created
+    assertEquals (1, aGS.getApplicationScopeCount ());
+    final IApplicationScope aAppScope = aGS.getApplicationScope ("app", false);
+    for (final IApplicationScope aResult : aResults)
+      assertSame (aAppScope, aResult);
+
+    aGS.destroyScope ();
+    assertTrue (aAppScope.isDestroyed ());
+    assertEquals (0, aGS.getApplicationScopeCount ());
+    assertNull (aGS.getApplicationScope ("app", false));
+  }
+
+  @Test
+  public void testApplicationScopeVisibleDuringCreation () throws Exception
+  {
+    final AtomicReference <GlobalScope> aGSRef = new AtomicReference <GlobalScope> ();
+    final AtomicReference <IApplicationScope> aSeenByCreator = new AtomicReference <IApplicationScope> ();
+    final AtomicReference <IApplicationScope> aSeenByOther = new AtomicReference <IApplicationScope> ();
+    final CountDownLatch aInInit = new CountDownLatch (1);
+    final Thread aOther = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          aInInit.await ();
+          // Must wait for the creation instead of returning null
+          aSeenByOther.set (aGSRef.get ().getApplicationScope ("app", false));
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+      }
+    });
+    final GlobalScope aGS = new GlobalScope ("test")
+    {
+      @Override
+      protected IApplicationScope createApplicationScope (final String sApplicationID)
+      {
+        return new ApplicationScope (sApplicationID)
+        {
+          @Override
+          public void initScope ()
+          {
+            // The creating thread sees the scope in creation
+            aSeenByCreator.set (aGSRef.get ().getApplicationScope (sApplicationID, false));
+            aInInit.countDown ();
+            try
+            {
+              // Give the other thread time to run into the lookup
+              Thread.sleep (100);
+            }
+            catch (final InterruptedException ex)
+            {
+              Thread.currentThread ().interrupt ();
+            }
+          }
+        };
+      }
+    };
+    aGSRef.set (aGS);
+    aOther.start ();
+
+    final IApplicationScope aAppScope = aGS.getApplicationScope ("app", true);
+    aOther.join ();
+    assertSame (aAppScope, aSeenByCreator.get ());
+    assertSame (aAppScope, aSeenByOther.get ());
+    assertEquals (1, aGS.getApplicationScopeCount ());
+    aGS.destroyScope ();
   }
 }
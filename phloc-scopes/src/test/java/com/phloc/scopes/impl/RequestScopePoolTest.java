@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link RequestScopePool}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class RequestScopePoolTest
+{
+  @Test
+  public void testRecycle ()
+  {
+    final RequestScopePool aPool = new RequestScopePool (1);
+    final PooledRequestScope aScope = aPool.acquire ("req1", "session1", "app");
+    assertEquals ("app", aScope.getApplicationID ());
+    aScope.setAttribute ("key", "value");
+    assertEquals (0, aPool.getPooledCount ());
+
+    aScope.destroyScope ();
+    assertTrue (aScope.isDestroyed ());
+    assertTrue (aScope.isReleased ());
+    assertEquals (1, aPool.getPooledCount ());
+
+    assertEquals (1, aScope.getGeneration ());
+
+    // Use after release
+    try
+    {
+      aScope.getAttributeObject ("key");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aScope.containsAttribute ("key");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aScope.removeAttribute ("key");
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aScope.getAllAttributes ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    try
+    {
+      aScope.clear ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    // Recycled with a clean state
+    final PooledRequestScope aScope2 = aPool.acquire ("req2", "session2");
+    assertSame (aScope, aScope2);
+    assertFalse (aScope2.isReleased ());
+    assertTrue (aScope2.isValid ());
+    assertEquals ("req2", aScope2.getID ());
+    assertEquals ("session2", aScope2.getSessionID ());
+    assertEquals (1, aScope2.getGeneration ());
+    assertNull (aScope2.getApplicationID ());
+    assertNull (aScope2.getAttributeObject ("key"));
+    assertEquals (0, aScope2.getAttributeCount ());
+
+    // Pool size is limited
+    final PooledRequestScope aScope3 = aPool.acquire ("req3", "session3");
+    aScope2.destroyScope ();
+    aScope3.destroyScope ();
+    assertEquals (1, aPool.getPooledCount ());
+  }
+
+  @Test
+  public void testHashCodeStableAcrossReuse ()
+  {
+    final RequestScopePool aPool = new RequestScopePool (1);
+    final PooledRequestScope aScope = aPool.acquire ("req1", "session1");
+    final Set <PooledRequestScope> aSet = new HashSet <PooledRequestScope> ();
+    aSet.add (aScope);
+    final int nHashCode = aScope.hashCode ();
+
+    aScope.destroyScope ();
+    assertSame (aScope, aPool.acquire ("req2", "session2"));
+    assertEquals ("req2", aScope.getID ());
+    assertEquals (nHashCode, aScope.hashCode ());
+    assertTrue (aSet.contains (aScope));
+    assertTrue (aSet.remove (aScope));
+    aScope.destroyScope ();
+  }
+}
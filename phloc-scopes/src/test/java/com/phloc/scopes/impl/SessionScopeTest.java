@@ -18,10 +18,19 @@
 package com.phloc.scopes.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.scopes.IScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+
 /**
  * Test class for class {@link SessionScope}.
  * 
@@ -44,4 +53,124 @@ public final class SessionScopeTest
       aScope.destroyScope ();
     }
   }
+
+  @Test
+  public void testSessionApplicationScope ()
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    assertNull (aScope.getSessionApplicationScope ("app", false));
+    final ISessionApplicationScope aAppScope = aScope.getSessionApplicationScope ("app", true);
+    assertNotNull (aAppScope);
+    assertEquals ("test.app", aAppScope.getID ());
+    assertSame (aAppScope, aScope.getSessionApplicationScope ("app", false));
+    assertSame (aAppScope, aScope.getSessionApplicationScope ("app", true));
+    assertEquals (1, aScope.getSessionApplicationScopeCount ());
+
+    aScope.destroyScope ();
+    assertTrue (aAppScope.isDestroyed ());
+    assertEquals (0, aScope.getSessionApplicationScopeCount ());
+  }
+
+  @Test
+  public void testSessionApplicationScopeVisibleDuringCreation ()
+  {
+    final AtomicReference <SessionScope> aScopeRef = new AtomicReference <SessionScope> ();
+    final AtomicReference <ISessionApplicationScope> aSeenByCreator = new AtomicReference <ISessionApplicationScope> ();
+    final SessionScope aScope = new SessionScope ("test")
+    {
+      @Override
+      protected ISessionApplicationScope createSessionApplicationScope (final String sApplicationID)
+      {
+        return new SessionApplicationScope (sApplicationID)
+        {
+          @Override
+          public void initScope ()
+          {
+            aSeenByCreator.set (aScopeRef.get ().getSessionApplicationScope ("app", false));
+          }
+        };
+      }
+    };
+    aScopeRef.set (aScope);
+    final ISessionApplicationScope aAppScope = aScope.getSessionApplicationScope ("app", true);
+    assertSame (aAppScope, aSeenByCreator.get ());
+    assertEquals (1, aScope.getSessionApplicationScopeCount ());
+    aScope.destroyScope ();
+  }
+
+  private static void _assertTouched (final SessionScope aScope, final Runnable aAccess) throws InterruptedException
+  {
+    final long nBefore = aScope.getLastAccessTimeMillis ();
+    Thread.sleep (5);
+    aAccess.run ();
+    assertTrue (aScope.getLastAccessTimeMillis () > nBefore);
+  }
+
+  @Test
+  public void testTouchOnAllAccessPaths () throws InterruptedException
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    aScope.setAttribute ("key", "value");
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.containsAttribute ("key");
+      }
+    });
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.getAttributeCount ();
+      }
+    });
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.getAllAttributes ();
+      }
+    });
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.getAllAttributeNames ();
+      }
+    });
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.runAtomic (new INonThrowingRunnableWithParameter <IScope> ()
+        {
+          public void run (final IScope aCurrentScope)
+          {}
+        });
+      }
+    });
+    _assertTouched (aScope, new Runnable ()
+    {
+      public void run ()
+      {
+        aScope.removeAttribute ("key");
+      }
+    });
+    aScope.destroyScope ();
+  }
+
+  @Test
+  public void testManyApplicationIDs ()
+  {
+    final SessionScope aScope = new SessionScope ("test");
+    final int nCount = SessionScope.MAX_CACHED_APPLICATION_SCOPE_IDS * 2;
+    for (int i = 0; i < nCount; ++i)
+      assertEquals ("test.app" + i, aScope.getSessionApplicationScope ("app" + i, true).getID ());
+    // Uncached IDs are still resolved correctly
+    for (int i = 0; i < nCount; ++i)
+      assertEquals ("test.app" + i, aScope.getSessionApplicationScope ("app" + i, false).getID ());
+    assertEquals (nCount, aScope.getSessionApplicationScopeCount ());
+    aScope.destroyScope ();
+  }
 }
@@ -18,6 +18,10 @@
 package com.phloc.scopes.mgr;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,4 +52,38 @@ public final class EScopeTest
       assertNotNull (EScope.getScope (eScope, true));
     }
   }
+
+  @Test
+  public void testGetScopeOrNull () throws InterruptedException
+  {
+    for (final EScope eScope : EScope.values ())
+    {
+      assertNotNull (eScope.getScope (true));
+      assertSame (eScope.getScope (false), eScope.getScopeOrNull ());
+    }
+
+    // A thread without a request scope only sees the global scope
+    final AtomicReference <Throwable> aError = new AtomicReference <Throwable> ();
+    final Thread aThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          assertNotNull (EScope.GLOBAL.getScopeOrNull ());
+          assertNull (EScope.APPLICATION.getScopeOrNull ());
+          assertNull (EScope.SESSION.getScopeOrNull ());
+          assertNull (EScope.SESSION_APPLICATION.getScopeOrNull ());
+          assertNull (EScope.REQUEST.getScopeOrNull ());
+        }
+        catch (final Throwable t)
+        {
+          aError.set (t);
+        }
+      }
+    });
+    aThread.start ();
+    aThread.join ();
+    assertNull (aError.get ());
+  }
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.IRequestScope;
+import com.phloc.scopes.domain.ISessionApplicationScope;
+import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.impl.RequestScope;
+import com.phloc.scopes.mock.ScopeAwareTestSetup;
+import com.phloc.scopes.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link ScopeManager}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopeManagerTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testRequestContextCache ()
+  {
+    final IApplicationScope aAppScope = ScopeManager.getApplicationScope ();
+    assertSame (aAppScope, ScopeManager.getApplicationScope ());
+    assertSame (aAppScope, ScopeManager.getApplicationScope (ScopeManager.getRequestApplicationID ()));
+
+    final ISessionScope aSessionScope = ScopeManager.getSessionScope ();
+    assertSame (aSessionScope, ScopeManager.getSessionScope ());
+    final ISessionApplicationScope aSessionAppScope = ScopeManager.getSessionApplicationScope ();
+    assertSame (aSessionAppScope, ScopeManager.getSessionApplicationScope ());
+
+    // Destroy the session in the middle of the request
+    ScopeManager.destroySessionScope (aSessionScope);
+    assertFalse (aSessionScope.isValid ());
+    assertFalse (aSessionAppScope.isValid ());
+
+    // New scopes must be resolved
+    final ISessionScope aNewSessionScope = ScopeManager.getSessionScope ();
+    assertNotSame (aSessionScope, aNewSessionScope);
+    assertTrue (aNewSessionScope.isValid ());
+    final ISessionApplicationScope aNewSessionAppScope = ScopeManager.getSessionApplicationScope ();
+    assertNotSame (aSessionAppScope, aNewSessionAppScope);
+    assertTrue (aNewSessionAppScope.isValid ());
+    assertSame (aNewSessionAppScope, aNewSessionScope.getSessionApplicationScope (ScopeManager.getRequestApplicationID (),
+                                                                                  false));
+  }
+
+  @Test
+  public void testRequestApplicationID ()
+  {
+    final IRequestScope aRequestScope = ScopeManager.getRequestScope ();
+    assertEquals (ScopeAwareTestSetup.MOCK_APPLICATION_SCOPE_ID, aRequestScope.getApplicationID ());
+    assertEquals (ScopeAwareTestSetup.MOCK_APPLICATION_SCOPE_ID, ScopeManager.getRequestApplicationID ());
+    assertEquals (ScopeAwareTestSetup.MOCK_APPLICATION_SCOPE_ID, ScopeManager.getRequestApplicationID (aRequestScope));
+    // The scope knows its application ID, so no attribute is written
+    assertTrue (aRequestScope.containsNoAttribute ());
+
+    // A request scope created for another application is rejected
+    try
+    {
+      ScopeManager.setAndInitRequestScope (ScopeAwareTestSetup.MOCK_APPLICATION_SCOPE_ID,
+                                           new RequestScope ("otherreq", "othersession", "otherapp"));
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    assertSame (aRequestScope, ScopeManager.getRequestScope ());
+  }
+}
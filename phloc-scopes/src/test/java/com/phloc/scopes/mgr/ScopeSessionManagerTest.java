@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.impl.SessionScope;
+import com.phloc.scopes.mock.ScopeTestRule;
+import com.phloc.scopes.spi.ISessionScopeSPI;
+import com.phloc.scopes.spi.ScopeSPIManager;
+
+/**
+ * Test class for class {@link ScopeSessionManager}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopeSessionManagerTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testEndOnlyRemovesSameScope ()
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final SessionScope aOld = new SessionScope ("same");
+    final SessionScope aNew = new SessionScope ("same");
+    assertSame (aOld, aSSM.onScopeBegin (aOld));
+    // Duplicate ID - must not replace the registered scope
+    assertSame (aOld, aSSM.onScopeBegin (aNew));
+    assertSame (aOld, aSSM.getSessionScopeOfID ("same"));
+
+    // Ending the rejected scope must not remove the registered one
+    aSSM.onScopeEnd (aNew);
+    assertFalse (aNew.isValid ());
+    assertSame (aOld, aSSM.getSessionScopeOfID ("same"));
+
+    aSSM.onScopeEnd (aOld);
+    assertFalse (aOld.isValid ());
+    assertNull (aSSM.getSessionScopeOfID ("same"));
+    assertFalse (aSSM.containsAnySession ());
+  }
+
+  @Test
+  public void testConcurrentBeginAndEnd () throws Exception
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final int nSessions = 1000;
+    final List <SessionScope> aScopes = ContainerHelper.newList ();
+    for (int i = 0; i < nSessions; ++i)
+      aScopes.add (new SessionScope ("session" + i));
+
+    final ExecutorService aES = Executors.newFixedThreadPool (8);
+    for (final SessionScope aScope : aScopes)
+      aES.submit (new Runnable ()
+      {
+        public void run ()
+        {
+          aSSM.onScopeBegin (aScope);
+          assertSame (aScope, aSSM.getSessionScopeOfID (aScope.getID ()));
+          // End each session twice - it may only be destroyed once
+          aSSM.onScopeEnd (aScope);
+          aSSM.onScopeEnd (aScope);
+        }
+      });
+    aES.shutdown ();
+    assertTrue (aES.awaitTermination (1, TimeUnit.MINUTES));
+
+    assertEquals (0, aSSM.getSessionCount ());
+    for (final SessionScope aScope : aScopes)
+      assertTrue (aScope.isDestroyed ());
+  }
+
+  @Test
+  public void testParallelDestroyAllSessions ()
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final List <SessionScope> aScopes = ContainerHelper.newList ();
+    for (int i = 0; i < 1000; ++i)
+    {
+      final SessionScope aScope = new SessionScope ("session" + i);
+      aSSM.onScopeBegin (aScope);
+      aScopes.add (aScope);
+    }
+    assertEquals (1000, aSSM.getSessionCount ());
+
+    aSSM.setSessionDestructionThreads (4);
+    try
+    {
+      aSSM.destroyAllSessions ();
+    }
+    finally
+    {
+      aSSM.setSessionDestructionThreads (ScopeSessionManager.DEFAULT_SESSION_DESTRUCTION_THREADS);
+    }
+
+    assertFalse (aSSM.containsAnySession ());
+    for (final SessionScope aScope : aScopes)
+      assertTrue (aScope.isDestroyed ());
+  }
+
+  @Test
+  public void testParallelDestroyAllSessionsIsBounded ()
+  {
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    // An SPI that is stuck and does not even react on interruption
+    final ISessionScopeSPI aBlockingSPI = new ISessionScopeSPI ()
+    {
+      public void onSessionScopeBegin (final ISessionScope aSessionScope)
+      {}
+
+      public void onSessionScopeEnd (final ISessionScope aSessionScope)
+      {
+        while (aRelease.getCount () > 0)
+          try
+          {
+            aRelease.await ();
+          }
+          catch (final InterruptedException ex)
+          {
+            // ignore
+          }
+      }
+    };
+
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final List <SessionScope> aScopes = ContainerHelper.newList ();
+    for (int i = 0; i < 10; ++i)
+    {
+      final SessionScope aScope = new SessionScope ("session" + i);
+      aSSM.onScopeBegin (aScope);
+      aScopes.add (aScope);
+    }
+
+    final long nTimeoutMillis = 300;
+    ScopeSPIManager.getSessionScopeSPIRegistry ().registerSPI (aBlockingSPI);
+    aSSM.setSessionDestructionThreads (2);
+    aSSM.setSessionDestructionTimeoutMillis (nTimeoutMillis);
+    try
+    {
+      final long nStart = System.currentTimeMillis ();
+      aSSM.destroyAllSessions ();
+      final long nDuration = System.currentTimeMillis () - nStart;
+      assertTrue ("Took " + nDuration + "ms",
+                  nDuration < nTimeoutMillis + ScopeSessionManager.SESSION_DESTRUCTION_GRACE_MILLIS + 2000);
+
+      // The two sessions of the stuck workers are still being ended, all
+      // others were destroyed in the calling thread
+      assertFalse (aSSM.containsAnySession ());
+      int nDestroyed = 0;
+      for (final SessionScope aScope : aScopes)
+        if (aScope.isDestroyed ())
+          nDestroyed++;
+      assertEquals (aScopes.size () - 2, nDestroyed);
+    }
+    finally
+    {
+      aRelease.countDown ();
+      ScopeSPIManager.getSessionScopeSPIRegistry ().unregisterSPI (aBlockingSPI);
+      aSSM.setSessionDestructionThreads (ScopeSessionManager.DEFAULT_SESSION_DESTRUCTION_THREADS);
+      aSSM.setSessionDestructionTimeoutMillis (ScopeSessionManager.DEFAULT_SESSION_DESTRUCTION_TIMEOUT_MILLIS);
+    }
+  }
+
+  @Test
+  public void testIdleSessionExpiry () throws Exception
+  {
+    final ScopeSessionManager aSSM = ScopeSessionManager.getInstance ();
+    final SessionScope aIdle = new SessionScope ("idle");
+    final SessionScope aActive = new SessionScope ("active");
+    aSSM.onScopeBegin (aIdle);
+    aSSM.onScopeBegin (aActive);
+
+    aSSM.setSessionIdleTimeoutMillis (200);
+    try
+    {
+      final long nEnd = System.currentTimeMillis () + 5000;
+      while (aIdle.isValid () && System.currentTimeMillis () < nEnd)
+      {
+        aActive.touch ();
+        Thread.sleep (20);
+      }
+      assertTrue (aIdle.isDestroyed ());
+      assertNull (aSSM.getSessionScopeOfID ("idle"));
+      assertTrue (aActive.isValid ());
+      assertSame (aActive, aSSM.getSessionScopeOfID ("active"));
+    }
+    finally
+    {
+      aSSM.setSessionIdleTimeoutMillis (ScopeSessionManager.DEFAULT_SESSION_IDLE_TIMEOUT_MILLIS);
+    }
+    aSSM.onScopeEnd (aActive);
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.scopes.mgr.ScopeManager;
+
+/**
+ * Benchmark for the creation of {@link RequestSingleton} instances: each
+ * iteration begins a request, creates a request singleton and ends the
+ * request. The same request cycle without a singleton is measured as well, so
+ * that the difference is the cost of the singleton creation. Run manually via
+ * the main method.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class BenchmarkSingletonInstantiation
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (BenchmarkSingletonInstantiation.class);
+  private static final int RUNS = 200000;
+
+  private BenchmarkSingletonInstantiation ()
+  {}
+
+  private static long _run (final boolean bWithSingleton)
+  {
+    final long nStart = System.nanoTime ();
+    for (int i = 0; i < RUNS; ++i)
+    {
+      ScopeManager.onRequestBegin ("app", "request", "session");
+      try
+      {
+        if (bWithSingleton && MockRequestSingleton.getInstance () == null)
+          throw new IllegalStateException ("No instance created");
+      }
+      finally
+      {
+        ScopeManager.onRequestEnd ();
+      }
+    }
+    return System.nanoTime () - nStart;
+  }
+
+  private static long _perOp (final long nNanos)
+  {
+    return nNanos / RUNS;
+  }
+
+  public static void main (final String [] aArgs)
+  {
+    ScopeManager.onGlobalBegin ("benchmark");
+    try
+    {
+      // Warm up and measure
+      for (int nRound = 0; nRound < 3; ++nRound)
+      {
+        final long nPlain = _run (false);
+        final long nSingleton = _run (true);
+        s_aLogger.info ("Round " +
+                        nRound +
+                        ": request " +
+                        _perOp (nPlain) +
+                        " ns/op, request with singleton " +
+                        _perOp (nSingleton) +
+                        " ns/op, singleton creation " +
+                        _perOp (nSingleton - nPlain) +
+                        " ns/op");
+      }
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+}
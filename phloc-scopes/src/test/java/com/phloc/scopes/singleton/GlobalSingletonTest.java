@@ -23,6 +23,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -30,6 +35,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import com.phloc.scopes.domain.IGlobalScope;
+import com.phloc.scopes.mgr.ScopeManager;
 import com.phloc.scopes.mock.ScopeTestRule;
 
 /**
@@ -71,4 +78,119 @@ public final class GlobalSingletonTest
     assertNotNull (MockGlobalSingleton.getInstance ());
     assertSame (a, MockGlobalSingleton.getInstance ());
   }
+
+  @Test
+  public void testNonPublicConstructor ()
+  {
+    final MockProtectedCtorGlobalSingleton a = MockProtectedCtorGlobalSingleton.getInstance ();
+    assertNotNull (a);
+    assertSame (a, MockProtectedCtorGlobalSingleton.getInstance ());
+  }
+
+  @Test
+  public void testConstructorExceptionIsWrapped ()
+  {
+    try
+    {
+      MockThrowingCtorGlobalSingleton.getInstance ();
+      fail ();
+    }
+    catch (final RuntimeException ex)
+    {
+      // Like with reflection, the original exception is wrapped
+      Throwable aCause = ex;
+      while (aCause != null && !(aCause instanceof InvocationTargetException))
+        aCause = aCause.getCause ();
+      assertNotNull (aCause);
+      assertTrue (aCause.getCause () instanceof IllegalStateException);
+      assertEquals (MockThrowingCtorGlobalSingleton.MESSAGE, aCause.getCause ().getMessage ());
+    }
+    assertFalse (GlobalSingleton.isGlobalSingletonInstantiated (MockThrowingCtorGlobalSingleton.class));
+  }
+
+  @Test
+  public void testInstantiationDoesNotBlockScope () throws Exception
+  {
+    final IGlobalScope aScope = ScopeManager.getGlobalScope ();
+    aScope.setAttribute ("other", "value");
+
+    final AtomicReference <MockSlowGlobalSingleton> aFirst = new AtomicReference <MockSlowGlobalSingleton> ();
+    final AtomicReference <MockSlowGlobalSingleton> aSecond = new AtomicReference <MockSlowGlobalSingleton> ();
+    final Thread aFirstThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        aFirst.set (MockSlowGlobalSingleton.getInstance ());
+      }
+    });
+    final Thread aSecondThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        aSecond.set (MockSlowGlobalSingleton.getInstance ());
+      }
+    });
+    aFirstThread.start ();
+    assertTrue (MockSlowGlobalSingleton.s_aCtorEntered.await (10, TimeUnit.SECONDS));
+    aSecondThread.start ();
+
+    // The constructor is still running, but the scope can be used
+    assertEquals ("value", aScope.getAttributeObject ("other"));
+    assertTrue (aScope.setAttribute ("other2", "value2").isChanged ());
+    assertNull (GlobalSingleton.getGlobalSingletonIfInstantiated (MockSlowGlobalSingleton.class));
+
+    MockSlowGlobalSingleton.s_aCtorRelease.countDown ();
+    aFirstThread.join ();
+    aSecondThread.join ();
+    assertNotNull (aFirst.get ());
+    assertSame (aFirst.get (), aSecond.get ());
+    assertEquals (1, MockSlowGlobalSingleton.s_nCtorCount);
+  }
+
+  @Test
+  public void testCrossThreadCycleFailsFast () throws Exception
+  {
+    final AtomicReference <Throwable> aFirstError = new AtomicReference <Throwable> ();
+    final AtomicReference <Throwable> aSecondError = new AtomicReference <Throwable> ();
+    final Thread aFirstThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          MockCyclicGlobalSingletonA.getInstance ();
+        }
+        catch (final Throwable t)
+        {
+          aFirstError.set (t);
+        }
+      }
+    });
+    final Thread aSecondThread = new Thread (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          MockCyclicGlobalSingletonB.getInstance ();
+        }
+        catch (final Throwable t)
+        {
+          aSecondError.set (t);
+        }
+      }
+    });
+    aFirstThread.start ();
+    aSecondThread.start ();
+    aFirstThread.join (TimeUnit.SECONDS.toMillis (30));
+    aSecondThread.join (TimeUnit.SECONDS.toMillis (30));
+
+    // No deadlock and no singleton was created
+    assertFalse (aFirstThread.isAlive ());
+    assertFalse (aSecondThread.isAlive ());
+    assertNotNull (aFirstError.get ());
+    assertNotNull (aSecondError.get ());
+    assertFalse (GlobalSingleton.isGlobalSingletonInstantiated (MockCyclicGlobalSingletonA.class));
+    assertFalse (GlobalSingleton.isGlobalSingletonInstantiated (MockCyclicGlobalSingletonB.class));
+  }
 }
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.UsedViaReflection;
+
+/**
+ * Mock global singleton whose constructor requires
+ * {@link MockCyclicGlobalSingletonA}, once both constructors are running.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class MockCyclicGlobalSingletonB extends GlobalSingleton
+{
+  @Deprecated
+  @UsedViaReflection
+  public MockCyclicGlobalSingletonB () throws InterruptedException
+  {
+    MockCyclicGlobalSingletonA.s_aCtorsEntered.countDown ();
+    MockCyclicGlobalSingletonA.s_aCtorsEntered.await (10, TimeUnit.SECONDS);
+    MockCyclicGlobalSingletonA.getInstance ();
+  }
+
+  @Nonnull
+  public static MockCyclicGlobalSingletonB getInstance ()
+  {
+    return getGlobalSingleton (MockCyclicGlobalSingletonB.class);
+  }
+}
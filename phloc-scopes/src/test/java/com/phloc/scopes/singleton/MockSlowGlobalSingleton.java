@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.singleton;
+
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.annotations.UsedViaReflection;
+
+/**
+ * Mock global singleton with a constructor that blocks until it is released.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class MockSlowGlobalSingleton extends GlobalSingleton
+{
+  static final CountDownLatch s_aCtorEntered = new CountDownLatch (1);
+  static final CountDownLatch s_aCtorRelease = new CountDownLatch (1);
+  static volatile int s_nCtorCount = 0;
+
+  @Deprecated
+  @UsedViaReflection
+  public MockSlowGlobalSingleton () throws InterruptedException
+  {
+    s_nCtorCount++;
+    s_aCtorEntered.countDown ();
+    s_aCtorRelease.await ();
+  }
+
+  @Nonnull
+  public static MockSlowGlobalSingleton getInstance ()
+  {
+    return getGlobalSingleton (MockSlowGlobalSingleton.class);
+  }
+}
@@ -22,11 +22,15 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import com.phloc.commons.GlobalDebug;
+import com.phloc.scopes.AbstractSingleton;
 import com.phloc.scopes.mock.ScopeTestRule;
 
 /**
@@ -57,4 +61,40 @@ public final class RequestSingletonTest
     final MockRequestSingleton b = MockRequestSingleton.getInstance ();
     assertSame (a, b);
   }
+
+  @Test
+  public void testScopeKeyIsCached ()
+  {
+    final String sKey = AbstractSingleton.getSingletonScopeKey (MockRequestSingleton.class);
+    assertEquals (AbstractSingleton.SINGLETON_SCOPE_KEY_PREFIX + MockRequestSingleton.class.getName (), sKey);
+
+    // Warm lookups must not build the key again
+    final MockRequestSingleton a = MockRequestSingleton.getInstance ();
+    for (int i = 0; i < 100; ++i)
+    {
+      assertSame (sKey, AbstractSingleton.getSingletonScopeKey (MockRequestSingleton.class));
+      assertSame (a, MockRequestSingleton.getInstance ());
+    }
+  }
+
+  @Test
+  @SuppressWarnings ("deprecation")
+  public void testManualInstantiationInDebugMode ()
+  {
+    Assume.assumeTrue (GlobalDebug.isDebugMode ());
+
+    // Not created via getRequestSingleton
+    try
+    {
+      new MockRequestSingleton ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+
+    // Created via getRequestSingleton, even after a failed manual attempt
+    assertEquals (0, MockRequestSingleton.getInstance ().get ());
+  }
 }
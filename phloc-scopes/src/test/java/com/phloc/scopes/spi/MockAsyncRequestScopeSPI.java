@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.phloc.commons.annotations.IsSPIImplementation;
+import com.phloc.scopes.domain.IRequestScope;
+
+/**
+ * Mock request scope SPI that is notified asynchronously about the end of the
+ * request. The synchronous end notification must never be invoked.
+ * 
+ * @author Boris Gregorcic
+ */
+@IsSPIImplementation
+public final class MockAsyncRequestScopeSPI implements IRequestScopeSPI, IAsyncScopeSPI
+{
+  private static final AtomicInteger s_aEnd = new AtomicInteger (0);
+  private static final AtomicInteger s_aSyncEnd = new AtomicInteger (0);
+  private static final AtomicReference <Thread> s_aLastEndThread = new AtomicReference <Thread> ();
+  private static final AtomicReference <ScopeEndInfo> s_aLastEndInfo = new AtomicReference <ScopeEndInfo> ();
+
+  public void onRequestScopeBegin (final IRequestScope aScope)
+  {}
+
+  public void onRequestScopeEnd (final IRequestScope aScope)
+  {
+    s_aSyncEnd.incrementAndGet ();
+  }
+
+  public void onScopeEndAsync (final ScopeEndInfo aInfo)
+  {
+    s_aLastEndThread.set (Thread.currentThread ());
+    s_aLastEndInfo.set (aInfo);
+    s_aEnd.incrementAndGet ();
+  }
+
+  public static int getEnd ()
+  {
+    return s_aEnd.get ();
+  }
+
+  public static int getSyncEnd ()
+  {
+    return s_aSyncEnd.get ();
+  }
+
+  public static Thread getLastEndThread ()
+  {
+    return s_aLastEndThread.get ();
+  }
+
+  public static ScopeEndInfo getLastEndInfo ()
+  {
+    return s_aLastEndInfo.get ();
+  }
+}
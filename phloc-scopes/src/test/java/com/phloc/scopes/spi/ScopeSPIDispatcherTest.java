@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2006-2015 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.scopes.spi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.mock.MockRuntimeException;
+
+/**
+ * Test class for class {@link ScopeSPIDispatcher}.
+ * 
+ * @author Boris Gregorcic
+ */
+public final class ScopeSPIDispatcherTest
+{
+  private static final ScopeSPIMethod <List <String>, String> ADD = new ScopeSPIMethod <List <String>, String> ("add") //$NON-NLS-1$
+  {
+    @Override
+    void invoke (final List <String> aSPI, final String aScope)
+    {
+      if (aSPI == null)
+        throw new MockRuntimeException ();
+      aSPI.add (aScope);
+    }
+  };
+
+  @Test
+  public void testDispatch ()
+  {
+    for (int nCount = 0; nCount < 5; ++nCount)
+    {
+      final List <List <String>> aSPIs = ContainerHelper.newList ();
+      for (int i = 0; i < nCount; ++i)
+        aSPIs.add (ContainerHelper.<String> newList ());
+      final ScopeSPIDispatcher <List <String>, String> aDispatcher = ScopeSPIDispatcher.create (aSPIs);
+      assertEquals (nCount, aDispatcher.getSPICount ());
+      assertEquals (aSPIs, aDispatcher.getAllSPIs ());
+
+      aDispatcher.dispatch (ADD, "scope"); //$NON-NLS-1$
+      for (final List <String> aSPI : aSPIs)
+        assertEquals (ContainerHelper.newList ("scope"), aSPI); //$NON-NLS-1$
+    }
+  }
+
+  @Test
+  public void testFailingSPI ()
+  {
+    final List <String> aFirst = ContainerHelper.newList ();
+    final List <String> aLast = ContainerHelper.newList ();
+    final ScopeSPIDispatcher <List <String>, String> aDispatcher = ScopeSPIDispatcher.create (ContainerHelper.newList (aFirst,
+                                                                                                                        null,
+                                                                                                                        aLast));
+    // Many more failures than are logged - must not propagate
+    for (int i = 0; i < 5 * ScopeSPIDispatcher.MAX_LOGGED_FAILURES_PER_INTERVAL; ++i)
+      aDispatcher.dispatch (ADD, "scope"); //$NON-NLS-1$
+    assertEquals (5 * ScopeSPIDispatcher.MAX_LOGGED_FAILURES_PER_INTERVAL, aFirst.size ());
+    assertEquals (5 * ScopeSPIDispatcher.MAX_LOGGED_FAILURES_PER_INTERVAL, aLast.size ());
+  }
+}
@@ -18,11 +18,19 @@
 package com.phloc.scopes.spi;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 import com.phloc.scopes.ScopeUtils;
+import com.phloc.scopes.domain.IApplicationScope;
+import com.phloc.scopes.domain.IRequestScope;
 import com.phloc.scopes.domain.ISessionScope;
+import com.phloc.scopes.mgr.EScope;
 import com.phloc.scopes.mgr.ScopeManager;
 
 /**
@@ -305,4 +313,113 @@ public final class ScopeSPIManagerTest
     assertEquals (nPrev + 3, AbstractScopeSPI.getEnd ());
     assertEquals (nPrevT + 3, AbstractThrowingScopeSPI.getEnd ());
   }
+
+  @Test
+  public void testAsyncRequestScopeEnd ()
+  {
+    final int nPrev = MockAsyncRequestScopeSPI.getEnd ();
+    ScopeManager.onGlobalBegin ("global"); //$NON-NLS-1$
+    for (int i = 0; i < 100; ++i)
+    {
+      ScopeManager.onRequestBegin ("appid", "scopeid" + i, "sessionid"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      ScopeManager.onRequestEnd ();
+    }
+
+    // All pending notifications are delivered when the global scope ends
+    ScopeManager.onGlobalEnd ();
+    assertEquals (nPrev + 100, MockAsyncRequestScopeSPI.getEnd ());
+    assertEquals (0, MockAsyncRequestScopeSPI.getSyncEnd ());
+    assertNotSame (Thread.currentThread (), MockAsyncRequestScopeSPI.getLastEndThread ());
+
+    // The information was captured when the request ended
+    final ScopeEndInfo aInfo = MockAsyncRequestScopeSPI.getLastEndInfo ();
+    assertEquals (EScope.REQUEST, aInfo.getScope ());
+    assertEquals ("scopeid99", aInfo.getScopeID ()); //$NON-NLS-1$
+    assertEquals ("sessionid", aInfo.getSessionID ()); //$NON-NLS-1$
+    assertEquals ("appid", aInfo.getApplicationID ()); //$NON-NLS-1$
+  }
+
+  private static final class MockAsyncApplicationScopeSPI implements IApplicationScopeSPI, IAsyncScopeSPI
+  {
+    private final AtomicInteger m_aEnd = new AtomicInteger (0);
+
+    public void onApplicationScopeBegin (final IApplicationScope aApplicationScope)
+    {}
+
+    public void onApplicationScopeEnd (final IApplicationScope aApplicationScope)
+    {}
+
+    public void onScopeEndAsync (final ScopeEndInfo aInfo)
+    {
+      assertEquals (EScope.APPLICATION, aInfo.getScope ());
+      m_aEnd.incrementAndGet ();
+    }
+  }
+
+  @Test
+  public void testAsyncEndDuringGlobalScopeEnd ()
+  {
+    final MockAsyncApplicationScopeSPI aSPI = new MockAsyncApplicationScopeSPI ();
+    ScopeSPIManager.getApplicationScopeSPIRegistry ().registerSPI (aSPI);
+    try
+    {
+      ScopeManager.onGlobalBegin ("global"); //$NON-NLS-1$
+      ScopeManager.getGlobalScope ().getApplicationScope ("app1", true); //$NON-NLS-1$
+      ScopeManager.getGlobalScope ().getApplicationScope ("app2", true); //$NON-NLS-1$
+
+      // The application scopes end while the global scope is destroyed - they
+      // must still be delivered before onGlobalEnd returns
+      ScopeManager.onGlobalEnd ();
+      assertEquals (2, aSPI.m_aEnd.get ());
+    }
+    finally
+    {
+      ScopeSPIManager.getApplicationScopeSPIRegistry ().unregisterSPI (aSPI);
+    }
+  }
+
+  @Test
+  public void testRuntimeRegistration ()
+  {
+    final AtomicInteger aBegin = new AtomicInteger (0);
+    final IRequestScopeSPI aSPI = new IRequestScopeSPI ()
+    {
+      public void onRequestScopeBegin (final IRequestScope aRequestScope)
+      {
+        aBegin.incrementAndGet ();
+      }
+
+      public void onRequestScopeEnd (final IRequestScope aRequestScope)
+      {}
+    };
+    final int nSPIs = ScopeSPIManager.getRequestScopeSPIRegistry ().getAllSPIs ().size ();
+    assertTrue (ScopeSPIManager.getRequestScopeSPIRegistry ().registerSPI (aSPI).isChanged ());
+    assertFalse (ScopeSPIManager.getRequestScopeSPIRegistry ().registerSPI (aSPI).isChanged ());
+    assertEquals (nSPIs + 1, ScopeSPIManager.getRequestScopeSPIRegistry ().getAllSPIs ().size ());
+    assertTrue (ScopeSPIManager.getRequestScopeSPIRegistry ().getAllSPIs ().get (nSPIs) == aSPI);
+    try
+    {
+      ScopeManager.onGlobalBegin ("global"); //$NON-NLS-1$
+      ScopeManager.onRequestBegin ("appid", "scopeid", "sessionid"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      ScopeManager.onRequestEnd ();
+      assertEquals (1, aBegin.get ());
+    }
+    finally
+    {
+      assertTrue (ScopeSPIManager.getRequestScopeSPIRegistry ().unregisterSPI (aSPI).isChanged ());
+    }
+    assertFalse (ScopeSPIManager.getRequestScopeSPIRegistry ().unregisterSPI (aSPI).isChanged ());
+    assertEquals (nSPIs, ScopeSPIManager.getRequestScopeSPIRegistry ().getAllSPIs ().size ());
+
+    // Not notified any more
+    ScopeManager.onRequestBegin ("appid", "scopeid", "sessionid"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    ScopeManager.onRequestEnd ();
+    ScopeManager.onGlobalEnd ();
+    assertEquals (1, aBegin.get ());
+
+    // Reload restores the service loader state
+    ScopeSPIManager.getRequestScopeSPIRegistry ().registerSPI (aSPI);
+    ScopeSPIManager.reloadAllSPIs ();
+    assertEquals (nSPIs, ScopeSPIManager.getRequestScopeSPIRegistry ().getAllSPIs ().size ());
+  }
 }